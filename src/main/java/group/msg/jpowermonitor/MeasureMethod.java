@@ -78,4 +78,17 @@ public interface MeasureMethod {
      * @return Configured percentage of samples at the beginning of the measurement to discard.
      */
     @NotNull BigDecimal getPercentageOfSamplesAtBeginningToDiscard();
+
+    /**
+     * @return note on how the power is measured, printed once in the startup banner, <code>null</code> if there is nothing to note
+     */
+    default @Nullable String describe() {
+        return null;
+    }
+
+    /**
+     * Releases the resources of the measure method (e.g. open files), called when the measurement ends.
+     */
+    default void close() {
+    }
 }
@@ -3,6 +3,8 @@ package group.msg.jpowermonitor;
 import group.msg.jpowermonitor.config.JPowerMonitorConfig;
 import group.msg.jpowermonitor.measurement.csv.CommaSeparatedValuesReader;
 import group.msg.jpowermonitor.measurement.lhm.LibreHardwareMonitorReader;
+import group.msg.jpowermonitor.measurement.model.CpuUtilizationPowerModel;
+import group.msg.jpowermonitor.measurement.rapl.RaplReader;
 
 /**
  * Factory for creating the MeasureMethod from the config.
@@ -15,6 +17,10 @@ public class MeasureMethodProvider {
             return new CommaSeparatedValuesReader(config);
         } else if ("lhm".equals(config.getMeasurement().getMethod())) {
             return new LibreHardwareMonitorReader(config);
+        } else if ("rapl".equals(config.getMeasurement().getMethod())) {
+            return new RaplReader(config);
+        } else if ("model".equals(config.getMeasurement().getMethod())) {
+            return new CpuUtilizationPowerModel(config);
         } else {
             throw new JPowerMonitorException("Unknown measure method " + config.getMeasurement().getMethod());
         }
@@ -0,0 +1,186 @@
+package group.msg.jpowermonitor.agent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived writer appending to a CSV file through a reusable direct {@link ByteBuffer}.
+ * <br><br>
+ * The file channel is opened on the first write and kept open until {@link #close()}. The buffer is written to the file
+ * when it is full (size policy) or when the oldest buffered row is older than the flush interval (time policy, see {@link #flushIfDue(long)}).
+ * Optionally the file is synced to the storage device (<code>fsync</code>) in a fixed interval.
+ * <br><br>
+ * The text is encoded with the default charset, like {@link java.io.FileWriter} does. Binary records, e.g. of the {@link PowerSeriesWriter},
+ * are appended as they are.
+ * All methods are synchronized, so the writer can be closed by a shutdown hook while another thread appends.
+ */
+class BufferedCsvFileWriter implements AutoCloseable {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final long flushIntervalInNanos;
+    private final long fsyncIntervalInNanos;
+    private FileChannel channel;
+    private long firstBufferedInNanos;
+    private long lastFsyncInNanos;
+    private boolean unsynced;
+    private boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param file              file to append to
+     * @param bufferSize        size of the buffer in bytes
+     * @param flushIntervalInMs maximum time a row stays in the buffer, <code>0</code> to write after each append
+     * @param fsyncIntervalInMs interval to sync the file to the storage device, <code>0</code> to leave it to the operating system
+     */
+    BufferedCsvFileWriter(Path file, int bufferSize, long flushIntervalInMs, long fsyncIntervalInMs) {
+        this.file = file;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.flushIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalInMs));
+        this.fsyncIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, fsyncIntervalInMs));
+    }
+
+    /**
+     * Appends the text to the buffer, full buffers are written to the file.
+     *
+     * @param text text to append
+     */
+    synchronized void append(CharSequence text) {
+        if (closed) {
+            return;
+        }
+        if (buffer.position() == 0) {
+            firstBufferedInNanos = System.nanoTime();
+        }
+        CharBuffer chars = CharBuffer.wrap(text);
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                writeBuffer();
+            }
+        } while (result.isOverflow());
+        while (encoder.flush(buffer).isOverflow()) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Appends the bytes to the buffer, full buffers are written to the file.
+     *
+     * @param bytes bytes to append, consumed completely
+     */
+    synchronized void append(ByteBuffer bytes) {
+        if (closed) {
+            return;
+        }
+        if (buffer.position() == 0) {
+            firstBufferedInNanos = System.nanoTime();
+        }
+        while (bytes.remaining() > buffer.remaining()) {
+            ByteBuffer part = bytes.slice();
+            part.limit(buffer.remaining());
+            buffer.put(part);
+            bytes.position(bytes.position() + part.limit());
+            writeBuffer();
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes the buffer to the file if the flush interval has elapsed and syncs the file if the fsync interval has elapsed.
+     *
+     * @param nowInNanos current {@link System#nanoTime()}
+     */
+    synchronized void flushIfDue(long nowInNanos) {
+        if (closed) {
+            return;
+        }
+        if (buffer.position() > 0 && nowInNanos - firstBufferedInNanos >= flushIntervalInNanos) {
+            writeBuffer();
+        }
+        if (fsyncIntervalInNanos > 0 && unsynced && nowInNanos - lastFsyncInNanos >= fsyncIntervalInNanos) {
+            fsync();
+            lastFsyncInNanos = nowInNanos;
+        }
+    }
+
+    /**
+     * Writes the buffer to the file.
+     */
+    synchronized void flush() {
+        if (!closed) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Writes the buffer, syncs and closes the file. Later appends are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        writeBuffer();
+        if (channel != null) {
+            fsync();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.err.println(ex.getLocalizedMessage());
+                ex.printStackTrace();
+            }
+        }
+        closed = true;
+    }
+
+    private void writeBuffer() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            unsynced = true;
+        } catch (IOException ex) {
+            // the buffered rows are discarded, further rows are written as soon as the file is writable again
+            System.err.println(ex.getLocalizedMessage());
+            ex.printStackTrace();
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void fsync() {
+        if (channel == null || !unsynced) {
+            return;
+        }
+        try {
+            channel.force(false);
+            unsynced = false;
+        } catch (IOException ex) {
+            System.err.println(ex.getLocalizedMessage());
+            ex.printStackTrace();
+        }
+    }
+}
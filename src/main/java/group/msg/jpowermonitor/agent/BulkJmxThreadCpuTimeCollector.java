@@ -0,0 +1,40 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Reads the CPU time of all threads with one single {@link com.sun.management.ThreadMXBean#getThreadCpuTime(long[])} call.<br>
+ * Requires the HotSpot (or compatible) extension of the {@link java.lang.management.ThreadMXBean}.
+ *
+ * @see JmxThreadCpuTimeCollector
+ */
+class BulkJmxThreadCpuTimeCollector implements ThreadCpuTimeCollector {
+    private final com.sun.management.ThreadMXBean threadMxBean;
+
+    BulkJmxThreadCpuTimeCollector(com.sun.management.ThreadMXBean threadMxBean) {
+        this.threadMxBean = threadMxBean;
+    }
+
+    @Override
+    public long collect(ThreadCpuTimeRegistry cpuTimePerApplicationThread) {
+        long[] threadIds = threadMxBean.getAllThreadIds();
+        return collect(cpuTimePerApplicationThread, threadIds);
+    }
+
+    /**
+     * Reads the CPU time of the given threads only.
+     *
+     * @param cpuTimePerApplicationThread registry of CPU time per thread id
+     * @param threadIds                   ids of the threads to read
+     * @return total CPU time of the given threads in the current interval in nanoseconds
+     */
+    long collect(ThreadCpuTimeRegistry cpuTimePerApplicationThread, long[] threadIds) {
+        long[] cpuTimes = threadMxBean.getThreadCpuTime(threadIds);
+        long totalApplicationCpuTime = 0;
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 if the thread has terminated in the meantime
+            if (cpuTimes[i] >= 0) {
+                totalApplicationCpuTime += cpuTimePerApplicationThread.update(threadIds[i], cpuTimes[i]);
+            }
+        }
+        return totalApplicationCpuTime;
+    }
+}
@@ -0,0 +1,232 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Inclusive call tree energy profile: the sampled stacks are merged into a trie of method ids sharing common prefixes
+ * (outermost frame first), so deep and repetitive stacks need only little memory. Each node stores the energy of the samples
+ * ending in it (self energy), the inclusive energy of a node is the sum of the self energies of its subtree.
+ * <br><br>
+ * The trie is limited to {@value #MAX_NODES} nodes. If it is full, stacks with new paths are cut off at the deepest existing node.
+ * <br><br>
+ * Nodes are added by the sampling thread, energy is added by the thread collecting the power statistics and
+ * the results are read by the thread writing the results, so all methods are synchronized.
+ *
+ * @see MethodSymbolTable
+ */
+class CallTree {
+    /**
+     * Root node, parent of the outermost frames.
+     */
+    static final int ROOT = 0;
+    /**
+     * Node id for "no node", e.g. if the call tree is disabled.
+     */
+    static final int NO_NODE = -1;
+    static final int MAX_NODES = 1 << 20;
+    private static final long FREE = -1L;
+    private static final int INITIAL_CAPACITY = 1024;
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] methodIds = new int[INITIAL_CAPACITY];
+    private long[] selfMicroJoules = new long[INITIAL_CAPACITY];
+    private int size = 1; // root
+    // hash table: (parent node, method id) -> child node
+    private long[] childKeys = newKeys(INITIAL_CAPACITY * 2);
+    private int[] childNodes = new int[INITIAL_CAPACITY * 2];
+    /**
+     * Method ids of all nodes, they must not be recycled by the {@link MethodSymbolTable}.
+     */
+    private final BitSet nodeMethodIds = new BitSet();
+
+    CallTree() {
+        parents[ROOT] = NO_NODE;
+        methodIds[ROOT] = MethodSymbolTable.NO_METHOD;
+    }
+
+    /**
+     * Adds the path of a sampled stack.
+     *
+     * @param methodIds method ids of the stack, topmost frame first
+     * @param depth     number of frames of the stack
+     * @return node of the topmost frame
+     */
+    synchronized int add(int[] methodIds, int depth) {
+        int node = ROOT;
+        for (int i = depth - 1; i >= 0; i--) {
+            int child = child(node, methodIds[i]);
+            if (child == NO_NODE) {
+                break; // tree is full
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * @param node        node of the sampled stack
+     * @param microJoules energy of the samples ending in the node
+     */
+    synchronized void addSelfEnergy(int node, long microJoules) {
+        selfMicroJoules[node] += microJoules;
+    }
+
+    /**
+     * @return number of nodes including the root
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return copy of the method ids of all nodes
+     */
+    synchronized BitSet getMethodIds() {
+        return (BitSet) nodeMethodIds.clone();
+    }
+
+    /**
+     * @return consistent copy of the current energy profile
+     */
+    synchronized Snapshot snapshot() {
+        return new Snapshot(Arrays.copyOf(parents, size), Arrays.copyOf(methodIds, size), Arrays.copyOf(selfMicroJoules, size));
+    }
+
+    private int child(int parent, int methodId) {
+        long key = ((long) parent << 32) | (methodId & 0xFFFFFFFFL);
+        int mask = childKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (childKeys[slot] != FREE) {
+            if (childKeys[slot] == key) {
+                return childNodes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == MAX_NODES) {
+            return NO_NODE;
+        }
+        int node = size++;
+        if (node == parents.length) {
+            grow();
+            return child(parent, methodId);
+        }
+        parents[node] = parent;
+        methodIds[node] = methodId;
+        nodeMethodIds.set(methodId);
+        childKeys[slot] = key;
+        childNodes[slot] = node;
+        return node;
+    }
+
+    private void grow() {
+        size--; // the node is added again after growing
+        int capacity = parents.length * 2;
+        parents = Arrays.copyOf(parents, capacity);
+        methodIds = Arrays.copyOf(methodIds, capacity);
+        selfMicroJoules = Arrays.copyOf(selfMicroJoules, capacity);
+        long[] oldChildKeys = childKeys;
+        int[] oldChildNodes = childNodes;
+        childKeys = newKeys(capacity * 2); // load factor <= 0.5
+        childNodes = new int[capacity * 2];
+        int mask = childKeys.length - 1;
+        for (int i = 0; i < oldChildKeys.length; i++) {
+            if (oldChildKeys[i] != FREE) {
+                int slot = hash(oldChildKeys[i]) & mask;
+                while (childKeys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                childKeys[slot] = oldChildKeys[i];
+                childNodes[slot] = oldChildNodes[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        return Long.hashCode(key * 0x9E3779B97F4A7C15L);
+    }
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        return keys;
+    }
+
+    /**
+     * Copy of the call tree with self and inclusive energy per node.
+     */
+    static class Snapshot {
+        private final int[] parents;
+        private final int[] methodIds;
+        private final long[] selfMicroJoules;
+        private final long[] inclusiveMicroJoules;
+
+        private Snapshot(int[] parents, int[] methodIds, long[] selfMicroJoules) {
+            this.parents = parents;
+            this.methodIds = methodIds;
+            this.selfMicroJoules = selfMicroJoules;
+            this.inclusiveMicroJoules = Arrays.copyOf(selfMicroJoules, selfMicroJoules.length);
+            // children are always created after their parents, so iterating backwards visits each subtree before its root
+            for (int node = parents.length - 1; node > ROOT; node--) {
+                inclusiveMicroJoules[parents[node]] += inclusiveMicroJoules[node];
+            }
+        }
+
+        /**
+         * @return number of nodes including the root
+         */
+        int size() {
+            return parents.length;
+        }
+
+        int getParent(int node) {
+            return parents[node];
+        }
+
+        int getMethodId(int node) {
+            return methodIds[node];
+        }
+
+        long getSelfMicroJoules(int node) {
+            return selfMicroJoules[node];
+        }
+
+        long getInclusiveMicroJoules(int node) {
+            return inclusiveMicroJoules[node];
+        }
+
+        /**
+         * Creates the profile in the collapsed stack format used by flame graph tools:
+         * one line per stack with self energy, frames from outermost to topmost separated by <code>;</code>,
+         * followed by a space and the self energy in micro joules.
+         *
+         * @param methodSymbolTable symbol table to resolve the method names
+         * @return collapsed stacks
+         */
+        List<String> toCollapsedStacks(MethodSymbolTable methodSymbolTable) {
+            List<String> lines = new ArrayList<>();
+            int[] path = new int[64];
+            StringBuilder line = new StringBuilder();
+            for (int node = ROOT + 1; node < parents.length; node++) {
+                if (selfMicroJoules[node] <= 0) {
+                    continue;
+                }
+                int depth = 0;
+                for (int n = node; n != ROOT; n = parents[n]) {
+                    if (depth == path.length) {
+                        path = Arrays.copyOf(path, depth * 2);
+                    }
+                    path[depth++] = n;
+                }
+                line.setLength(0);
+                for (int i = depth - 1; i >= 0; i--) {
+                    line.append(methodSymbolTable.getQualifiedName(methodIds[path[i]]));
+                    line.append(i > 0 ? ';' : ' ');
+                }
+                lines.add(line.append(selfMicroJoules[node]).toString());
+            }
+            return lines;
+        }
+    }
+}
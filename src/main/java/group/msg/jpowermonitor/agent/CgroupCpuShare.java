@@ -0,0 +1,156 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.util.ProcStatReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Attributes the share of the power to the application that the CPU time of its cgroup (v2) has of the busy CPU time of the node
+ * in the same interval, e.g. for a container limited to 2 of 64 cores while the sensor measures the whole node.
+ * The CPU time of the cgroup is <code>usage_usec</code> in its <code>cpu.stat</code>, the busy CPU time of the node is read
+ * from <code>/proc/stat</code> (not virtualized by the container runtime).
+ * <br><br>
+ * The cgroup of the process is looked up once in <code>/proc/self/cgroup</code> (line <code>0::&lt;path&gt;</code>).
+ * <code>cpu.stat</code> is opened once and re-read with a positional read into a reused buffer once per interval, until {@link #close()}.
+ * If the CPU times cannot be read, the share of the previous interval is kept.
+ */
+class CgroupCpuShare implements PowerShare {
+    static final Path PROC_SELF_CGROUP = Paths.get("/proc/self/cgroup");
+    static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+    private static final byte[] USAGE_USEC = "usage_usec ".getBytes(StandardCharsets.US_ASCII);
+    private final Path cpuStat;
+    private final FileChannel cpuStatChannel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private final ProcStatReader procStat;
+    private long lastUsageInMicros;
+    private long lastBusyTicks;
+    private double share = 1.0;
+
+    /**
+     * @param cpuStat  <code>cpu.stat</code> of the cgroup, see {@link #resolveCpuStat(Path, Path)}
+     * @param procStat reader of the CPU times of the node, closed with this share
+     * @throws IOException if the CPU times cannot be read, the reader is closed then
+     */
+    CgroupCpuShare(Path cpuStat, ProcStatReader procStat) throws IOException {
+        this.cpuStat = cpuStat;
+        this.procStat = procStat;
+        try {
+            this.cpuStatChannel = FileChannel.open(cpuStat, StandardOpenOption.READ);
+        } catch (IOException ex) {
+            procStat.close();
+            throw ex;
+        }
+        try {
+            procStat.read();
+            this.lastUsageInMicros = readUsageInMicros();
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+        this.lastBusyTicks = procStat.getBusyTicks();
+    }
+
+    /**
+     * @param procSelfCgroup cgroup membership of the process, normally {@link #PROC_SELF_CGROUP}
+     * @param cgroupRoot     mount point of the cgroup v2 hierarchy, normally {@link #CGROUP_ROOT}
+     * @return <code>cpu.stat</code> of the cgroup of the process, <code>null</code> if the process is not in a cgroup v2 hierarchy
+     */
+    static Path resolveCpuStat(Path procSelfCgroup, Path cgroupRoot) {
+        try {
+            for (String line : Files.readAllLines(procSelfCgroup, StandardCharsets.UTF_8)) {
+                if (line.startsWith("0::")) { // unified hierarchy
+                    Path cpuStat = cgroupRoot.resolve(line.substring(3).replaceFirst("^/+", "")).resolve("cpu.stat");
+                    return Files.isReadable(cpuStat) ? cpuStat : null;
+                }
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        return null;
+    }
+
+    @Override
+    public double nextInterval() {
+        long usageInMicros;
+        try {
+            usageInMicros = readUsageInMicros();
+            procStat.read();
+        } catch (IOException ex) {
+            return share;
+        }
+        long busyTicks = procStat.getBusyTicks();
+        share = ProcessCpuTimeShare.calculateShare((usageInMicros - lastUsageInMicros) * 1_000L, (busyTicks - lastBusyTicks) * ProcStatReader.NANOS_PER_TICK);
+        lastUsageInMicros = usageInMicros;
+        lastBusyTicks = busyTicks;
+        return share;
+    }
+
+    /**
+     * Closes <code>cpu.stat</code> and <code>/proc/stat</code>, further intervals keep the share of the last interval.
+     */
+    @Override
+    public void close() {
+        try {
+            cpuStatChannel.close();
+        } catch (IOException ex) {
+            System.err.println("Unable to close " + cpuStat + ": " + ex.getLocalizedMessage());
+        }
+        try {
+            procStat.close();
+        } catch (IOException ex) {
+            System.err.println("Unable to close " + ProcStatReader.PROC_STAT + ": " + ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @return <code>usage_usec</code> of <code>cpu.stat</code>, the CPU time of all processes in the cgroup in microseconds
+     */
+    private long readUsageInMicros() throws IOException {
+        buffer.clear();
+        cpuStatChannel.read(buffer, 0L);
+        int end = buffer.position();
+        int lineStart = 0;
+        while (lineStart < end) {
+            if (startsWith(lineStart, end, USAGE_USEC)) {
+                long usage = 0L;
+                int digits = 0;
+                for (int i = lineStart + USAGE_USEC.length; i < end; i++) {
+                    byte b = buffer.get(i);
+                    if (b < '0' || b > '9') {
+                        break;
+                    }
+                    usage = usage * 10 + (b - '0');
+                    digits++;
+                }
+                if (digits > 0) {
+                    return usage;
+                }
+                break;
+            }
+            while (lineStart < end && buffer.get(lineStart) != '\n') {
+                lineStart++;
+            }
+            lineStart++;
+        }
+        throw new IOException("'" + cpuStat + "' does not contain usage_usec");
+    }
+
+    private boolean startsWith(int position, int end, byte[] prefix) {
+        if (end - position < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
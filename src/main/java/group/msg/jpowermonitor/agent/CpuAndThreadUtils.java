@@ -1,17 +1,16 @@
 package group.msg.jpowermonitor.agent;
 
-import group.msg.jpowermonitor.dto.DataPoint;
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.config.JavaAgent;
+import group.msg.jpowermonitor.util.ProcStatReader;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.ThreadMXBean;
-import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-
-import static group.msg.jpowermonitor.util.Constants.MATH_CONTEXT;
-import static group.msg.jpowermonitor.util.Constants.ONE_HUNDRED;
+import java.nio.file.Path;
 
 /**
  * Utility class for all CPU and thread time/power related tasks
@@ -35,31 +34,106 @@ public class CpuAndThreadUtils {
         return threadMxBean;
     }
 
-    static long getTotalApplicationCpuTimeAndCalculateCpuTimePerApplicationThread(ThreadMXBean threadMxBean, Map<String, Long> cpuTimePerApplicationThread, Set<Thread> applicationThreads) {
-        long totalApplicationCpuTime = 0;
-        for (Thread t : applicationThreads) {
-            long applicationThreadCpuTime = threadMxBean.getThreadCpuTime(t.getId());
-
-            // If thread already monitored, then calculate CPU time since last time
-            if (cpuTimePerApplicationThread.containsKey(t.getName())) {
-                applicationThreadCpuTime -= cpuTimePerApplicationThread.get(t.getName());
+    /**
+     * Creates the collector for the thread CPU times as configured in <code>javaAgent.cpuTimeCollector</code>.<br>
+     * Falls back to a supported collector, if the configured one is not supported on this platform or JVM.
+     *
+     * @param javaAgentCfg java agent config
+     * @param threadMxBean bean to read the thread CPU times from
+     * @return the thread CPU time collector
+     */
+    @NotNull
+    static ThreadCpuTimeCollector resolveThreadCpuTimeCollector(JavaAgent javaAgentCfg, ThreadMXBean threadMxBean) {
+        String cpuTimeCollector = javaAgentCfg.getCpuTimeCollector();
+        if (!"jmx".equals(cpuTimeCollector) && !"jmxBulk".equals(cpuTimeCollector) && !"procfs".equals(cpuTimeCollector)) {
+            throw new JPowerMonitorException("Unknown CPU time collector " + cpuTimeCollector);
+        }
+        if ("jmx".equals(cpuTimeCollector)) {
+            return new JmxThreadCpuTimeCollector(threadMxBean);
+        }
+        if (!(threadMxBean instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Bulk reading of thread CPU times is not supported in this JVM, falling back to CPU time collector 'jmx'");
+            return new JmxThreadCpuTimeCollector(threadMxBean);
+        }
+        com.sun.management.ThreadMXBean extendedThreadMxBean = (com.sun.management.ThreadMXBean) threadMxBean;
+        if ("procfs".equals(cpuTimeCollector)) {
+            if (ProcfsThreadCpuTimeCollector.isAvailable()) {
+                return new ProcfsThreadCpuTimeCollector(ProcfsThreadCpuTimeCollector.PROC_SELF_TASK, extendedThreadMxBean);
             }
+            System.err.println(ProcfsThreadCpuTimeCollector.PROC_SELF_TASK + " is not available, falling back to CPU time collector 'jmxBulk'");
+        }
+        return new BulkJmxThreadCpuTimeCollector(extendedThreadMxBean);
+    }
 
-            cpuTimePerApplicationThread.put(t.getName(), applicationThreadCpuTime);
-            totalApplicationCpuTime += applicationThreadCpuTime;
+    /**
+     * Creates the share of the measured power attributed to the application as configured in <code>javaAgent.powerAttribution</code>.<br>
+     * Falls back to attributing the full power, if the configured share cannot be read on this platform or JVM.
+     *
+     * @param javaAgentCfg java agent config
+     * @return the power share, <code>null</code> to attribute the full power
+     */
+    @Nullable
+    static PowerShare resolvePowerShare(JavaAgent javaAgentCfg) {
+        String powerAttribution = javaAgentCfg.getPowerAttribution();
+        if (!"full".equals(powerAttribution) && !"processShare".equals(powerAttribution) && !"cgroupShare".equals(powerAttribution)) {
+            throw new JPowerMonitorException("Unknown power attribution " + powerAttribution);
+        }
+        if ("full".equals(powerAttribution)) {
+            return null;
         }
+        if (!ProcStatReader.isAvailable()) {
+            System.err.println(ProcStatReader.PROC_STAT + " is not available, falling back to power attribution 'full'");
+            return null;
+        }
+        if ("cgroupShare".equals(powerAttribution)) {
+            Path cpuStat = CgroupCpuShare.resolveCpuStat(CgroupCpuShare.PROC_SELF_CGROUP, CgroupCpuShare.CGROUP_ROOT);
+            if (cpuStat == null) {
+                System.err.println("The cgroup v2 CPU statistics of this process are not available, falling back to power attribution 'processShare'");
+            } else {
+                try {
+                    return new CgroupCpuShare(cpuStat, new ProcStatReader(ProcStatReader.PROC_STAT));
+                } catch (IOException ex) {
+                    System.err.println(cpuStat + " is not readable (" + ex.getMessage() + "), falling back to power attribution 'processShare'");
+                }
+            }
+        }
+        OperatingSystemMXBean osMxBean = ManagementFactory.getOperatingSystemMXBean();
+        if (!(osMxBean instanceof com.sun.management.OperatingSystemMXBean) || ((com.sun.management.OperatingSystemMXBean) osMxBean).getProcessCpuTime() < 0L) {
+            System.err.println("Process CPU time is not supported in this JVM, falling back to power attribution 'full'");
+            return null;
+        }
+        try {
+            return new ProcessCpuTimeShare(((com.sun.management.OperatingSystemMXBean) osMxBean)::getProcessCpuTime, new ProcStatReader(ProcStatReader.PROC_STAT));
+        } catch (IOException ex) {
+            System.err.println(ProcStatReader.PROC_STAT + " is not readable (" + ex.getMessage() + "), falling back to power attribution 'full'");
+            return null;
+        }
+    }
+
+    /**
+     * Reads the CPU time of all live threads and updates the registry with the CPU time consumed in the current interval.<br>
+     * Terminated threads are evicted from the registry.
+     *
+     * @param threadCpuTimeCollector      collector to read the thread CPU times with
+     * @param cpuTimePerApplicationThread registry of CPU time per thread id
+     * @return total CPU time of all application threads in the current interval in nanoseconds
+     */
+    static long getTotalApplicationCpuTimeAndCalculateCpuTimePerApplicationThread(ThreadCpuTimeCollector threadCpuTimeCollector, ThreadCpuTimeRegistry cpuTimePerApplicationThread) {
+        cpuTimePerApplicationThread.startInterval();
+        long totalApplicationCpuTime = threadCpuTimeCollector.collect(cpuTimePerApplicationThread);
+        cpuTimePerApplicationThread.evictTerminatedThreads();
         return totalApplicationCpuTime;
     }
 
-    @NotNull
-    static Map<String, BigDecimal> calculatePowerPerApplicationThread(Map<String, Long> cpuTimePerApplicationThread, DataPoint currentPower, long totalApplicationCpuTime) {
-        Map<String, BigDecimal> powerPerApplicationThread = new HashMap<>();
-        for (Map.Entry<String, Long> entry : cpuTimePerApplicationThread.entrySet()) {
-            BigDecimal percentageCpuTimePerApplicationThread =
-                totalApplicationCpuTime > 0 ? new BigDecimal(entry.getValue()).multiply(ONE_HUNDRED, MATH_CONTEXT).divide(new BigDecimal(totalApplicationCpuTime), MATH_CONTEXT) : BigDecimal.ZERO;
-            BigDecimal applicationThreadPower = currentPower.getValue().multiply(percentageCpuTimePerApplicationThread.divide(ONE_HUNDRED, MATH_CONTEXT), MATH_CONTEXT);
-            powerPerApplicationThread.put(entry.getKey(), applicationThreadPower);
-        }
-        return powerPerApplicationThread;
+    /**
+     * Attributes the current power to an application thread by its share of the total application CPU time.
+     *
+     * @param threadCpuTime           CPU time of the thread in the current interval
+     * @param totalApplicationCpuTime CPU time of all application threads in the current interval
+     * @param currentPowerInWatts     current power
+     * @return power of the thread in watts
+     */
+    static double calculatePowerOfApplicationThread(long threadCpuTime, long totalApplicationCpuTime, double currentPowerInWatts) {
+        return totalApplicationCpuTime > 0 ? currentPowerInWatts * threadCpuTime / totalApplicationCpuTime : 0.0;
     }
 }
@@ -0,0 +1,95 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring buffer for exactly one producer thread and one consumer thread.
+ * <br><br>
+ * The slots are preallocated. If the buffer is full, the producer never waits: the oldest element is dropped and counted instead,
+ * so a slow consumer cannot slow down the producer. Producer and consumer both advance the head with a CAS, therefore the consumer
+ * reads the element before it claims the slot and retries if the producer has dropped it in the meantime.
+ * <br><br>
+ * Polled slots are not cleared (the producer may already reuse them), so up to <code>capacity</code> consumed elements stay reachable.
+ *
+ * @param <E> type of the elements
+ */
+class DropOldestRingBuffer<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final int mask;
+    /**
+     * Sequence of the next element to poll.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Sequence of the next element to offer, only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param capacity minimum capacity, rounded up to the next power of two
+     */
+    DropOldestRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds the element, drops the oldest element if the buffer is full. Only called by the producer thread.
+     *
+     * @param element element to add, not <code>null</code>
+     */
+    void offer(E element) {
+        long t = tail.get();
+        long h = head.get();
+        while (t - h > mask) {
+            if (head.compareAndSet(h, h + 1)) {
+                dropped.incrementAndGet();
+                break;
+            }
+            h = head.get(); // consumer polled in the meantime
+        }
+        elements.set((int) t & mask, element);
+        tail.set(t + 1);
+    }
+
+    /**
+     * Removes the oldest element. Only called by the consumer thread.
+     *
+     * @return oldest element, <code>null</code> if the buffer is empty
+     */
+    E poll() {
+        while (true) {
+            long h = head.get();
+            if (h - tail.get() >= 0) {
+                return null;
+            }
+            E element = elements.get((int) h & mask);
+            if (head.compareAndSet(h, h + 1)) {
+                return element;
+            }
+        }
+    }
+
+    /**
+     * @return number of elements currently in the buffer
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return number of elements dropped because the buffer was full
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
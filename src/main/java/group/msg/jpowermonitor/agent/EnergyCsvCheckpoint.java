@@ -0,0 +1,211 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Incremental checkpoints of the energy per method CSV files.
+ * <br><br>
+ * The CSV row of each method is cached by its slot, see {@link MethodEnergy#getSlot(int)}, so the rows are bounded by the number of
+ * tracked methods if it is limited. Methods whose energy changed since the last checkpoint are queued as dirty
+ * (once per checkpoint, see {@link MethodEnergy#markDirty()}), so a checkpoint only creates the rows of the changed methods.
+ * The files are written as full snapshot to a temporary file, synced and atomically renamed to the target file,
+ * thus a crash during a checkpoint never leaves a truncated file behind.
+ * <br><br>
+ * {@link #markDirty(int, MethodEnergy)} may be called from any thread, checkpoints are synchronized.
+ */
+class EnergyCsvCheckpoint {
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final AtomicLong TEMP_FILE_COUNTER = new AtomicLong();
+    /**
+     * Slot (high 32 bits) and method id (low 32 bits) of the changed methods.
+     */
+    private final Queue<Long> dirtyMethods = new ConcurrentLinkedQueue<>();
+    /**
+     * CSV row per slot, <code>null</code> if the slot has no method with energy yet.
+     */
+    private String[] rows = new String[256];
+    /**
+     * Method id of the row per slot, a slot is taken over by another method if its method is replaced.
+     */
+    private int[] rowMethodIds = new int[256];
+    /**
+     * If the method of the row matches the package filter, per slot.
+     */
+    private boolean[] rowsFiltered = new boolean[256];
+    private boolean rowsCreated;
+    private BigDecimal rowsCarbonDioxideEmissionFactor;
+
+    /**
+     * Queues the method for the next checkpoint if its energy was unchanged before.
+     *
+     * @param methodId     id of the method
+     * @param methodEnergy energy of the method, already updated
+     */
+    void markDirty(int methodId, MethodEnergy methodEnergy) {
+        if (methodEnergy.markDirty()) {
+            dirtyMethods.add(toDirtyMethod(methodEnergy.getSlot(methodId), methodId));
+        }
+    }
+
+    /**
+     * Queues the method for the next checkpoint after it was removed from the energy per method, its row is removed then
+     * unless its slot was taken over by another method.
+     *
+     * @param methodId     id of the method
+     * @param methodEnergy removed energy of the method
+     */
+    void markRemoved(int methodId, MethodEnergy methodEnergy) {
+        dirtyMethods.add(toDirtyMethod(methodEnergy.getSlot(methodId), methodId));
+    }
+
+    private static long toDirtyMethod(int slot, int methodId) {
+        return ((long) slot << 32) | (methodId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Updates the rows of the changed methods and writes both files.
+     *
+     * @param energyPerMethod             energy per method id
+     * @param methodSymbolTable           symbol table of the method ids
+     * @param csvEntryForDataPoint        creates the CSV row of a method's energy
+     * @param carbonDioxideEmissionFactor factor used by the CSV rows, all rows are recreated if it changes
+     * @param file                        file for all methods
+     * @param filteredFile                file for the methods matching the package filter
+     * @return number of rows created
+     */
+    synchronized int write(Map<Integer, MethodEnergy> energyPerMethod, MethodSymbolTable methodSymbolTable, Function<DataPoint, String> csvEntryForDataPoint,
+                           BigDecimal carbonDioxideEmissionFactor, Path file, Path filteredFile) {
+        int created = 0;
+        if (!rowsCreated || !Objects.equals(rowsCarbonDioxideEmissionFactor, carbonDioxideEmissionFactor)) {
+            while (dirtyMethods.poll() != null) {
+                // all rows are created below
+            }
+            Arrays.fill(rows, null);
+            for (Map.Entry<Integer, MethodEnergy> entry : energyPerMethod.entrySet()) {
+                MethodEnergy methodEnergy = entry.getValue();
+                methodEnergy.clearDirty();
+                updateRow(methodEnergy.getSlot(entry.getKey()), entry.getKey(), methodEnergy, methodSymbolTable, csvEntryForDataPoint);
+                created++;
+            }
+            rowsCreated = true;
+            rowsCarbonDioxideEmissionFactor = carbonDioxideEmissionFactor;
+        } else {
+            Long dirtyMethod;
+            while ((dirtyMethod = dirtyMethods.poll()) != null) {
+                int slot = (int) (dirtyMethod >>> 32);
+                int methodId = dirtyMethod.intValue();
+                MethodEnergy methodEnergy = energyPerMethod.get(methodId);
+                if (methodEnergy == null || methodEnergy.getSlot(methodId) != slot) {
+                    removeRow(slot, methodId);
+                    continue;
+                }
+                methodEnergy.clearDirty(); // changes after this point are marked again and written by the next checkpoint
+                updateRow(slot, methodId, methodEnergy, methodSymbolTable, csvEntryForDataPoint);
+                created++;
+            }
+        }
+
+        StringBuilder all = new StringBuilder();
+        StringBuilder filtered = new StringBuilder();
+        for (int slot = 0; slot < rows.length; slot++) {
+            if (rows[slot] != null) {
+                all.append(rows[slot]);
+                if (rowsFiltered[slot]) {
+                    filtered.append(rows[slot]);
+                }
+            }
+        }
+        writeAtomically(all, file);
+        writeAtomically(filtered, filteredFile);
+        return created;
+    }
+
+    private void updateRow(int slot, int methodId, MethodEnergy methodEnergy, MethodSymbolTable methodSymbolTable,
+                           Function<DataPoint, String> csvEntryForDataPoint) {
+        if (slot >= rows.length) {
+            int capacity = Math.max(slot + 1, rows.length * 2);
+            rows = Arrays.copyOf(rows, capacity);
+            rowMethodIds = Arrays.copyOf(rowMethodIds, capacity);
+            rowsFiltered = Arrays.copyOf(rowsFiltered, capacity);
+        }
+        rows[slot] = csvEntryForDataPoint.apply(methodEnergy.toDataPoint(methodSymbolTable.getQualifiedName(methodId)));
+        rowMethodIds[slot] = methodId;
+        rowsFiltered[slot] = methodSymbolTable.isFiltered(methodId);
+    }
+
+    private void removeRow(int slot, int methodId) {
+        if (slot < rows.length && rowMethodIds[slot] == methodId) {
+            rows[slot] = null;
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file in the same directory, syncs it and renames it to the target file.
+     * The text is encoded with the default charset like {@link java.io.FileWriter} does.
+     * <br><br>
+     * The periodic writer and the shutdown hook may write the same file concurrently, so each write uses its own uniquely named
+     * temporary file and the last rename wins. The temporary file is created with the default permissions (like {@link java.io.FileWriter}),
+     * not with the owner-only permissions of {@link Files#createTempFile(Path, String, String, java.nio.file.attribute.FileAttribute[])},
+     * so the renamed file stays readable for the group and others as configured by the umask.
+     */
+    static void writeAtomically(CharSequence content, Path file) {
+        Path tempFile = null;
+        try {
+            FileChannel channel = null;
+            while (channel == null) {
+                tempFile = file.resolveSibling(file.getFileName() + "." + TEMP_FILE_COUNTER.incrementAndGet() + TEMP_FILE_SUFFIX);
+                try {
+                    channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                } catch (FileAlreadyExistsException ex) {
+                    // left behind by a crashed run, try the next name
+                }
+            }
+            try (FileChannel tempChannel = channel) {
+                ByteBuffer bytes = Charset.defaultCharset().encode(content.toString());
+                while (bytes.hasRemaining()) {
+                    tempChannel.write(bytes);
+                }
+                tempChannel.force(true);
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            System.err.println(ex.getLocalizedMessage());
+            ex.printStackTrace();
+            deleteQuietly(tempFile);
+        }
+    }
+
+    private static void deleteQuietly(Path tempFile) {
+        if (tempFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException ex) {
+            System.err.println(ex.getLocalizedMessage());
+        }
+    }
+}
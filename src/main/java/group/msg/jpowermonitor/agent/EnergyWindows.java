@@ -0,0 +1,244 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Energy per method in rolling time windows, e.g. the last 1, 5 and 60 minutes.
+ * <br><br>
+ * The energy of each measurement interval is collected in a bucket. The buckets form a ring covering the longest window.
+ * Each window keeps the rolling sum per method: the energy of a new bucket is added to all windows, the energy of a bucket
+ * leaving a window is subtracted again. The sums are ranked by energy, so the top methods of a window are read in <code>O(topK)</code>
+ * without scanning any buckets. An interval costs <code>O(windows * methods of the interval * log methods of the window)</code>.
+ * <br><br>
+ * The sums are kept per slot of the method, see {@link MethodEnergy#getSlot(int)}. If a tracked method is replaced, {@link #remove(int)}
+ * drops the sums of its slot and a generation per slot skips its energy still held by the buckets, so the windows never hold
+ * more than the tracked methods.
+ * <br><br>
+ * Written by the attribution stage thread, {@link #getTopMethods(int, int)} may be called from any thread, so the methods are synchronized.
+ */
+class EnergyWindows {
+    private final long[] windowsInMillis;
+    private final Window[] windows;
+    /**
+     * Ring of the buckets of the past intervals covering the longest window, the bucket with sequence number <code>s</code>
+     * is at index <code>s % ring.length</code>.
+     */
+    private Bucket[] ring = new Bucket[64];
+    /**
+     * Sequence number of the oldest bucket in the ring.
+     */
+    private long firstSequence;
+    /**
+     * Sequence number of the next bucket.
+     */
+    private long nextSequence;
+    private Bucket current = new Bucket();
+    private Bucket recycled;
+    /**
+     * Generation per slot, incremented by {@link #remove(int)}. Bucket entries of an older generation are skipped.
+     */
+    private int[] slotGenerations = new int[64];
+
+    /**
+     * Energy of a method in a window.
+     */
+    static class MethodWindowEnergy {
+        final int slot;
+        final int methodId;
+        long microJoules;
+
+        MethodWindowEnergy(int slot, int methodId) {
+            this.slot = slot;
+            this.methodId = methodId;
+        }
+    }
+
+    /**
+     * Energy per method of one interval, appended pairwise, a method may occur more than once (e.g. once per thread).
+     */
+    private static class Bucket {
+        private long timeInMillis;
+        private int size;
+        private int[] slots = new int[64];
+        private int[] generations = new int[64];
+        private int[] methodIds = new int[64];
+        private long[] microJoules = new long[64];
+
+        void add(int slot, int generation, int methodId, long energyInMicroJoules) {
+            if (size == methodIds.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                generations = Arrays.copyOf(generations, size * 2);
+                methodIds = Arrays.copyOf(methodIds, size * 2);
+                microJoules = Arrays.copyOf(microJoules, size * 2);
+            }
+            slots[size] = slot;
+            generations[size] = generation;
+            methodIds[size] = methodId;
+            microJoules[size] = energyInMicroJoules;
+            size++;
+        }
+    }
+
+    /**
+     * Rolling sums of one window, ranked by energy.
+     */
+    private static class Window {
+        private final Map<Integer, MethodWindowEnergy> energyPerSlot = new HashMap<>();
+        private final TreeSet<MethodWindowEnergy> ranking = new TreeSet<>(Comparator.comparingLong((MethodWindowEnergy method) -> method.microJoules).reversed()
+            .thenComparingInt(method -> method.slot));
+        /**
+         * Sequence number of the oldest bucket contained in the window.
+         */
+        private long firstSequence;
+
+        void add(Bucket bucket, int sign, int[] slotGenerations) {
+            for (int i = 0; i < bucket.size; i++) {
+                int slot = bucket.slots[i];
+                if (bucket.generations[i] != slotGenerations[slot]) {
+                    continue; // energy of a replaced method, its sums are already dropped
+                }
+                MethodWindowEnergy method = energyPerSlot.get(slot);
+                if (method == null) {
+                    method = new MethodWindowEnergy(slot, bucket.methodIds[i]);
+                    energyPerSlot.put(slot, method);
+                } else {
+                    ranking.remove(method);
+                }
+                method.microJoules += sign * bucket.microJoules[i];
+                if (method.microJoules == 0L) {
+                    energyPerSlot.remove(slot);
+                } else {
+                    ranking.add(method);
+                }
+            }
+        }
+
+        void remove(int slot) {
+            MethodWindowEnergy method = energyPerSlot.remove(slot);
+            if (method != null) {
+                ranking.remove(method);
+            }
+        }
+    }
+
+    /**
+     * @param windowsInMillis lengths of the windows
+     */
+    EnergyWindows(long[] windowsInMillis) {
+        this.windowsInMillis = windowsInMillis.clone();
+        this.windows = new Window[windowsInMillis.length];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Window();
+        }
+    }
+
+    /**
+     * Adds energy of a method to the current interval.
+     *
+     * @param slot                slot of the method, see {@link MethodEnergy#getSlot(int)}
+     * @param methodId            id of the method
+     * @param energyInMicroJoules energy of the method
+     */
+    synchronized void add(int slot, int methodId, long energyInMicroJoules) {
+        if (energyInMicroJoules != 0L) {
+            if (slot >= slotGenerations.length) {
+                slotGenerations = Arrays.copyOf(slotGenerations, Math.max(slot + 1, slotGenerations.length * 2));
+            }
+            current.add(slot, slotGenerations[slot], methodId, energyInMicroJoules);
+        }
+    }
+
+    /**
+     * Drops the energy of the method in a slot from all windows, e.g. if the method is no longer tracked and its slot is taken over.
+     *
+     * @param slot slot of the method
+     */
+    synchronized void remove(int slot) {
+        if (slot >= slotGenerations.length) {
+            return; // no energy added yet
+        }
+        slotGenerations[slot]++;
+        for (Window window : windows) {
+            window.remove(slot);
+        }
+    }
+
+    /**
+     * Adds the current interval to all windows and removes the intervals that left a window.
+     *
+     * @param timeInMillis end of the interval (epoch millis)
+     */
+    synchronized void endInterval(long timeInMillis) {
+        current.timeInMillis = timeInMillis;
+        if (nextSequence - firstSequence == ring.length) {
+            grow();
+        }
+        ring[index(nextSequence++)] = current;
+        for (Window window : windows) {
+            window.add(current, 1, slotGenerations);
+        }
+        current = recycled != null ? recycled : new Bucket();
+        recycled = null;
+        for (int w = 0; w < windows.length; w++) {
+            Window window = windows[w];
+            long oldestTimeInMillis = timeInMillis - windowsInMillis[w];
+            while (window.firstSequence < nextSequence && ring[index(window.firstSequence)].timeInMillis <= oldestTimeInMillis) {
+                window.add(ring[index(window.firstSequence)], -1, slotGenerations);
+                window.firstSequence++;
+            }
+        }
+        long firstNeeded = Long.MAX_VALUE;
+        for (Window window : windows) {
+            firstNeeded = Math.min(firstNeeded, window.firstSequence);
+        }
+        while (firstSequence < firstNeeded) {
+            int expired = index(firstSequence++);
+            ring[expired].size = 0;
+            recycled = ring[expired];
+            ring[expired] = null;
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+
+    private void grow() {
+        Bucket[] grown = new Bucket[ring.length * 2];
+        for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+            grown[(int) (sequence % grown.length)] = ring[index(sequence)];
+        }
+        ring = grown;
+    }
+
+    /**
+     * @param window index of the window
+     * @param topK   maximum number of methods
+     * @return the methods with the highest energy in the window, highest first
+     */
+    synchronized List<MethodWindowEnergy> getTopMethods(int window, int topK) {
+        List<MethodWindowEnergy> top = new ArrayList<>(Math.min(topK, windows[window].ranking.size()));
+        for (MethodWindowEnergy method : windows[window].ranking) {
+            if (top.size() == topK) {
+                break;
+            }
+            MethodWindowEnergy copy = new MethodWindowEnergy(method.slot, method.methodId);
+            copy.microJoules = method.microJoules;
+            top.add(copy);
+        }
+        return top;
+    }
+
+    /**
+     * @return lengths of the windows
+     */
+    long[] getWindowsInMillis() {
+        return windowsInMillis.clone();
+    }
+}
@@ -0,0 +1,281 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.Arrays;
+
+/**
+ * Block of a time series of power values, compressed like the Gorilla time series database:
+ * <ul>
+ *     <li>timestamps (epoch millis) as delta of delta: <code>0</code> (1 bit) for a regular interval, otherwise a prefix and 7, 9, 12 or 64 bits</li>
+ *     <li>values as XOR with the previous value: <code>0</code> (1 bit) for the same value, otherwise only the meaningful bits of the XOR,
+ *     reusing the leading and trailing zeros of the previous value if they fit</li>
+ * </ul>
+ * Regular measurement intervals with slowly changing power take a few bits per point instead of 16 bytes.
+ * <br><br>
+ * Each point of a block represents {@link #getResolution()} points of the original series, see {@link #downsample()}.
+ * Not thread safe.
+ */
+final class GorillaBlock {
+    /**
+     * Estimated size of a block without its bits.
+     */
+    static final int OVERHEAD_IN_BYTES = 80;
+    private long[] words = new long[4];
+    private int bitLength;
+    private int count;
+    private int resolution;
+    private long firstTimeInMillis;
+    private long lastTimeInMillis;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeadingZeros = -1;
+    private int lastTrailingZeros;
+
+    /**
+     * Point of a series.
+     */
+    @FunctionalInterface
+    interface PointConsumer {
+        void accept(long timeInMillis, double value);
+    }
+
+    GorillaBlock(int resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * @param timeInMillis time of the point, not before the last point
+     * @param value        value of the point
+     */
+    void append(long timeInMillis, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            writeBits(timeInMillis, 64);
+            writeBits(valueBits, 64);
+            firstTimeInMillis = timeInMillis;
+        } else {
+            long delta = timeInMillis - lastTimeInMillis;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeXor(valueBits ^ lastValueBits);
+        }
+        lastTimeInMillis = timeInMillis;
+        lastValueBits = valueBits;
+        count++;
+    }
+
+    /**
+     * Decodes all points in order.
+     *
+     * @param consumer consumer of the points
+     */
+    void forEach(PointConsumer consumer) {
+        new Decoder().forEach(consumer);
+    }
+
+    /**
+     * Halves the number of points: each pair of points is replaced by its mean value at the time of the later point,
+     * an odd last point is kept. Doubles the resolution.
+     */
+    void downsample() {
+        GorillaBlock downsampled = new GorillaBlock(resolution * 2);
+        double[] pending = new double[1];
+        boolean[] hasPending = new boolean[1];
+        forEach((timeInMillis, value) -> {
+            if (hasPending[0]) {
+                downsampled.append(timeInMillis, (pending[0] + value) / 2);
+                hasPending[0] = false;
+            } else {
+                pending[0] = value;
+                hasPending[0] = true;
+            }
+        });
+        if (hasPending[0]) {
+            downsampled.append(lastTimeInMillis, pending[0]);
+        }
+        downsampled.trim();
+        copyFrom(downsampled);
+    }
+
+    /**
+     * Appends all points of the later block of the same series.
+     *
+     * @param later block starting at or after the last point of this block
+     */
+    void appendAll(GorillaBlock later) {
+        later.forEach(this::append);
+    }
+
+    /**
+     * Releases the unused capacity, called when no more points are expected.
+     */
+    void trim() {
+        int used = (bitLength + 63) >>> 6;
+        if (used < words.length) {
+            words = Arrays.copyOf(words, Math.max(used, 1));
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getResolution() {
+        return resolution;
+    }
+
+    long getFirstTimeInMillis() {
+        return firstTimeInMillis;
+    }
+
+    long getLastTimeInMillis() {
+        return lastTimeInMillis;
+    }
+
+    long sizeInBytes() {
+        return OVERHEAD_IN_BYTES + 8L * words.length;
+    }
+
+    private void copyFrom(GorillaBlock other) {
+        words = other.words;
+        bitLength = other.bitLength;
+        count = other.count;
+        resolution = other.resolution;
+        firstTimeInMillis = other.firstTimeInMillis;
+        lastTimeInMillis = other.lastTimeInMillis;
+        lastDelta = other.lastDelta;
+        lastValueBits = other.lastValueBits;
+        lastLeadingZeros = other.lastLeadingZeros;
+        lastTrailingZeros = other.lastTrailingZeros;
+    }
+
+    private void writeDeltaOfDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0b0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeXor(long xor) {
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+        int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailingZeros = Long.numberOfTrailingZeros(xor);
+        if (lastLeadingZeros >= 0 && leadingZeros >= lastLeadingZeros && trailingZeros >= lastTrailingZeros) {
+            writeBits(0b10, 2);
+            writeBits(xor >>> lastTrailingZeros, 64 - lastLeadingZeros - lastTrailingZeros);
+        } else {
+            int meaningfulBits = 64 - leadingZeros - trailingZeros;
+            writeBits(0b11, 2);
+            writeBits(leadingZeros, 5);
+            writeBits(meaningfulBits - 1, 6); // 1 to 64 bits
+            writeBits(xor >>> trailingZeros, meaningfulBits);
+            lastLeadingZeros = leadingZeros;
+            lastTrailingZeros = trailingZeros;
+        }
+    }
+
+    /**
+     * Writes the lowest bits of the value, most significant bit first.
+     */
+    private void writeBits(long value, int bits) {
+        if (bitLength + bits > 64L * words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+        int word = bitLength >>> 6;
+        int free = 64 - (bitLength & 63);
+        if (bits <= free) {
+            words[word] |= masked << (free - bits);
+        } else {
+            int rest = bits - free;
+            words[word] |= masked >>> rest;
+            words[word + 1] |= masked << (64 - rest);
+        }
+        bitLength += bits;
+    }
+
+    /**
+     * Reads the points of the block, mirrors the state of the writer.
+     */
+    private class Decoder {
+        private int position;
+        private long timeInMillis;
+        private long delta;
+        private long valueBits;
+        private int leadingZeros;
+        private int trailingZeros;
+
+        void forEach(PointConsumer consumer) {
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    timeInMillis = readBits(64);
+                    valueBits = readBits(64);
+                } else {
+                    delta += readDeltaOfDelta();
+                    timeInMillis += delta;
+                    valueBits ^= readXor();
+                }
+                consumer.accept(timeInMillis, Double.longBitsToDouble(valueBits));
+            }
+        }
+
+        private long readDeltaOfDelta() {
+            if (readBits(1) == 0) {
+                return 0;
+            } else if (readBits(1) == 0) {
+                return readSigned(7);
+            } else if (readBits(1) == 0) {
+                return readSigned(9);
+            } else if (readBits(1) == 0) {
+                return readSigned(12);
+            }
+            return readBits(64);
+        }
+
+        private long readXor() {
+            if (readBits(1) == 0) {
+                return 0;
+            }
+            if (readBits(1) == 1) {
+                leadingZeros = (int) readBits(5);
+                trailingZeros = 64 - leadingZeros - ((int) readBits(6) + 1);
+            }
+            return readBits(64 - leadingZeros - trailingZeros) << trailingZeros;
+        }
+
+        /**
+         * Reads a two's complement value, the ranges written are asymmetric: <code>-(2^(bits-1) - 1)</code> to <code>2^(bits-1)</code>.
+         */
+        private long readSigned(int bits) {
+            long value = readBits(bits);
+            return value > (1L << (bits - 1)) ? value - (1L << bits) : value;
+        }
+
+        private long readBits(int bits) {
+            int word = position >>> 6;
+            int free = 64 - (position & 63);
+            long value;
+            if (bits <= free) {
+                value = words[word] >>> (free - bits);
+            } else {
+                int rest = bits - free;
+                value = (words[word] << rest) | (words[word + 1] >>> (64 - rest));
+            }
+            position += bits;
+            return bits == 64 ? value : value & ((1L << bits) - 1);
+        }
+    }
+}
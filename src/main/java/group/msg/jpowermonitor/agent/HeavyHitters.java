@@ -0,0 +1,128 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Limits the number of methods whose energy is tracked with the Space-Saving algorithm (Metwally et al.), so generated classes
+ * (lambdas, proxies, scripts) cannot grow the energy per method without bounds.
+ * <br><br>
+ * At most <code>capacity</code> methods are tracked. A method that is not tracked replaces the tracked method with the lowest count
+ * (energy plus error) and inherits that count as its error: it may have consumed at most this energy before it was admitted.
+ * Every method whose energy exceeds <code>total / capacity</code> is guaranteed to be tracked.
+ * <br><br>
+ * Each tracked method holds a slot in <code>[0, capacity)</code>, see {@link MethodEnergy#getSlot(int)}. A new method takes over
+ * the slot of the method it replaces, so the state kept per slot has to be reset when a method is replaced.
+ * <br><br>
+ * The tracked methods are kept in a binary min-heap by count, an update costs <code>O(log capacity)</code>.
+ * Only accessed by the attribution stage thread (and before the stages are started).
+ */
+class HeavyHitters {
+    private final int[] methodIds;
+    private final MethodEnergy[] heap;
+    private int size;
+
+    /**
+     * @param capacity maximum number of tracked methods
+     */
+    HeavyHitters(int capacity) {
+        this.methodIds = new int[capacity];
+        this.heap = new MethodEnergy[capacity];
+    }
+
+    /**
+     * @return the error of a method admitted now: the lowest count if all places are taken, <code>0</code> otherwise
+     */
+    long getErrorOfNextMethod() {
+        return size < heap.length ? 0L : count(heap[0]);
+    }
+
+    /**
+     * Tracks a new method, replaces the method with the lowest count if all places are taken.
+     * Assigns the slot of the new method, the slot of the replaced method if one is replaced.
+     *
+     * @param methodId     id of the new method
+     * @param methodEnergy energy of the new method, created with the error {@link #getErrorOfNextMethod()}
+     * @return id of the replaced method, {@link MethodSymbolTable#NO_METHOD} if none was replaced
+     */
+    int admit(int methodId, MethodEnergy methodEnergy) {
+        if (size < heap.length) {
+            methodEnergy.trackedSlot = size;
+            set(size, methodId, methodEnergy);
+            siftUp(size++);
+            return MethodSymbolTable.NO_METHOD;
+        }
+        int replaced = methodIds[0];
+        methodEnergy.trackedSlot = heap[0].trackedSlot;
+        heap[0].heapIndex = -1;
+        set(0, methodId, methodEnergy);
+        siftDown(0);
+        return replaced;
+    }
+
+    /**
+     * Restores the heap order after energy was added to a tracked method.
+     *
+     * @param methodEnergy tracked method
+     */
+    void increased(MethodEnergy methodEnergy) {
+        if (methodEnergy.heapIndex >= 0) {
+            siftDown(methodEnergy.heapIndex);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getCapacity() {
+        return heap.length;
+    }
+
+    private static long count(MethodEnergy methodEnergy) {
+        return methodEnergy.getMicroJoules() + methodEnergy.getErrorInMicroJoules();
+    }
+
+    private void set(int index, int methodId, MethodEnergy methodEnergy) {
+        methodIds[index] = methodId;
+        heap[index] = methodEnergy;
+        methodEnergy.heapIndex = index;
+    }
+
+    private void siftUp(int index) {
+        int methodId = methodIds[index];
+        MethodEnergy methodEnergy = heap[index];
+        long count = count(methodEnergy);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (count(heap[parent]) <= count) {
+                break;
+            }
+            set(index, methodIds[parent], heap[parent]);
+            index = parent;
+        }
+        set(index, methodId, methodEnergy);
+    }
+
+    private void siftDown(int index) {
+        int methodId = methodIds[index];
+        MethodEnergy methodEnergy = heap[index];
+        long count = count(methodEnergy);
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            long childCount = count(heap[child]);
+            int right = child + 1;
+            if (right < size) {
+                long rightCount = count(heap[right]);
+                if (rightCount < childCount) {
+                    child = right;
+                    childCount = rightCount;
+                }
+            }
+            if (count <= childCount) {
+                break;
+            }
+            set(index, methodIds[child], heap[child]);
+            index = child;
+        }
+        set(index, methodId, methodEnergy);
+    }
+}
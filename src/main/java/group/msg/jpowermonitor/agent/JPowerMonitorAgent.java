@@ -7,9 +7,11 @@ import group.msg.jpowermonitor.util.Constants;
 
 import java.lang.instrument.Instrumentation;
 import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 import static group.msg.jpowermonitor.agent.ResultsWriter.SEPARATOR;
 
@@ -24,7 +26,6 @@ import static group.msg.jpowermonitor.agent.ResultsWriter.SEPARATOR;
  */
 public class JPowerMonitorAgent {
     private static final int ONE_SECOND_IN_MILLIES = 1000;
-    private static Timer timer;
     private static PowerStatistics powerStatistics;
     private static Timer writeEnergyMeasurementResultsToCsv;
 
@@ -40,6 +41,10 @@ public class JPowerMonitorAgent {
      */
     public static void premain(String args, Instrumentation inst) {
         System.out.println("Measuring power with " + Constants.APP_TITLE + ", Version " + JPowerMonitorAgent.class.getPackage().getImplementationVersion());
+        String measureMethodDescription = MeasurePower.describe();
+        if (measureMethodDescription != null) {
+            System.out.println(measureMethodDescription);
+        }
         System.out.println(SEPARATOR);
         ThreadMXBean threadMXBean = CpuAndThreadUtils.initializeAndGetThreadMxBeanOrFailAndQuitApplication();
         long pid = ProcessHandle.current().pid();
@@ -48,10 +53,37 @@ public class JPowerMonitorAgent {
         Set<String> packageFilter = javaAgentCfg.getPackageFilter();
         System.out.println(Thread.currentThread().getName() + ": Start monitoring application with PID " + pid);
 
-        // TimerTask to calculate power consumption per thread at runtime using a configurable measurement interval
-        timer = new Timer("PowerStatistics-Thread", true); // start Timer as daemon thread, so that it does not prevent applications from stopping
-        powerStatistics = new PowerStatistics(javaAgentCfg.getMeasurementIntervalInMs(), javaAgentCfg.getGatherStatisticsIntervalInMs(), pid, threadMXBean, packageFilter);
-        timer.schedule(powerStatistics, javaAgentCfg.getGatherStatisticsIntervalInMs(), javaAgentCfg.getGatherStatisticsIntervalInMs());
+        // Calculate power consumption per thread at runtime using a configurable measurement interval
+        MethodSymbolTable methodSymbolTable = new MethodSymbolTable(packageFilter);
+        CallTree callTree = javaAgentCfg.isWriteCallTree() ? new CallTree() : null;
+        StackSampler stackSampler = StackSamplerProvider.resolveStackSampler(javaAgentCfg, threadMXBean, methodSymbolTable, callTree);
+        ThreadCpuTimeCollector threadCpuTimeCollector = CpuAndThreadUtils.resolveThreadCpuTimeCollector(javaAgentCfg, threadMXBean);
+        powerStatistics = new PowerStatistics(javaAgentCfg.getMeasurementIntervalInMs(), javaAgentCfg.getGatherStatisticsIntervalInMs(), pid, threadCpuTimeCollector, methodSymbolTable, stackSampler, callTree);
+        if (javaAgentCfg.getEnergyWindowsInS() != null && !javaAgentCfg.getEnergyWindowsInS().isEmpty()) {
+            // rolling energy per method, e.g. of the last 5 minutes
+            powerStatistics.aggregateEnergyIn(new EnergyWindows(javaAgentCfg.getEnergyWindowsInS().stream().mapToLong(TimeUnit.SECONDS::toMillis).toArray()));
+        }
+        PowerShare powerShare = CpuAndThreadUtils.resolvePowerShare(javaAgentCfg);
+        if (powerShare != null) {
+            // only charge the application its share of the power measured for the whole node
+            powerStatistics.apportionPowerWith(powerShare);
+        }
+        if (javaAgentCfg.getMaxTrackedMethods() > 0) {
+            // bounded memory for applications generating classes and methods all the time
+            powerStatistics.limitTrackedMethodsTo(javaAgentCfg.getMaxTrackedMethods());
+        }
+        if (javaAgentCfg.getStateFile() != null && !javaAgentCfg.getStateFile().isBlank()) {
+            // continue with the energy of previous runs, e.g. after a restart of the container
+            powerStatistics.restoreAndJournalTo(new StateJournal(Paths.get(javaAgentCfg.getStateFile()), javaAgentCfg.getStateSnapshotIntervalInS()));
+        }
+        if (javaAgentCfg.getPowerHistoryRetentionInS() > 0) {
+            // keep the power per method and interval in memory, dumped at shutdown and on demand via JMX
+            MethodPowerHistory methodPowerHistory = new MethodPowerHistory(TimeUnit.SECONDS.toMillis(javaAgentCfg.getPowerHistoryRetentionInS()),
+                javaAgentCfg.getPowerHistoryMaxMemoryInKb() * 1024);
+            powerStatistics.recordPowerHistoryIn(methodPowerHistory);
+            new PowerHistory(powerStatistics, methodPowerHistory, cfg.getCarbonDioxideEmissionFactor()).register();
+        }
+        powerStatistics.start(javaAgentCfg.getPowerOutputFormat(), javaAgentCfg.getPowerCsvFlushIntervalInS(), javaAgentCfg.getPowerCsvFsyncIntervalInS());
 
         // TimerTask to write energy measurement statistics to CSV files while application still running
         if (javaAgentCfg.getWriteEnergyMeasurementsToCsvIntervalInS() > 0) {
@@ -59,7 +91,7 @@ public class JPowerMonitorAgent {
             writeEnergyMeasurementResultsToCsv.schedule(new TimerTask() {
                 @Override
                 public void run() {
-                    ResultsWriter rw = new ResultsWriter(powerStatistics, false, cfg.getCarbonDioxideEmissionFactor());
+                    ResultsWriter rw = new ResultsWriter(powerStatistics, false, cfg.getCarbonDioxideEmissionFactor(), javaAgentCfg.getEnergyWindowsTopMethods());
                     rw.execute();
                 }
             }, javaAgentCfg.getWriteEnergyMeasurementsToCsvIntervalInS() * ONE_SECOND_IN_MILLIES, javaAgentCfg.getWriteEnergyMeasurementsToCsvIntervalInS() * ONE_SECOND_IN_MILLIES);
@@ -68,9 +100,8 @@ public class JPowerMonitorAgent {
         // Gracefully stop measurement at application shutdown
         Runtime.getRuntime().addShutdownHook(
             new Thread(() -> {
-                powerStatistics.cancel();
-                timer.cancel();
-                timer.purge();
+                powerStatistics.stop();
+                MeasurePower.close();
                 if (writeEnergyMeasurementResultsToCsv != null) {
                     writeEnergyMeasurementResultsToCsv.cancel();
                     writeEnergyMeasurementResultsToCsv.purge();
@@ -80,7 +111,7 @@ public class JPowerMonitorAgent {
             ));
 
         // Write results to CSV files
-        Thread powerStatThread = new Thread(new ResultsWriter(powerStatistics, true, cfg.getCarbonDioxideEmissionFactor()));
+        Thread powerStatThread = new Thread(new ResultsWriter(powerStatistics, true, cfg.getCarbonDioxideEmissionFactor(), javaAgentCfg.getEnergyWindowsTopMethods()));
         powerStatThread.setDaemon(true);
         Runtime.getRuntime().addShutdownHook(powerStatThread);
     }
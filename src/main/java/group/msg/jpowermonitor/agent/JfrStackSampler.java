@@ -0,0 +1,158 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Samples the running threads with an in-process Java Flight Recorder recording of <code>jdk.ExecutionSample</code> events.<br>
+ * JFR samples the threads asynchronously without safepoint bias. The events are streamed via <code>jdk.jfr.consumer.RecordingStream</code>,
+ * buffered and counted on each call of {@link #sample(SampleHistograms)}.<br>
+ * The stream delivers the events in batches about once per second, so an interval may hold no events of a thread or the events of
+ * several intervals. Thus, the sampler is not {@link #isSynchronous() synchronous}: the power of a thread is split by its own number of
+ * samples in the interval, see {@link PowerStatistics}.
+ * <br><br>
+ * <code>RecordingStream</code> is available from Java 14 on, whereas jPowerMonitor is compiled for Java 11. Thus, the stream is created
+ * via reflection, use {@link #isAvailable()} to check if the running JVM supports it.<br>
+ * JFR truncates stacks to 64 frames by default, this may be changed with the JVM option <code>-XX:FlightRecorderOptions:stackdepth=...</code>.
+ */
+class JfrStackSampler implements StackSampler {
+    private static final String RECORDING_STREAM_CLASS = "jdk.jfr.consumer.RecordingStream";
+    private static final String EVENT_SETTINGS_CLASS = "jdk.jfr.EventSettings";
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    private final Queue<RecordedSample> recordedSamples = new ConcurrentLinkedQueue<>();
+    private final MethodSymbolTable methodSymbolTable;
+    private final CallTree callTree;
+    private final AutoCloseable recordingStream;
+    private int[] methodIdBuffer = new int[128];
+
+    /**
+     * Creates the JFR recording stream, it is started by {@link #start()}.
+     *
+     * @param methodSymbolTable        symbol table to intern the sampled methods in, only written by the JFR event stream thread once started
+     * @param callTree                 call tree to add the sampled stacks to, <code>null</code> if disabled
+     * @param gatherStatisticsInterval sampling period of the execution samples in milliseconds
+     */
+    JfrStackSampler(MethodSymbolTable methodSymbolTable, CallTree callTree, long gatherStatisticsInterval) {
+        this.methodSymbolTable = methodSymbolTable;
+        this.callTree = callTree;
+        try {
+            Class<?> recordingStreamClass = Class.forName(RECORDING_STREAM_CLASS);
+            Object stream = recordingStreamClass.getConstructor().newInstance();
+            Object eventSettings = recordingStreamClass.getMethod("enable", String.class).invoke(stream, EXECUTION_SAMPLE);
+            Class.forName(EVENT_SETTINGS_CLASS).getMethod("withPeriod", Duration.class).invoke(eventSettings, Duration.ofMillis(Math.max(1, gatherStatisticsInterval)));
+            Consumer<RecordedEvent> onExecutionSample = this::onExecutionSample;
+            recordingStreamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, EXECUTION_SAMPLE, onExecutionSample);
+            this.recordingStream = (AutoCloseable) stream;
+        } catch (ReflectiveOperationException ex) {
+            throw new JPowerMonitorException("Unable to create JFR recording stream", ex);
+        }
+    }
+
+    /**
+     * Starts the JFR recording stream, from now on the event stream thread interns the sampled methods.
+     */
+    @Override
+    public void start() {
+        try {
+            recordingStream.getClass().getMethod("startAsync").invoke(recordingStream);
+        } catch (ReflectiveOperationException ex) {
+            throw new JPowerMonitorException("Unable to start JFR recording stream", ex);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the running JVM supports JFR event streaming (Java 14 or later)
+     */
+    static boolean isAvailable() {
+        try {
+            Class.forName(RECORDING_STREAM_CLASS);
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    private void onExecutionSample(RecordedEvent event) {
+        RecordedThread thread = event.getThread("sampledThread");
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (thread == null || thread.getJavaName() == null || stackTrace == null) {
+            return;
+        }
+
+        int methodId = MethodSymbolTable.NO_METHOD;
+        int filteredMethodId = MethodSymbolTable.NO_METHOD;
+        int depth = 0;
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            if (!frame.isJavaFrame() || frame.getMethod() == null) {
+                continue;
+            }
+            int id = methodSymbolTable.intern(frame.getMethod().getType().getName(), frame.getMethod().getName());
+            if (methodId == MethodSymbolTable.NO_METHOD) {
+                methodId = id;
+            }
+            if (filteredMethodId == MethodSymbolTable.NO_METHOD && methodSymbolTable.isFiltered(id)) {
+                filteredMethodId = id;
+                if (callTree == null) {
+                    break;
+                }
+            }
+            if (callTree != null) {
+                if (depth == methodIdBuffer.length) {
+                    methodIdBuffer = Arrays.copyOf(methodIdBuffer, depth * 2);
+                }
+                methodIdBuffer[depth++] = id;
+            }
+        }
+        if (methodId != MethodSymbolTable.NO_METHOD) {
+            int callTreeNode = callTree != null ? callTree.add(methodIdBuffer, depth) : CallTree.NO_NODE;
+            recordedSamples.add(new RecordedSample(thread.getJavaThreadId(), thread.getJavaName(), methodId, filteredMethodId, callTreeNode));
+        }
+    }
+
+    @Override
+    public void sample(SampleHistograms sampleHistograms) {
+        RecordedSample recorded;
+        while ((recorded = recordedSamples.poll()) != null) {
+            sampleHistograms.add(recorded.threadId, recorded.threadName, recorded.methodId, recorded.filteredMethodId, recorded.callTreeNode);
+        }
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        try {
+            recordingStream.close();
+        } catch (Exception ex) {
+            System.err.println("Unable to close JFR recording stream: " + ex.getLocalizedMessage());
+        }
+    }
+
+    private static class RecordedSample {
+        private final long threadId;
+        private final String threadName;
+        private final int methodId;
+        private final int filteredMethodId;
+        private final int callTreeNode;
+
+        private RecordedSample(long threadId, String threadName, int methodId, int filteredMethodId, int callTreeNode) {
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.methodId = methodId;
+            this.filteredMethodId = filteredMethodId;
+            this.callTreeNode = callTreeNode;
+        }
+    }
+}
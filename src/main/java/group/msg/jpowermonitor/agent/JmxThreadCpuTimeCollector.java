@@ -0,0 +1,29 @@
+package group.msg.jpowermonitor.agent;
+
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the CPU time of each thread with a separate {@link ThreadMXBean#getThreadCpuTime(long)} call.
+ *
+ * @see BulkJmxThreadCpuTimeCollector
+ */
+class JmxThreadCpuTimeCollector implements ThreadCpuTimeCollector {
+    private final ThreadMXBean threadMxBean;
+
+    JmxThreadCpuTimeCollector(ThreadMXBean threadMxBean) {
+        this.threadMxBean = threadMxBean;
+    }
+
+    @Override
+    public long collect(ThreadCpuTimeRegistry cpuTimePerApplicationThread) {
+        long totalApplicationCpuTime = 0;
+        for (long threadId : threadMxBean.getAllThreadIds()) {
+            long applicationThreadCpuTime = threadMxBean.getThreadCpuTime(threadId);
+            // -1 if the thread has terminated in the meantime
+            if (applicationThreadCpuTime >= 0) {
+                totalApplicationCpuTime += cpuTimePerApplicationThread.update(threadId, applicationThreadCpuTime);
+            }
+        }
+        return totalApplicationCpuTime;
+    }
+}
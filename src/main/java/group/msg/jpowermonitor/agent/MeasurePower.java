@@ -30,4 +30,18 @@ class MeasurePower {
         return measureMethod.measureFirstConfiguredPath();
     }
 
+    /**
+     * @return note of the measure method for the startup banner, <code>null</code> if there is none
+     */
+    protected static String describe() {
+        return measureMethod.describe();
+    }
+
+    /**
+     * Releases the resources of the measure method, called when the measurement ends.
+     */
+    protected static void close() {
+        measureMethod.close();
+    }
+
 }
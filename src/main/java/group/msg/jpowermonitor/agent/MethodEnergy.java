@@ -0,0 +1,118 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Energy consumption of one method, accumulated in micro joules.<br>
+ * Updates are striped via {@link LongAdder} and never block, readers get a snapshot of the current sum.
+ * The dirty flag tracks changes since the last checkpoint, see {@link EnergyCsvCheckpoint}.
+ * If the number of tracked methods is limited, see {@link HeavyHitters}, the energy is only measured since the method was admitted
+ * and the error bounds the energy it may have consumed before.
+ *
+ * @see MicroJoules
+ */
+class MethodEnergy {
+    /**
+     * Name of the thread the method was sampled in first.
+     */
+    private final String threadName;
+    private final LongAdder microJoules = new LongAdder();
+    private volatile long lastUpdateInMillis;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    /**
+     * Maximum energy the method consumed before it was admitted, <code>0</code> if it was tracked from the start.
+     */
+    private final long errorInMicroJoules;
+    /**
+     * Position in the heap of {@link HeavyHitters}, only accessed by the attribution stage thread.
+     */
+    int heapIndex = -1;
+    /**
+     * Slot of the method in {@link HeavyHitters}, <code>-1</code> if the number of tracked methods is unlimited.
+     * Assigned before the method energy is published, never changed afterwards.
+     */
+    int trackedSlot = -1;
+
+    MethodEnergy(String threadName) {
+        this(threadName, 0L);
+    }
+
+    MethodEnergy(String threadName, long errorInMicroJoules) {
+        this.threadName = threadName;
+        this.errorInMicroJoules = errorInMicroJoules;
+    }
+
+    void add(long microJoules) {
+        this.microJoules.add(microJoules);
+        this.lastUpdateInMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the energy restored from a previous run, see {@link StateJournal}.
+     *
+     * @param microJoules        restored energy
+     * @param lastUpdateInMillis time of the last update in the previous run
+     */
+    void restore(long microJoules, long lastUpdateInMillis) {
+        this.microJoules.add(microJoules);
+        this.lastUpdateInMillis = Math.max(this.lastUpdateInMillis, lastUpdateInMillis);
+    }
+
+    String getThreadName() {
+        return threadName;
+    }
+
+    long getMicroJoules() {
+        return microJoules.sum();
+    }
+
+    long getErrorInMicroJoules() {
+        return errorInMicroJoules;
+    }
+
+    long getLastUpdateInMillis() {
+        return lastUpdateInMillis;
+    }
+
+    /**
+     * The state kept per method in arrays (e.g. by {@link EnergyCsvCheckpoint}) is indexed by slot, so it is bounded by the number
+     * of tracked methods instead of the number of methods ever sampled.
+     *
+     * @param methodId id of the method
+     * @return slot of the method in {@link HeavyHitters} if the number of tracked methods is limited, the method id otherwise
+     */
+    int getSlot(int methodId) {
+        return trackedSlot >= 0 ? trackedSlot : methodId;
+    }
+
+    /**
+     * Marks the energy as changed since the last checkpoint.
+     *
+     * @return <code>true</code> if it was unchanged before
+     */
+    boolean markDirty() {
+        return !dirty.get() && dirty.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks the energy as unchanged, must be called before the snapshot for the checkpoint is taken.
+     */
+    void clearDirty() {
+        dirty.set(false);
+    }
+
+    /**
+     * @param name name of the method
+     * @return snapshot of the energy consumption in joules
+     */
+    DataPoint toDataPoint(String name) {
+        return new DataPoint(name, MicroJoules.toJoules(microJoules.sum()), Unit.JOULE,
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(lastUpdateInMillis), ZoneId.systemDefault()), threadName);
+    }
+}
@@ -0,0 +1,287 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory power series per method for long-running applications, one point (power in watts, summed over all threads)
+ * per measurement interval in which the method was sampled.
+ * <br><br>
+ * The points are compressed in {@link GorillaBlock}s of at most {@value #POINTS_PER_BLOCK} points. Memory is bounded by:
+ * <ul>
+ *     <li>retention: blocks whose last point is older than the retention are dropped</li>
+ *     <li>memory limit: if the estimated size exceeds the limit, the oldest blocks are downsampled (pairs of points averaged),
+ *     finest resolution first up to a resolution of {@value #MAX_RESOLUTION} intervals per point; if that is not enough,
+ *     the oldest blocks are dropped</li>
+ * </ul>
+ * The series are kept per slot of the method, see {@link MethodEnergy#getSlot(int)}. If a tracked method is replaced,
+ * {@link #remove(int)} drops the series of its slot, so the history never holds more than the tracked methods.
+ * <br><br>
+ * Written by the attribution stage thread, {@link #forEach(PointConsumer)} may be called from any thread (e.g. a dump on demand).
+ * The power of the current interval is only accessed by the attribution stage thread, so {@link #add(int, int, double)} is not synchronized.
+ * {@link #endInterval(long)} appends the points of the whole interval to the series, so the lock is held once per interval.
+ */
+class MethodPowerHistory {
+    static final int POINTS_PER_BLOCK = 120;
+    static final int MAX_RESOLUTION = 64;
+    /**
+     * Estimated size of the series of one method without its blocks.
+     */
+    private static final int SERIES_OVERHEAD_IN_BYTES = 96;
+    private final long retentionInMillis;
+    private final long maxMemoryInBytes;
+    /**
+     * Series per slot.
+     */
+    private final Map<Integer, Series> seriesPerSlot = new HashMap<>();
+    private long memoryInBytes;
+    /**
+     * Power of the current interval per slot, summed over all threads.
+     */
+    private double[] intervalPower = new double[1024];
+    /**
+     * Method id of the current interval per slot.
+     */
+    private int[] intervalMethodIds = new int[1024];
+    private final BitSet intervalSlots = new BitSet();
+
+    /**
+     * Blocks of a method, oldest first. Only the last block of a series is appended to.
+     */
+    private static class Series {
+        private final int methodId;
+        private final List<GorillaBlock> blocks = new ArrayList<>(4);
+
+        Series(int methodId) {
+            this.methodId = methodId;
+        }
+    }
+
+    /**
+     * Point of the series of a method.
+     */
+    @FunctionalInterface
+    interface PointConsumer {
+        /**
+         * @param methodId     id of the method, see {@link MethodSymbolTable}
+         * @param timeInMillis end of the interval (epoch millis)
+         * @param powerInWatts mean power of the method
+         * @param resolution   number of measurement intervals the point represents
+         */
+        void accept(int methodId, long timeInMillis, double powerInWatts, int resolution);
+    }
+
+    /**
+     * @param retentionInMillis maximum age of the points
+     * @param maxMemoryInBytes  limit of the estimated size of all series
+     */
+    MethodPowerHistory(long retentionInMillis, long maxMemoryInBytes) {
+        this.retentionInMillis = retentionInMillis;
+        this.maxMemoryInBytes = maxMemoryInBytes;
+    }
+
+    /**
+     * Adds the power of a method sampled in a thread to the current interval. Only called by the attribution stage thread.
+     *
+     * @param slot         slot of the method, see {@link MethodEnergy#getSlot(int)}
+     * @param methodId     id of the method
+     * @param powerInWatts power of the method in the thread
+     */
+    void add(int slot, int methodId, double powerInWatts) {
+        if (slot >= intervalPower.length) {
+            int capacity = Math.max(slot + 1, intervalPower.length * 2);
+            intervalPower = Arrays.copyOf(intervalPower, capacity);
+            intervalMethodIds = Arrays.copyOf(intervalMethodIds, capacity);
+        }
+        intervalPower[slot] += powerInWatts;
+        intervalMethodIds[slot] = methodId;
+        intervalSlots.set(slot);
+    }
+
+    /**
+     * Drops the series and the power of the current interval of the method in a slot, e.g. if the method is no longer tracked
+     * and its slot is taken over. Only called by the attribution stage thread.
+     *
+     * @param slot slot of the method
+     */
+    synchronized void remove(int slot) {
+        if (intervalSlots.get(slot)) {
+            intervalPower[slot] = 0.0;
+            intervalSlots.clear(slot);
+        }
+        Series series = seriesPerSlot.remove(slot);
+        if (series != null) {
+            for (GorillaBlock block : series.blocks) {
+                memoryInBytes -= block.sizeInBytes();
+            }
+            memoryInBytes -= SERIES_OVERHEAD_IN_BYTES;
+        }
+    }
+
+    /**
+     * Appends the power of the current interval to the series of its methods, then applies the retention and the memory limit.
+     *
+     * @param timeInMillis end of the interval (epoch millis)
+     */
+    synchronized void endInterval(long timeInMillis) {
+        for (int slot = intervalSlots.nextSetBit(0); slot >= 0; slot = intervalSlots.nextSetBit(slot + 1)) {
+            append(slot, intervalMethodIds[slot], timeInMillis, intervalPower[slot]);
+            intervalPower[slot] = 0.0;
+        }
+        intervalSlots.clear();
+        dropExpired(timeInMillis - retentionInMillis);
+        if (memoryInBytes > maxMemoryInBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Decodes all points, method by method in time order.
+     *
+     * @param consumer consumer of the points
+     */
+    synchronized void forEach(PointConsumer consumer) {
+        for (Series series : seriesPerSlot.values()) {
+            for (GorillaBlock block : series.blocks) {
+                block.forEach((timeInMillis, powerInWatts) -> consumer.accept(series.methodId, timeInMillis, powerInWatts, block.getResolution()));
+            }
+        }
+    }
+
+    /**
+     * @return estimated size of all series in bytes
+     */
+    synchronized long getMemoryInBytes() {
+        return memoryInBytes;
+    }
+
+    private void append(int slot, int methodId, long timeInMillis, double powerInWatts) {
+        Series series = seriesPerSlot.get(slot);
+        if (series == null) {
+            series = new Series(methodId);
+            seriesPerSlot.put(slot, series);
+            memoryInBytes += SERIES_OVERHEAD_IN_BYTES;
+        }
+        List<GorillaBlock> blocks = series.blocks;
+        GorillaBlock last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (last == null || last.getCount() >= POINTS_PER_BLOCK) {
+            if (last != null) {
+                memoryInBytes -= last.sizeInBytes();
+                last.trim();
+                memoryInBytes += last.sizeInBytes();
+            }
+            last = new GorillaBlock(1);
+            blocks.add(last);
+            memoryInBytes += last.sizeInBytes();
+        }
+        long sizeBefore = last.sizeInBytes();
+        last.append(timeInMillis, powerInWatts);
+        memoryInBytes += last.sizeInBytes() - sizeBefore;
+    }
+
+    private void dropExpired(long oldestTimeInMillis) {
+        Iterator<Series> series = seriesPerSlot.values().iterator();
+        while (series.hasNext()) {
+            List<GorillaBlock> blocks = series.next().blocks;
+            int expired = 0;
+            while (expired < blocks.size() && blocks.get(expired).getLastTimeInMillis() < oldestTimeInMillis) {
+                memoryInBytes -= blocks.get(expired).sizeInBytes();
+                expired++;
+            }
+            if (expired == blocks.size()) {
+                series.remove();
+                memoryInBytes -= SERIES_OVERHEAD_IN_BYTES;
+            } else if (expired > 0) {
+                blocks.subList(0, expired).clear();
+            }
+        }
+    }
+
+    /**
+     * Downsamples the oldest blocks until the memory limit is met, drops the oldest blocks if all are at the maximum resolution.
+     * The last block of each series is never touched, it is still appended to.
+     */
+    private void compact() {
+        for (int resolution = 1; resolution < MAX_RESOLUTION; resolution *= 2) {
+            for (ClosedBlock closed : closedBlocksOldestFirst(resolution)) {
+                downsample(closed.series, closed.block);
+                if (memoryInBytes <= maxMemoryInBytes) {
+                    return;
+                }
+            }
+        }
+        for (ClosedBlock closed : closedBlocksOldestFirst(-1)) {
+            closed.series.remove(indexOf(closed.series, closed.block));
+            memoryInBytes -= closed.block.sizeInBytes();
+            if (memoryInBytes <= maxMemoryInBytes) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Block that is no longer appended to, with the series it belongs to.
+     */
+    private static class ClosedBlock {
+        private final List<GorillaBlock> series;
+        private final GorillaBlock block;
+
+        ClosedBlock(List<GorillaBlock> series, GorillaBlock block) {
+            this.series = series;
+            this.block = block;
+        }
+    }
+
+    /**
+     * @param resolution resolution of the blocks, <code>-1</code> for all
+     * @return all blocks except the last of each series, ordered by the time of their last point
+     */
+    private List<ClosedBlock> closedBlocksOldestFirst(int resolution) {
+        List<ClosedBlock> closed = new ArrayList<>();
+        for (Series series : seriesPerSlot.values()) {
+            List<GorillaBlock> blocks = series.blocks;
+            for (int i = 0; i < blocks.size() - 1; i++) {
+                if (resolution < 0 || blocks.get(i).getResolution() == resolution) {
+                    closed.add(new ClosedBlock(blocks, blocks.get(i)));
+                }
+            }
+        }
+        closed.sort(Comparator.comparingLong(c -> c.block.getLastTimeInMillis()));
+        return closed;
+    }
+
+    /**
+     * Downsamples the block and merges it into the preceding block of its series if both fit into one block.
+     */
+    private void downsample(List<GorillaBlock> blocks, GorillaBlock block) {
+        memoryInBytes -= block.sizeInBytes();
+        block.downsample();
+        memoryInBytes += block.sizeInBytes();
+        int index = indexOf(blocks, block);
+        if (index > 0) {
+            GorillaBlock preceding = blocks.get(index - 1);
+            if (preceding.getResolution() == block.getResolution() && preceding.getCount() + block.getCount() <= POINTS_PER_BLOCK) {
+                memoryInBytes -= preceding.sizeInBytes() + block.sizeInBytes();
+                preceding.appendAll(block);
+                preceding.trim();
+                memoryInBytes += preceding.sizeInBytes();
+                blocks.remove(index);
+            }
+        }
+    }
+
+    private static int indexOf(List<GorillaBlock> blocks, GorillaBlock block) {
+        for (int i = 0; i < blocks.size(); i++) {
+            if (blocks.get(i) == block) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,318 @@
+package group.msg.jpowermonitor.agent;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Maps the methods of sampled stack frames (pairs of class name and method name) to dense int ids.
+ * <br><br>
+ * Sampling and aggregation only work with these ids, the full qualified method name (<code>className.methodName</code>)
+ * is created lazily once per method when results are exported. Whether a method matches the <code>javaAgent.packageFilter</code>
+ * is determined once when the method is interned and cached per id.
+ * <br><br>
+ * Methods are interned by one thread at a time (single writer): by the thread restoring the state journal until the stack sampler is started,
+ * afterwards by the sampling thread only. The names and filter flags may be read by any thread.
+ * <br><br>
+ * If the number of tracked methods is limited, the ids are recycled, see {@link #recycleIdsFrom(int, CallTree)}, so generated classes
+ * (lambdas, proxies, scripts) cannot grow the table without bounds. An id is recycled once the table is full if its method
+ * <ul>
+ *     <li>is not {@link #pin(int) pinned}, i.e. not tracked</li>
+ *     <li>is not part of the call tree</li>
+ *     <li>was interned last in an interval whose results are {@link #releaseIntervalsUpTo(long) released}, thus no sample
+ *     or activity in flight refers to it</li>
+ * </ul>
+ * The table only grows further if less than a quarter of its ids can be recycled.
+ */
+class MethodSymbolTable {
+    /**
+     * Id for "no method", e.g. if no frame of a stack matches the package filter.
+     */
+    static final int NO_METHOD = -1;
+    private static final String CLASS_METHOD_SEPARATOR = ".";
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Minimum share of the ids to recycle, the table grows if less can be recycled.
+     */
+    private static final int MIN_RECYCLED_SHARE = 4;
+    private final PackageFilter packageFilter;
+    // hash table: slot -> method id + 1, 0 marks a free slot
+    private int[] slots;
+    private int[] hashes;
+    private String[] classNames;
+    private String[] methodNames;
+    private boolean[] filtered;
+    private String[] qualifiedNames;
+    /**
+     * Interval each method was interned in last.
+     */
+    private long[] lastInternedInIntervals;
+    /**
+     * Tracked methods, updated by the attribution stage thread under the lock of the table.
+     */
+    private boolean[] pinned;
+    /**
+     * Recycled ids, assigned before new ids.
+     */
+    private int[] freeIds = new int[0];
+    private int freeCount;
+    /**
+     * Number of methods from which on ids are recycled, <code>0</code> if they are never recycled.
+     */
+    private int recycleFrom;
+    private CallTree callTree;
+    /**
+     * Interval the sampling thread currently interns the methods in.
+     */
+    private volatile long openInterval;
+    /**
+     * Last interval whose results are exported.
+     */
+    private volatile long releasedInterval = -1L;
+    /**
+     * Number of ids ever assigned, ids below may be free.
+     */
+    private volatile int size;
+
+    MethodSymbolTable(Set<String> packageFilter) {
+        this.packageFilter = new PackageFilter(packageFilter);
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.classNames = new String[INITIAL_CAPACITY];
+        this.methodNames = new String[INITIAL_CAPACITY];
+        this.filtered = new boolean[INITIAL_CAPACITY];
+        this.qualifiedNames = new String[INITIAL_CAPACITY];
+        this.lastInternedInIntervals = new long[INITIAL_CAPACITY];
+        this.pinned = new boolean[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Recycles the ids of methods no longer used once the table holds the given number of methods. Must be called before methods are interned.
+     *
+     * @param capacity number of methods from which on ids are recycled
+     * @param callTree call tree whose method ids must not be recycled, <code>null</code> if disabled
+     */
+    void recycleIdsFrom(int capacity, CallTree callTree) {
+        this.recycleFrom = capacity;
+        this.callTree = callTree;
+    }
+
+    /**
+     * Closes the interval the methods are currently interned in. Only called by the sampling thread at the end of each interval.
+     *
+     * @return sequence number of the closed interval
+     */
+    long closeInterval() {
+        long closed = openInterval;
+        openInterval = closed + 1;
+        return closed;
+    }
+
+    /**
+     * Releases the ids used in the intervals up to the given one after their results are exported, so they may be recycled.
+     * Only called by the thread exporting the intervals, in interval order.
+     *
+     * @param interval sequence number of the interval, see {@link #closeInterval()}
+     */
+    void releaseIntervalsUpTo(long interval) {
+        releasedInterval = interval;
+    }
+
+    /**
+     * Keeps the id of a tracked method from being recycled.
+     *
+     * @param id method id
+     */
+    synchronized void pin(int id) {
+        pinned[id] = true;
+    }
+
+    /**
+     * Allows the id of a method no longer tracked to be recycled.
+     *
+     * @param id method id
+     */
+    synchronized void unpin(int id) {
+        pinned[id] = false;
+    }
+
+    /**
+     * @param frame stack frame
+     * @return id of the frame's method
+     */
+    int intern(StackTraceElement frame) {
+        return intern(frame.getClassName(), frame.getMethodName());
+    }
+
+    /**
+     * Returns the id of the method, a new id is assigned if the method is not known yet.
+     *
+     * @param className  full qualified class name
+     * @param methodName method name
+     * @return id of the method
+     */
+    int intern(String className, String methodName) {
+        int hash = 31 * className.hashCode() + methodName.hashCode();
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && classNames[id].equals(className) && methodNames[id].equals(methodName)) {
+                lastInternedInIntervals[id] = openInterval;
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(slot, hash, className, methodName);
+    }
+
+    /**
+     * Returns the id of the method with the given full qualified name, e.g. restored from the state journal.
+     * The name is split at the last separator, a name without separator is interned with an empty class name.
+     *
+     * @param qualifiedName full qualified method name, see {@link #getQualifiedName(int)}
+     * @return id of the method
+     */
+    int internQualifiedName(String qualifiedName) {
+        int separator = qualifiedName.lastIndexOf(CLASS_METHOD_SEPARATOR);
+        return separator < 0 ? intern("", qualifiedName)
+            : intern(qualifiedName.substring(0, separator), qualifiedName.substring(separator + CLASS_METHOD_SEPARATOR.length()));
+    }
+
+    /**
+     * @param id method id
+     * @return <code>true</code> if the method matches the package filter
+     */
+    boolean isFiltered(int id) {
+        return id != NO_METHOD && id < size && filtered[id];
+    }
+
+    /**
+     * @param id method id
+     * @return full qualified method name, <code>null</code> for {@link #NO_METHOD} and recycled ids
+     */
+    String getQualifiedName(int id) {
+        if (id == NO_METHOD || id >= size) {
+            return null;
+        }
+        String[] names = qualifiedNames;
+        String qualifiedName = names[id];
+        if (qualifiedName == null) {
+            String className = classNames[id];
+            String methodName = methodNames[id];
+            if (className == null || methodName == null) {
+                return null;
+            }
+            // benign race: concurrent readers create equal strings
+            qualifiedName = getFullQualifiedMethodName(className, methodName);
+            names[id] = qualifiedName;
+        }
+        return qualifiedName;
+    }
+
+    /**
+     * @return number of interned methods, without the recycled ids not assigned again yet
+     */
+    int size() {
+        return size - freeCount;
+    }
+
+    /**
+     * @param className  full qualified class name, empty for a name without class
+     * @param methodName method name
+     * @return <code>className.methodName</code>, only the method name if the class name is empty
+     */
+    @NotNull
+    static String getFullQualifiedMethodName(String className, String methodName) {
+        return className.isEmpty() ? methodName : className + CLASS_METHOD_SEPARATOR + methodName;
+    }
+
+    private int add(int slot, int hash, String className, String methodName) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = size;
+            if (id == classNames.length) {
+                if (recycleFrom == 0 || id < recycleFrom || !recycle()) {
+                    grow();
+                }
+                return intern(className, methodName);
+            }
+        }
+        hashes[id] = hash;
+        classNames[id] = className;
+        methodNames[id] = methodName;
+        filtered[id] = packageFilter.matches(className, methodName);
+        lastInternedInIntervals[id] = openInterval;
+        slots[slot] = id + 1;
+        if (id == size) {
+            size = id + 1; // publishes the new method to other threads
+        }
+        return id;
+    }
+
+    /**
+     * Frees the ids of all methods no longer used, see the class comment.
+     * A method interned in interval <code>n</code> may still be counted in interval <code>n + 1</code> (e.g. if the stack sampler
+     * buffers its samples), so it is recycled once interval <code>n + 1</code> is released.
+     *
+     * @return <code>true</code> if at least a quarter of the ids is free
+     */
+    private synchronized boolean recycle() {
+        long released = releasedInterval;
+        BitSet callTreeMethodIds = callTree != null ? callTree.getMethodIds() : new BitSet();
+        if (freeIds.length < classNames.length) {
+            freeIds = new int[classNames.length];
+        }
+        for (int id = 0; id < size; id++) {
+            if (classNames[id] != null && !pinned[id] && lastInternedInIntervals[id] + 1 <= released && !callTreeMethodIds.get(id)) {
+                classNames[id] = null;
+                methodNames[id] = null;
+                qualifiedNames[id] = null;
+                freeIds[freeCount++] = id;
+            }
+        }
+        if (freeCount > 0) {
+            slots = rehash(slots.length);
+        }
+        return freeCount >= classNames.length / MIN_RECYCLED_SHARE;
+    }
+
+    private synchronized void grow() {
+        int capacity = classNames.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        classNames = Arrays.copyOf(classNames, capacity);
+        methodNames = Arrays.copyOf(methodNames, capacity);
+        filtered = Arrays.copyOf(filtered, capacity);
+        qualifiedNames = Arrays.copyOf(qualifiedNames, capacity);
+        lastInternedInIntervals = Arrays.copyOf(lastInternedInIntervals, capacity);
+        pinned = Arrays.copyOf(pinned, capacity);
+        slots = rehash(capacity * 2); // load factor <= 0.5
+    }
+
+    /**
+     * @return hash table of all ids not free
+     */
+    private int[] rehash(int length) {
+        int[] newSlots = new int[length];
+        int mask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            if (classNames[id] == null) {
+                continue; // free
+            }
+            int slot = mix(hashes[id]) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        return newSlots;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
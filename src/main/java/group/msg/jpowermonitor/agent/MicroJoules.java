@@ -0,0 +1,39 @@
+package group.msg.jpowermonitor.agent;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point arithmetic for the energy accounting of the java agent.<br>
+ * Power is calculated as <code>double</code> and energy is accumulated as <code>long</code> micro joules,
+ * conversion to {@link BigDecimal} only happens when the results are exported.
+ * <br><br>
+ * Precision: each energy contribution (e.g. of one activity) is rounded to the nearest micro joule, thus the absolute error
+ * of a sum is at most 0.5 µJ per contribution. As an example, a method sampled 100 times per second for one hour has an error
+ * below 0.2 J. The relative error of the <code>double</code> power calculation (about 1E-16) is negligible in comparison.
+ * A <code>long</code> holds about 9.2E12 J, i.e. more than 2.5 GWh.
+ */
+final class MicroJoules {
+    static final long PER_JOULE = 1_000_000L;
+    private static final int SCALE = 6;
+    private static final double NANO_JOULES_PER_MICRO_JOULE = 1_000.0;
+
+    private MicroJoules() {
+    }
+
+    /**
+     * @param watts       power in watts
+     * @param nanoseconds duration in nanoseconds
+     * @return energy in micro joules, rounded to the nearest micro joule
+     */
+    static long of(double watts, long nanoseconds) {
+        return Math.round(watts * nanoseconds / NANO_JOULES_PER_MICRO_JOULE);
+    }
+
+    /**
+     * @param microJoules energy in micro joules
+     * @return exact energy in joules
+     */
+    static BigDecimal toJoules(long microJoules) {
+        return BigDecimal.valueOf(microJoules, SCALE);
+    }
+}
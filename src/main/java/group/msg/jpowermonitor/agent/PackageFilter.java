@@ -0,0 +1,124 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The prefixes of <code>javaAgent.packageFilter</code> compiled into a prefix trie.<br>
+ * A method matches if its full qualified name (<code>className.methodName</code>) starts with any of the prefixes.
+ * The name is matched character by character without concatenation. The trie node reached after the class name
+ * is memoized per class name, so only the method name has to be matched for further methods of the same class.
+ * The memo is cleared once it holds {@value #MAX_MEMOIZED_CLASS_NAMES} class names, so generated classes cannot grow it without bounds.
+ */
+class PackageFilter {
+    private static final char CLASS_METHOD_SEPARATOR = '.';
+    static final int MAX_MEMOIZED_CLASS_NAMES = 4096;
+    /**
+     * Memoized result for class names already matching a prefix.
+     */
+    private static final Node MATCH = new Node();
+    /**
+     * Memoized result for class names not matching any prefix.
+     */
+    private static final Node NO_MATCH = new Node();
+    private final Node root = new Node();
+    private final Map<String, Node> nodePerClassName = new ConcurrentHashMap<>();
+
+    /**
+     * Compiles the given prefixes.
+     *
+     * @param prefixes prefixes of the filter, <code>null</code> or empty if no method matches
+     */
+    PackageFilter(Set<String> prefixes) {
+        if (prefixes != null) {
+            prefixes.forEach(this::add);
+        }
+    }
+
+    /**
+     * @param className  full qualified class name, empty for a name without class
+     * @param methodName method name
+     * @return <code>true</code> if <code>className.methodName</code> (only the method name if the class name is empty) starts with any of the prefixes
+     */
+    boolean matches(String className, String methodName) {
+        if (className.isEmpty()) {
+            return matchRemaining(root, methodName) == MATCH;
+        }
+        Node node = nodePerClassName.get(className);
+        if (node == null) {
+            if (nodePerClassName.size() >= MAX_MEMOIZED_CLASS_NAMES) {
+                nodePerClassName.clear();
+            }
+            node = matchRemaining(root, className);
+            nodePerClassName.put(className, node);
+        }
+        if (node == MATCH || node == NO_MATCH) {
+            return node == MATCH;
+        }
+        node = node.child(CLASS_METHOD_SEPARATOR);
+        return node != null && matchRemaining(node, methodName) == MATCH;
+    }
+
+    /**
+     * @return number of memoized class names
+     */
+    int getMemoizedClassNames() {
+        return nodePerClassName.size();
+    }
+
+    /**
+     * @return {@link #MATCH} if a prefix ends within the name, {@link #NO_MATCH} if the name leaves the trie, else the node reached at the end of the name
+     */
+    private static Node matchRemaining(Node node, String name) {
+        if (node.terminal) {
+            return MATCH;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            node = node.child(name.charAt(i));
+            if (node == null) {
+                return NO_MATCH;
+            }
+            if (node.terminal) {
+                return MATCH;
+            }
+        }
+        return node;
+    }
+
+    private void add(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.getOrAddChild(prefix.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        private Node child(char key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node getOrAddChild(char key) {
+            Node child = child(key);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
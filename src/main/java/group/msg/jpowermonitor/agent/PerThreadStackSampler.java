@@ -0,0 +1,49 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.Arrays;
+
+/**
+ * Samples the stack of each thread one after another via {@link Thread#getStackTrace()}.<br>
+ * Every call is a separate handshake with the JVM, so the costs grow with the number of threads.
+ *
+ * @see ThreadDumpStackSampler
+ */
+class PerThreadStackSampler implements StackSampler {
+    private final MethodSymbolTable methodSymbolTable;
+    private final ThreadGroup rootThreadGroup;
+    private Thread[] threads = new Thread[64];
+
+    PerThreadStackSampler(MethodSymbolTable methodSymbolTable) {
+        this.methodSymbolTable = methodSymbolTable;
+        ThreadGroup threadGroup = Thread.currentThread().getThreadGroup();
+        while (threadGroup.getParent() != null) {
+            threadGroup = threadGroup.getParent();
+        }
+        this.rootThreadGroup = threadGroup;
+    }
+
+    @Override
+    public void sample(SampleHistograms sampleHistograms) {
+        int threadCount = enumerateThreads();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = threads[i];
+            // Only consider threads that are currently running (not waiting or blocked)
+            if (Thread.State.RUNNABLE == thread.getState()) {
+                sampleHistograms.addStack(methodSymbolTable, thread.getId(), thread.getName(), thread.getStackTrace());
+            }
+        }
+        Arrays.fill(threads, 0, threadCount, null); // do not keep terminated threads reachable
+    }
+
+    /**
+     * Enumerates all live threads without capturing their stacks (as {@link Thread#getAllStackTraces()} would do).
+     */
+    private int enumerateThreads() {
+        int threadCount = rootThreadGroup.enumerate(threads, true);
+        while (threadCount == threads.length) { // array was too small
+            threads = new Thread[threads.length * 2];
+            threadCount = rootThreadGroup.enumerate(threads, true);
+        }
+        return threadCount;
+    }
+}
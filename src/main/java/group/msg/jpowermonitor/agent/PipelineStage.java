@@ -0,0 +1,122 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Stage of the agent's processing pipeline: a daemon thread consuming the elements offered by the previous stage.
+ * <br><br>
+ * The stages are connected by a {@link DropOldestRingBuffer}, so the previous stage never waits for this one.
+ * If this stage falls behind, the oldest pending elements are dropped and reported.
+ * <br><br>
+ * On {@link #stop()} the pending elements are still processed, then the caller waits for the stage thread for at most
+ * {@link #STOP_TIMEOUT_IN_MS}, so the resources used by the consumer can be released safely afterwards.
+ *
+ * @param <E> type of the elements
+ */
+class PipelineStage<E> {
+    static final long STOP_TIMEOUT_IN_MS = 5_000L;
+    private final DropOldestRingBuffer<E> buffer;
+    private final Consumer<E> consumer;
+    private final Thread thread;
+    private volatile boolean running;
+    private long reportedDropped;
+
+    /**
+     * Constructor
+     *
+     * @param threadName name of the stage thread
+     * @param capacity   number of pending elements before the oldest are dropped
+     * @param consumer   processes one element on the stage thread
+     */
+    PipelineStage(String threadName, int capacity, Consumer<E> consumer) {
+        this.buffer = new DropOldestRingBuffer<>(capacity);
+        this.consumer = consumer;
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true); // does not prevent applications from stopping
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the stage after the pending elements are processed and waits for the stage thread.
+     * Elements offered afterwards are not processed.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        join(thread, STOP_TIMEOUT_IN_MS);
+    }
+
+    /**
+     * Waits for a stopped daemon thread of the pipeline for a bounded time.
+     *
+     * @param thread          thread to wait for
+     * @param timeoutInMillis maximum time to wait
+     * @return <code>true</code> if the thread has terminated
+     */
+    static boolean join(Thread thread, long timeoutInMillis) {
+        if (thread == Thread.currentThread()) {
+            return false; // stopped by its own consumer
+        }
+        try {
+            thread.join(timeoutInMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            System.err.println(thread.getName() + ": Did not stop within " + TimeUnit.MILLISECONDS.toSeconds(timeoutInMillis) + " seconds");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hands over an element to the stage without waiting. Only called by the thread of the previous stage.
+     *
+     * @param element element to process
+     */
+    void offer(E element) {
+        buffer.offer(element);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return number of elements dropped because the stage fell behind
+     */
+    long getDropped() {
+        return buffer.getDropped();
+    }
+
+    private void run() {
+        while (true) {
+            E element = buffer.poll();
+            if (element == null) {
+                if (!running) {
+                    return; // drained
+                }
+                LockSupport.park(this); // a permit of an offer or stop in the meantime lets park return immediately
+                continue;
+            }
+            reportDropped();
+            try {
+                consumer.accept(element);
+            } catch (RuntimeException ex) {
+                System.err.println(thread.getName() + ": Unable to process element: " + ex.getLocalizedMessage());
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long dropped = buffer.getDropped();
+        if (dropped > reportedDropped) {
+            System.err.println(thread.getName() + ": Stage is too slow, dropped " + (dropped - reportedDropped) + " elements (" + dropped + " in total)");
+            reportedDropped = dropped;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package group.msg.jpowermonitor.agent;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Dumps the in-memory power history on demand, see {@link PowerHistoryMXBean}.
+ */
+class PowerHistory implements PowerHistoryMXBean {
+    static final String OBJECT_NAME = "group.msg.jpowermonitor:type=PowerHistory";
+    private final PowerStatistics powerStatistics;
+    private final MethodPowerHistory methodPowerHistory;
+    private final BigDecimal carbonDioxideEmissionFactor;
+
+    PowerHistory(PowerStatistics powerStatistics, MethodPowerHistory methodPowerHistory, BigDecimal carbonDioxideEmissionFactor) {
+        this.powerStatistics = powerStatistics;
+        this.methodPowerHistory = methodPowerHistory;
+        this.carbonDioxideEmissionFactor = carbonDioxideEmissionFactor;
+    }
+
+    /**
+     * Registers the management bean at the platform MBean server, failures are only reported.
+     */
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            System.err.println("Cannot register " + OBJECT_NAME + ": " + ex.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public String dump(String fileName) {
+        ResultsWriter resultsWriter = new ResultsWriter(powerStatistics, false, carbonDioxideEmissionFactor);
+        Path file = Paths.get(fileName == null || fileName.isBlank() ? resultsWriter.getPowerHistoryFileName() : fileName).toAbsolutePath();
+        resultsWriter.writePowerHistory(file);
+        return file.toString();
+    }
+
+    @Override
+    public long getMemoryInBytes() {
+        return methodPowerHistory.getMemoryInBytes();
+    }
+}
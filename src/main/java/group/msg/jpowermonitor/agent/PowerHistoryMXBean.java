@@ -0,0 +1,20 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Management interface to dump the in-memory power history per method on demand, e.g. with JConsole.
+ * Registered as <code>group.msg.jpowermonitor:type=PowerHistory</code> if <code>javaAgent.powerHistoryRetentionInS</code> is set.
+ */
+public interface PowerHistoryMXBean {
+    /**
+     * Writes the power history per method as CSV file.
+     *
+     * @param fileName file to write, the default file <code>jPowerMonitor_&lt;pid&gt;_power_history.csv</code> if empty
+     * @return path of the written file
+     */
+    String dump(String fileName);
+
+    /**
+     * @return estimated memory used by the power history in bytes
+     */
+    long getMemoryInBytes();
+}
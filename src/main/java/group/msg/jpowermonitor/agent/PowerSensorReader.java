@@ -0,0 +1,130 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Reads the power sensor on its own daemon thread and publishes the latest reading, so a slow sensor
+ * (e.g. a slow HTTP response of Libre Hardware Monitor) never blocks the stack sampling.
+ * <br><br>
+ * The sensor is read on absolute {@link System#nanoTime()} deadlines like in {@link SamplingScheduler}.
+ * The latest reading is published with its timestamp in an {@link AtomicReference}, thus consumers never wait for the sensor.
+ * A reading older than the configured maximum age is stale: it is still used, but a warning is logged once until a fresh reading arrives.
+ * If the sensor cannot be read, the previous reading is kept.
+ */
+class PowerSensorReader {
+    private final Supplier<DataPoint> sensor;
+    private final long readIntervalInNanos;
+    private final long maxAgeInNanos;
+    private final AtomicReference<PowerReading> latestReading = new AtomicReference<>();
+    private final Thread thread;
+    private volatile boolean running;
+    /**
+     * Only accessed by the consuming thread.
+     */
+    private boolean staleReported;
+
+    /**
+     * Power reading of the sensor.
+     */
+    @Getter
+    static class PowerReading {
+        private final double powerInWatts;
+        /**
+         * {@link System#nanoTime()} when the sensor returned the reading.
+         */
+        private final long timestampInNanos;
+
+        PowerReading(double powerInWatts, long timestampInNanos) {
+            this.powerInWatts = powerInWatts;
+            this.timestampInNanos = timestampInNanos;
+        }
+
+        long getAgeInNanos(long nowInNanos) {
+            return nowInNanos - timestampInNanos;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param sensor            reads the current power in watts, may block
+     * @param readIntervalInMs  period of the sensor reads
+     * @param maxAgeInMs        maximum age of a reading before it is stale
+     * @param threadName        name of the reader thread
+     */
+    PowerSensorReader(Supplier<DataPoint> sensor, long readIntervalInMs, long maxAgeInMs, String threadName) {
+        this.sensor = sensor;
+        this.readIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, readIntervalInMs));
+        this.maxAgeInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxAgeInMs));
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true); // does not prevent applications from stopping
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits for it for at most {@link PipelineStage#STOP_TIMEOUT_IN_MS}, a pending sensor read is awaited.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        PipelineStage.join(thread, PipelineStage.STOP_TIMEOUT_IN_MS);
+    }
+
+    private void run() {
+        long deadline = System.nanoTime();
+        while (running) {
+            read();
+            deadline = SamplingScheduler.nextDeadline(deadline, readIntervalInNanos, System.nanoTime());
+            long remaining;
+            while (running && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+    }
+
+    /**
+     * Reads the sensor once and publishes the reading.
+     */
+    void read() {
+        try {
+            DataPoint power = sensor.get();
+            if (power != null && power.getValue() != null) {
+                latestReading.set(new PowerReading(power.getValue().doubleValue(), System.nanoTime()));
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to read power sensor: " + ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Returns the latest reading without waiting for the sensor, logs a warning if it gets stale.
+     *
+     * @param nowInNanos current {@link System#nanoTime()}
+     * @return latest reading, <code>null</code> if the sensor has not been read successfully yet
+     */
+    PowerReading getLatestReading(long nowInNanos) {
+        PowerReading reading = latestReading.get();
+        if (reading != null) {
+            boolean stale = isStale(reading, nowInNanos);
+            if (stale && !staleReported) {
+                System.err.println("Power sensor reading is stale (" + TimeUnit.NANOSECONDS.toMillis(reading.getAgeInNanos(nowInNanos)) + " ms old), using last reading of " + reading.getPowerInWatts() + " W");
+            }
+            staleReported = stale;
+        }
+        return reading;
+    }
+
+    boolean isStale(PowerReading reading, long nowInNanos) {
+        return reading.getAgeInNanos(nowInNanos) > maxAgeInNanos;
+    }
+}
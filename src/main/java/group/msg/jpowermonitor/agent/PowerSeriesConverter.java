@@ -0,0 +1,93 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.dto.DataPoint;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts the binary power series files (<code>javaAgent.powerOutputFormat: binary</code>) back to the power per method CSV files.
+ * <br><br>
+ * Usage: <code>java -cp jpowermonitor.jar group.msg.jpowermonitor.agent.PowerSeriesConverter jPowerMonitor_&lt;pid&gt;_power_per_method.jpm ...</code>
+ * <br>
+ * Writes <code>jPowerMonitor_&lt;pid&gt;_power_per_method.csv</code> and <code>jPowerMonitor_&lt;pid&gt;_power_per_method_filtered.csv</code>
+ * in the same layout the agent writes with <code>javaAgent.powerOutputFormat: csv</code>. Existing CSV files are replaced.
+ */
+public class PowerSeriesConverter {
+    static final String FILE_EXTENSION = ".jpm";
+    private static final String CSV_FILE_EXTENSION = ".csv";
+    private static final String FILTERED_SUFFIX = "_filtered";
+
+    private PowerSeriesConverter() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java -cp jpowermonitor.jar " + PowerSeriesConverter.class.getName() + " <power series file" + FILE_EXTENSION + ">...");
+            System.exit(1);
+        }
+        for (String file : args) {
+            Path csvFile = csvFileFor(Paths.get(file), false);
+            Path filteredCsvFile = csvFileFor(Paths.get(file), true);
+            long rows = convert(Paths.get(file), csvFile, filteredCsvFile);
+            System.out.println("Converted " + rows + " rows of '" + file + "' to '" + csvFile + "' / '" + filteredCsvFile + "'");
+        }
+    }
+
+    /**
+     * Converts a power series file to the power per method CSV files. The power of the rows of one interval is summed per method and thread,
+     * like the agent does for the CSV files.
+     *
+     * @param file            power series file
+     * @param csvFile         power per method CSV file
+     * @param filteredCsvFile power per filtered method CSV file
+     * @return number of rows read from the power series file
+     */
+    static long convert(Path file, Path csvFile, Path filteredCsvFile) {
+        try {
+            Files.deleteIfExists(csvFile);
+            Files.deleteIfExists(filteredCsvFile);
+        } catch (IOException ex) {
+            throw new JPowerMonitorException("Unable to replace " + csvFile + " / " + filteredCsvFile, ex);
+        }
+        StringBuilder row = new StringBuilder(256);
+        Map<Long, Long> microWattsPerMethodAndThread = new LinkedHashMap<>();
+        try (BufferedCsvFileWriter csv = new BufferedCsvFileWriter(csvFile, BufferedCsvFileWriter.DEFAULT_BUFFER_SIZE, 0L, 0L);
+             BufferedCsvFileWriter filteredCsv = new BufferedCsvFileWriter(filteredCsvFile, BufferedCsvFileWriter.DEFAULT_BUFFER_SIZE, 0L, 0L)) {
+            return PowerSeriesReader.read(file, interval -> {
+                appendRows(interval, interval.methodIds, microWattsPerMethodAndThread, row, csv);
+                appendRows(interval, interval.filteredMethodIds, microWattsPerMethodAndThread, row, filteredCsv);
+            });
+        }
+    }
+
+    private static void appendRows(PowerSeriesReader.Interval interval, int[] methodIds, Map<Long, Long> microWattsPerMethodAndThread,
+                                   StringBuilder row, BufferedCsvFileWriter csv) {
+        microWattsPerMethodAndThread.clear();
+        for (int i = 0; i < interval.rows; i++) {
+            if (methodIds[i] != 0) {
+                microWattsPerMethodAndThread.merge((long) methodIds[i] << 32 | interval.threadIds[i], interval.microWatts[i], Long::sum);
+            }
+        }
+        microWattsPerMethodAndThread.forEach((methodAndThread, microWatts) -> {
+            String method = interval.getString((int) (methodAndThread >>> 32) - 1);
+            String thread = interval.getString(methodAndThread.intValue());
+            row.setLength(0);
+            csv.append(ResultsWriter.appendCsvEntryForDataPoint(row, new DataPoint(method, BigDecimal.valueOf(microWatts, 6), Unit.WATT, interval.end, thread), BigDecimal.ZERO));
+        });
+    }
+
+    private static Path csvFileFor(Path file, boolean filtered) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(FILE_EXTENSION)) {
+            name = name.substring(0, name.length() - FILE_EXTENSION.length());
+        }
+        return file.resolveSibling(name + (filtered ? FILTERED_SUFFIX : "") + CSV_FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,142 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the power series files written by {@link PowerSeriesWriter}. An incomplete record at the end of the file,
+ * e.g. after a crash of the application, is ignored.
+ */
+class PowerSeriesReader {
+
+    /**
+     * Decoded block of one interval. The instance and its columns are reused for the next interval.
+     */
+    static class Interval {
+        private final List<String> dictionary = new ArrayList<>();
+        LocalDateTime end;
+        int rows;
+        int[] threadIds = new int[256];
+        /**
+         * Method id + 1 in the dictionary, <code>0</code> if the row has no method.
+         */
+        int[] methodIds = new int[256];
+        /**
+         * Filtered method id + 1 in the dictionary, <code>0</code> if no method matches the package filter.
+         */
+        int[] filteredMethodIds = new int[256];
+        long[] microWatts = new long[256];
+
+        /**
+         * @param id id in the dictionary
+         * @return thread or method name
+         */
+        String getString(int id) {
+            return dictionary.get(id);
+        }
+    }
+
+    private PowerSeriesReader() {
+    }
+
+    /**
+     * Reads all intervals of the file.
+     *
+     * @param file     power series file
+     * @param consumer called for each interval
+     * @return number of rows read
+     */
+    static long read(Path file, Consumer<Interval> consumer) {
+        ByteBuffer content;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException ex) {
+            throw new JPowerMonitorException("Unable to read power series file " + file, ex);
+        }
+        Interval interval = new Interval();
+        long rows = 0;
+        long previousEndInMillis = 0;
+        boolean headerRead = false;
+        while (content.hasRemaining()) {
+            int recordStart = content.position();
+            try {
+                byte type = content.get();
+                if (type == PowerSeriesWriter.HEADER) {
+                    if (content.getInt() != PowerSeriesWriter.MAGIC || content.get() != PowerSeriesWriter.VERSION) {
+                        throw new JPowerMonitorException(file + " is not a power series file of a supported version");
+                    }
+                    interval.dictionary.clear();
+                    previousEndInMillis = 0;
+                    headerRead = true;
+                } else if (!headerRead) {
+                    throw new JPowerMonitorException(file + " is not a power series file");
+                } else if (type == PowerSeriesWriter.STRING) {
+                    byte[] bytes = new byte[Varints.getUnsignedInt(content)];
+                    content.get(bytes);
+                    interval.dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+                } else if (type == PowerSeriesWriter.BLOCK) {
+                    previousEndInMillis += readBlock(content, interval, previousEndInMillis);
+                    consumer.accept(interval);
+                    rows += interval.rows;
+                } else {
+                    throw new IllegalStateException("unknown record type " + type);
+                }
+            } catch (BufferUnderflowException | IllegalStateException ex) {
+                System.err.println("Ignoring incomplete power series file " + file + " from byte " + recordStart);
+                break;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return delta of the interval end to the previous block
+     */
+    private static long readBlock(ByteBuffer content, Interval interval, long previousEndInMillis) {
+        int rows = Varints.getUnsignedInt(content);
+        long deltaInMillis = Varints.getSigned(content);
+        if (rows > content.remaining()) {
+            throw new BufferUnderflowException(); // each row takes at least one byte per column
+        }
+        if (rows > interval.threadIds.length) {
+            interval.threadIds = new int[rows];
+            interval.methodIds = new int[rows];
+            interval.filteredMethodIds = new int[rows];
+            interval.microWatts = new long[rows];
+        }
+        int strings = interval.dictionary.size();
+        readDeltas(content, interval.threadIds, rows, strings - 1);
+        readDeltas(content, interval.methodIds, rows, strings);
+        readDeltas(content, interval.filteredMethodIds, rows, strings);
+        for (int row = 0; row < rows; row++) {
+            interval.microWatts[row] = Varints.getSigned(content);
+        }
+        interval.rows = rows;
+        interval.end = LocalDateTime.ofInstant(Instant.ofEpochMilli(previousEndInMillis + deltaInMillis), ZoneId.systemDefault());
+        return deltaInMillis;
+    }
+
+    private static void readDeltas(ByteBuffer content, int[] column, int rows, int maxId) {
+        long value = 0;
+        for (int row = 0; row < rows; row++) {
+            value += Varints.getSigned(content);
+            if (value < 0 || value > maxId) {
+                throw new IllegalStateException("undefined string " + value);
+            }
+            column[row] = (int) value;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.Activity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary alternative to the power per method CSV files: one file holds the power per method and thread of all intervals,
+ * the power per filtered method is derived from it. {@link PowerSeriesConverter} converts it back to the CSV files.
+ * <br><br>
+ * The file is a sequence of records, each starting with its type. Integers are varints, columns are delta encoded (see {@link Varints}):
+ * <pre>
+ * HEADER: magic JPMP (int), version (byte)          - starts a run, resets the dictionary and the time base
+ * STRING: length, UTF-8 bytes                       - defines the next id of the string dictionary (thread and method names)
+ * BLOCK:  rows, end of interval in epoch millis (delta to the previous block),
+ *         column thread ids, column method ids + 1, column filtered method ids + 1 (0: none), column power in micro watts
+ * </pre>
+ * Strings are written once, a row then takes a few bytes instead of the time, thread and method name of a CSV row.
+ * The records are appended through a {@link BufferedCsvFileWriter}, so flush and fsync follow the same policies as the CSV files.
+ * Only used by the export stage thread.
+ */
+class PowerSeriesWriter implements AutoCloseable {
+    static final int MAGIC = 0x4A504D50; // JPMP
+    static final byte VERSION = 1;
+    static final byte HEADER = 'H';
+    static final byte STRING = 'S';
+    static final byte BLOCK = 'B';
+    private static final int COLUMNS = 4;
+    private final BufferedCsvFileWriter file;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+    private int[] threadIds = new int[256];
+    private int[] methodIds = new int[256];
+    private int[] filteredMethodIds = new int[256];
+    private long[] microWatts = new long[256];
+    private long previousEndInMillis;
+    private boolean headerWritten;
+
+    /**
+     * Constructor
+     *
+     * @param file              file to append to
+     * @param flushIntervalInMs maximum time a block stays in the buffer, <code>0</code> to write each interval
+     * @param fsyncIntervalInMs interval to sync the file to the storage device, <code>0</code> to leave it to the operating system
+     */
+    PowerSeriesWriter(Path file, long flushIntervalInMs, long fsyncIntervalInMs) {
+        this.file = new BufferedCsvFileWriter(file, BufferedCsvFileWriter.DEFAULT_BUFFER_SIZE, flushIntervalInMs, fsyncIntervalInMs);
+    }
+
+    /**
+     * Appends the power of the sampled methods of one interval as one block.
+     *
+     * @param activities activities of the interval
+     */
+    void append(Collection<Activity> activities) {
+        out.clear();
+        if (!headerWritten) {
+            out.put(HEADER).putInt(MAGIC).put(VERSION);
+            headerWritten = true;
+        }
+        int rows = 0;
+        LocalDateTime end = null;
+        for (Activity activity : activities) {
+            if (!(activity instanceof SampledMethodActivity) || !activity.isFinalized()) {
+                continue;
+            }
+            SampledMethodActivity sampled = (SampledMethodActivity) activity;
+            if (rows == threadIds.length) {
+                grow();
+            }
+            end = sampled.getTime();
+            threadIds[rows] = idOf(String.valueOf(sampled.getThreadName()));
+            methodIds[rows] = idOrZero(sampled.getIdentifier(false));
+            filteredMethodIds[rows] = idOrZero(sampled.getIdentifier(true));
+            microWatts[rows] = Math.round(sampled.getPowerInWatts() * 1_000_000d);
+            rows++;
+        }
+        if (rows > 0) {
+            writeBlock(rows, end);
+        }
+        if (out.position() > 0) {
+            out.flip();
+            file.append(out);
+        }
+    }
+
+    /**
+     * @see BufferedCsvFileWriter#flushIfDue(long)
+     */
+    void flushIfDue(long nowInNanos) {
+        file.flushIfDue(nowInNanos);
+    }
+
+    @Override
+    public void close() {
+        file.close();
+    }
+
+    private void writeBlock(int rows, LocalDateTime end) {
+        ensureCapacity(1 + 2 * Varints.MAX_LENGTH + rows * COLUMNS * Varints.MAX_LENGTH);
+        long endInMillis = end.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        out.put(BLOCK);
+        Varints.putUnsigned(out, rows);
+        Varints.putSigned(out, endInMillis - previousEndInMillis);
+        previousEndInMillis = endInMillis;
+        putDeltas(threadIds, rows);
+        putDeltas(methodIds, rows);
+        putDeltas(filteredMethodIds, rows);
+        for (int row = 0; row < rows; row++) {
+            Varints.putSigned(out, microWatts[row]);
+        }
+    }
+
+    private void putDeltas(int[] column, int rows) {
+        int previous = 0;
+        for (int row = 0; row < rows; row++) {
+            Varints.putSigned(out, column[row] - previous);
+            previous = column[row];
+        }
+    }
+
+    private int idOrZero(String name) {
+        return name == null ? 0 : idOf(name) + 1;
+    }
+
+    private int idOf(String name) {
+        Integer id = dictionary.get(name);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(name, id);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(1 + Varints.MAX_LENGTH + bytes.length);
+            out.put(STRING);
+            Varints.putUnsigned(out, bytes.length);
+            out.put(bytes);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (out.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            out = larger.put(out);
+        }
+    }
+
+    private void grow() {
+        int capacity = threadIds.length * 2;
+        threadIds = Arrays.copyOf(threadIds, capacity);
+        methodIds = Arrays.copyOf(methodIds, capacity);
+        filteredMethodIds = Arrays.copyOf(filteredMethodIds, capacity);
+        microWatts = Arrays.copyOf(microWatts, capacity);
+    }
+}
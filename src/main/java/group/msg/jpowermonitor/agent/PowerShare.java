@@ -0,0 +1,21 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Share of the measured power attributed to the application, e.g. if the sensor measures the whole node or CPU package
+ * and other processes run on the same node. The share scales the power before it is split among the application threads.
+ */
+interface PowerShare {
+    /**
+     * Reads the CPU times once per measurement interval and calculates the share of the interval ended now.
+     * Only called by the attribution stage thread.
+     *
+     * @return share of the measured power attributed to the application, between <code>0</code> and <code>1</code>
+     */
+    double nextInterval();
+
+    /**
+     * Releases the resources of the share (e.g. open files), called when the measurement ends.
+     */
+    default void close() {
+    }
+}
@@ -1,189 +1,656 @@
 package group.msg.jpowermonitor.agent;
 
+import group.msg.jpowermonitor.JPowerMonitorException;
 import group.msg.jpowermonitor.dto.Activity;
 import group.msg.jpowermonitor.dto.DataPoint;
-import group.msg.jpowermonitor.dto.MethodActivity;
 import group.msg.jpowermonitor.dto.Quantity;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 
 import java.lang.management.ThreadMXBean;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static group.msg.jpowermonitor.agent.MeasurePower.getCurrentCpuPowerInWatts;
-import static group.msg.jpowermonitor.util.Constants.MATH_CONTEXT;
-import static group.msg.jpowermonitor.util.Constants.ONE_THOUSAND;
-
 /**
- * Thread for collecting power statistics.
+ * Collects the power statistics: samples the running threads and attributes the measured power to the sampled methods
+ * at the end of each measurement interval.<br>
+ * The work is split into stages, each running on its own daemon thread (see {@link #start(String, long, long)}):
+ * <ul>
+ *     <li>sampling: a {@link SamplingScheduler} samples the stacks into {@link SampleHistograms} and hands them over at the end of each interval</li>
+ *     <li>sensor: a {@link PowerSensorReader} reads the power sensor, each interval uses its latest reading</li>
+ *     <li>attribution: reads the CPU time per thread and attributes the energy of the interval to the sampled methods</li>
+ *     <li>export: appends the power per method to the CSV files through long-lived {@link BufferedCsvFileWriter}s, or to a binary {@link PowerSeriesWriter} file</li>
+ * </ul>
+ * The stages are connected by {@link DropOldestRingBuffer}s: a slow sensor, a slow attribution or a slow disk never delays the sampling,
+ * intervals or exports that cannot be processed in time are dropped and reported instead.
  */
-public class PowerStatistics extends TimerTask {
-    private static final String CLASS_METHOD_SEPARATOR = ".";
+public class PowerStatistics {
     /**
-     * Total energy consumption of application.
+     * Readings older than this number of measurement intervals are stale.
      */
-    @Getter
-    private final AtomicReference<DataPoint> energyConsumptionTotalInJoule =
-        new AtomicReference<>(new DataPoint("energyConsumptionTotalInJoule", BigDecimal.ZERO, Unit.JOULE, LocalDateTime.now(), null));
-    private final Map<String, Long> threadsCpuTime = new HashMap<>();
-    private final Map<String, DataPoint> energyConsumptionPerMethod = new ConcurrentHashMap<>();
+    private static final int MAX_POWER_READING_AGE_IN_INTERVALS = 3;
+    private static final int PENDING_INTERVALS = 4;
+    private static final int PENDING_EXPORTS = 16;
+    /**
+     * Number of interned methods per tracked method from which on method ids are recycled, see {@link #limitTrackedMethodsTo(int)}.
+     */
+    private static final int INTERNED_METHODS_PER_TRACKED_METHOD = 4;
+    private static final int MIN_INTERNED_METHODS = 4096;
+    /**
+     * Name of the energy of all methods not tracked, see {@link #getEnergyConsumptionOfHeavyHitters()}.
+     */
+    static final String OTHER_METHODS = "(other methods)";
+    /**
+     * Name of the energy not attributed to any method, see {@link #getEnergyConsumptionOfHeavyHitters()}.
+     */
+    static final String UNATTRIBUTED = "(unattributed)";
+    /**
+     * Total energy consumption of application in micro joules.
+     */
+    private final LongAdder energyConsumptionTotalInMicroJoules = new LongAdder();
+    /**
+     * Part of the total energy attributed to sampled methods in micro joules.
+     */
+    private final LongAdder attributedEnergyInMicroJoules = new LongAdder();
+    /**
+     * Energy of the methods no longer tracked in micro joules, see {@link HeavyHitters}: summed up when a method is replaced.
+     */
+    private final LongAdder otherMethodsEnergyInMicroJoules = new LongAdder();
+    private final ThreadCpuTimeRegistry threadsCpuTime = new ThreadCpuTimeRegistry();
+    /**
+     * Energy consumption per method id, see {@link MethodSymbolTable}. Limited to the heavy hitters if {@link #heavyHitters} is set.
+     */
+    private final Map<Integer, MethodEnergy> energyConsumptionPerMethod = new ConcurrentHashMap<>();
+    /**
+     * Tracked methods if their number is limited, <code>null</code> if unlimited. Updated by the attribution stage thread.
+     */
+    private HeavyHitters heavyHitters;
+    private final EnergyCsvCheckpoint energyCsvCheckpoint = new EnergyCsvCheckpoint();
+    /**
+     * Histograms of processed intervals, returned by the attribution stage for reuse by the sampling stage.
+     */
+    private final DropOldestRingBuffer<SampleHistograms> recycledHistograms = new DropOldestRingBuffer<>(PENDING_INTERVALS + 1);
+    private final PipelineStage<IntervalSamples> attributionStage = new PipelineStage<>("PowerAttribution-Thread", PENDING_INTERVALS, this::endInterval);
+    private final PipelineStage<IntervalActivities> exportStage = new PipelineStage<>("PowerExport-Thread", PENDING_EXPORTS, this::writePowerMeasurementsToCsvFiles);
+    /**
+     * Samples of the current interval per thread, only accessed by the scheduler thread.
+     */
+    private SampleHistograms sampleHistograms;
+    /**
+     * Inclusive energy per call path, <code>null</code> if disabled.
+     */
+    private final CallTree callTree;
     private final long measurementInterval;
     private final long gatherStatisticsInterval;
-    private final BigDecimal activityToEnergyRatio;
     /**
      * Process id.
      */
     @Getter
     private final long pid;
-    private final ThreadMXBean threadMXBean;
-    private static Set<String> packageFilter;
+    private final ThreadCpuTimeCollector threadCpuTimeCollector;
+    private final StackSampler stackSampler;
+    private final MethodSymbolTable methodSymbolTable;
+    private final PowerSensorReader powerSensorReader;
+    private SamplingScheduler samplingScheduler;
+    /**
+     * Long-lived writers of the power per method CSV files, only accessed by the export stage thread and on {@link #stop()}.
+     */
+    private ResultsWriter powerCsvResultsWriter;
+    private BufferedCsvFileWriter powerPerMethodCsv;
+    private BufferedCsvFileWriter powerPerFilteredMethodCsv;
+    /**
+     * Writer of the binary power per method file, replaces the power CSV files if set.
+     */
+    private PowerSeriesWriter powerSeriesWriter;
+    /**
+     * Persists the energy across JVM restarts, <code>null</code> if disabled. Written by the attribution stage thread.
+     */
+    private StateJournal stateJournal;
+    /**
+     * In-memory power series per method, <code>null</code> if disabled. Written by the attribution stage thread.
+     */
+    private MethodPowerHistory methodPowerHistory;
+    /**
+     * Rolling energy per method in time windows, <code>null</code> if disabled. Written by the attribution stage thread.
+     */
+    private EnergyWindows energyWindows;
+    /**
+     * Share of the measured power attributed to the application, <code>null</code> to attribute the full power. Read by the attribution stage thread.
+     */
+    private PowerShare powerShare;
+
+    /**
+     * Samples of one measurement interval, handed over from the sampling to the attribution stage.
+     */
+    @Getter
+    static class IntervalSamples {
+        /**
+         * Sequence number of the interval, see {@link MethodSymbolTable#closeInterval()}.
+         */
+        private final long interval;
+        private final SampleHistograms sampleHistograms;
+        /**
+         * Real elapsed time of the interval.
+         */
+        private final long intervalInNanos;
+        /**
+         * Number of samples taken in the interval.
+         */
+        private final int samples;
+        private final LocalDateTime end;
+
+        IntervalSamples(long interval, SampleHistograms sampleHistograms, long intervalInNanos, int samples, LocalDateTime end) {
+            this.interval = interval;
+            this.sampleHistograms = sampleHistograms;
+            this.intervalInNanos = intervalInNanos;
+            this.samples = samples;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Power per method and thread of one measurement interval, handed over from the attribution to the export stage.
+     */
+    @Getter
+    static class IntervalActivities {
+        /**
+         * Sequence number of the interval, see {@link MethodSymbolTable#closeInterval()}.
+         */
+        private final long interval;
+        private final List<Activity> activities;
+
+        IntervalActivities(long interval, List<Activity> activities) {
+            this.interval = interval;
+            this.activities = activities;
+        }
+    }
 
     public PowerStatistics(long measurementInterval, long gatherStatisticsInterval, long pid, ThreadMXBean threadMXBean, Set<String> packageFilter) {
+        this(measurementInterval, gatherStatisticsInterval, pid, new JmxThreadCpuTimeCollector(threadMXBean), new MethodSymbolTable(packageFilter));
+    }
+
+    private PowerStatistics(long measurementInterval, long gatherStatisticsInterval, long pid, ThreadCpuTimeCollector threadCpuTimeCollector, MethodSymbolTable methodSymbolTable) {
+        this(measurementInterval, gatherStatisticsInterval, pid, threadCpuTimeCollector, methodSymbolTable, new PerThreadStackSampler(methodSymbolTable), null);
+    }
+
+    PowerStatistics(long measurementInterval, long gatherStatisticsInterval, long pid, ThreadCpuTimeCollector threadCpuTimeCollector,
+                    MethodSymbolTable methodSymbolTable, StackSampler stackSampler, CallTree callTree) {
+        this(measurementInterval, gatherStatisticsInterval, pid, threadCpuTimeCollector, methodSymbolTable, stackSampler, callTree,
+            new PowerSensorReader(MeasurePower::getCurrentCpuPowerInWatts, measurementInterval, MAX_POWER_READING_AGE_IN_INTERVALS * measurementInterval, "PowerSensorReader-Thread"));
+    }
+
+    PowerStatistics(long measurementInterval, long gatherStatisticsInterval, long pid, ThreadCpuTimeCollector threadCpuTimeCollector,
+                    MethodSymbolTable methodSymbolTable, StackSampler stackSampler, CallTree callTree, PowerSensorReader powerSensorReader) {
         this.measurementInterval = measurementInterval;
         this.gatherStatisticsInterval = gatherStatisticsInterval;
-        this.activityToEnergyRatio = measurementInterval > 0 ?
-            new BigDecimal(this.gatherStatisticsInterval).divide(new BigDecimal(this.measurementInterval), MATH_CONTEXT) :
-            BigDecimal.ZERO;
         this.pid = pid;
-        this.threadMXBean = threadMXBean;
-        PowerStatistics.packageFilter = packageFilter;
-    }
-
-    @Override
-    public void run() {
-        Thread.currentThread().setName(PowerStatistics.class.getSimpleName() + " Thread");
-
-        Map<String, Set<MethodActivity>> methodActivityPerThread = new HashMap<>();
-        Set<Thread> threads = Thread.getAllStackTraces().keySet();
-
-        long duration = 0;
-        while (duration < measurementInterval) {
-            gatherMethodActivityPerThread(methodActivityPerThread, threads);
-            duration += gatherStatisticsInterval;
-            // Sleep for statisticsInterval, e. g. 10 ms
-            try {
-                TimeUnit.MILLISECONDS.sleep(gatherStatisticsInterval);
-            } catch (InterruptedException ex) {
-                System.err.println(ex.getLocalizedMessage());
-                ex.printStackTrace();
-            }
+        this.threadCpuTimeCollector = threadCpuTimeCollector;
+        this.stackSampler = stackSampler;
+        this.methodSymbolTable = methodSymbolTable;
+        this.callTree = callTree;
+        this.sampleHistograms = new SampleHistograms(callTree);
+        this.powerSensorReader = powerSensorReader;
+    }
+
+    /**
+     * Starts the stages on separate daemon threads.
+     *
+     * @param powerOutputFormat        format of the power per method output, <code>csv</code> or <code>binary</code> (see {@link PowerSeriesWriter})
+     * @param powerCsvFlushIntervalInS maximum time a row of the power CSV files is buffered, <code>0</code> to write each interval
+     * @param powerCsvFsyncIntervalInS interval to sync the power CSV files to the storage device, <code>0</code> to leave it to the operating system
+     */
+    void start(String powerOutputFormat, long powerCsvFlushIntervalInS, long powerCsvFsyncIntervalInS) {
+        powerCsvResultsWriter = new ResultsWriter(this, false, BigDecimal.ZERO);
+        long flushIntervalInMs = TimeUnit.SECONDS.toMillis(powerCsvFlushIntervalInS);
+        long fsyncIntervalInMs = TimeUnit.SECONDS.toMillis(powerCsvFsyncIntervalInS);
+        if ("binary".equals(powerOutputFormat)) {
+            powerSeriesWriter = new PowerSeriesWriter(Paths.get(powerCsvResultsWriter.getPowerSeriesFileName()), flushIntervalInMs, fsyncIntervalInMs);
+        } else if ("csv".equals(powerOutputFormat)) {
+            powerPerMethodCsv = new BufferedCsvFileWriter(Paths.get(powerCsvResultsWriter.getPowerConsumptionPerMethodFileName()),
+                BufferedCsvFileWriter.DEFAULT_BUFFER_SIZE, flushIntervalInMs, fsyncIntervalInMs);
+            powerPerFilteredMethodCsv = new BufferedCsvFileWriter(Paths.get(powerCsvResultsWriter.getPowerConsumptionPerFilteredMethodFileName()),
+                BufferedCsvFileWriter.DEFAULT_BUFFER_SIZE, flushIntervalInMs, fsyncIntervalInMs);
+        } else {
+            throw new JPowerMonitorException("Unknown power output format " + powerOutputFormat);
         }
+        exportStage.start();
+        attributionStage.start();
+        powerSensorReader.start();
+        stackSampler.start();
+        samplingScheduler = new SamplingScheduler(measurementInterval, gatherStatisticsInterval, this::sample, this::handOverInterval, "PowerStatistics-Thread");
+        samplingScheduler.start();
+    }
 
-        // Adds current power to total energy consumption of application
-        // It's fine to treat power and energy as equal here because power is measured each second (1 joule = 1 watt / second)
-        //TODO proper conversion
-        DataPoint currentPower = getCurrentCpuPowerInWatts();
-        DataPoint currentEnergy = cloneDataPointWithNewUnit(currentPower, Unit.JOULE);
-        energyConsumptionTotalInJoule.getAndAccumulate(currentEnergy, this::addDataPoint);
+    /**
+     * Stops all stages in pipeline order and waits for each of them, the current interval is discarded.
+     * Pending intervals are still attributed and exported, afterwards the power CSV files are flushed and closed
+     * and the resources of the sampling are released.
+     */
+    void stop() {
+        if (samplingScheduler != null) {
+            samplingScheduler.stop();
+        }
+        powerSensorReader.stop();
+        attributionStage.stop();
+        exportStage.stop();
+        if (powerPerMethodCsv != null) {
+            powerPerMethodCsv.close();
+            powerPerFilteredMethodCsv.close();
+        }
+        if (powerSeriesWriter != null) {
+            powerSeriesWriter.close();
+        }
+        if (stateJournal != null) {
+            stateJournal.close();
+        }
+        if (powerShare != null) {
+            powerShare.close();
+        }
+        if (threadCpuTimeCollector != null) {
+            threadCpuTimeCollector.close();
+        }
+        stackSampler.close();
+    }
 
-        // CPU time for each thread
-        long totalApplicationCpuTime = CpuAndThreadUtils.getTotalApplicationCpuTimeAndCalculateCpuTimePerApplicationThread(threadMXBean, threadsCpuTime, threads);
-        Map<String, BigDecimal> powerPerThread = CpuAndThreadUtils.calculatePowerPerApplicationThread(threadsCpuTime, currentPower, totalApplicationCpuTime);
+    private void sample() {
+        stackSampler.sample(sampleHistograms);
+    }
 
-        // Now we have power for each thread, and stats for methods in each thread
-        // We allocated power to each method based on activity
-        allocateEnergyUsageToActivity(methodActivityPerThread, powerPerThread);
+    /**
+     * Hands over the samples of the interval to the attribution stage and continues with recycled histograms. Runs on the scheduler thread.
+     *
+     * @param intervalInNanos real elapsed time of the interval
+     * @param samples         number of samples taken in the interval
+     */
+    private void handOverInterval(long intervalInNanos, int samples) {
+        attributionStage.offer(new IntervalSamples(methodSymbolTable.closeInterval(), sampleHistograms, intervalInNanos, samples, LocalDateTime.now()));
+        SampleHistograms recycled = recycledHistograms.poll();
+        sampleHistograms = recycled != null ? recycled : new SampleHistograms(callTree);
+    }
+
+    /**
+     * Attributes the energy consumed in the interval to the sampled methods. Runs on the attribution stage thread.
+     *
+     * @param interval samples of the interval
+     */
+    void endInterval(IntervalSamples interval) {
+        SampleHistograms histograms = interval.getSampleHistograms();
+        List<Activity> activities;
+        try {
+            activities = attributeInterval(histograms, interval.getIntervalInNanos(), interval.getSamples(), interval.getEnd());
+        } finally {
+            histograms.clear();
+            recycledHistograms.offer(histograms);
+        }
+        long endInMillis = interval.getEnd().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (methodPowerHistory != null) {
+            methodPowerHistory.endInterval(endInMillis);
+        }
+        if (energyWindows != null) {
+            energyWindows.endInterval(endInMillis);
+        }
+        if (stateJournal != null) {
+            stateJournal.endInterval();
+            if (stateJournal.isSnapshotDue(System.nanoTime())) {
+                stateJournal.snapshot(energyConsumptionTotalInMicroJoules.sum(), otherMethodsEnergyInMicroJoules.sum(), energyConsumptionPerMethod, methodSymbolTable);
+            }
+        }
+        // handed over each interval, even if empty, so the export stage can flush on time
+        exportStage.offer(new IntervalActivities(interval.getInterval(), activities));
+    }
+
+    private List<Activity> attributeInterval(SampleHistograms histograms, long intervalInNanos, int samples, LocalDateTime end) {
+        // CPU time for each thread, read every interval to keep the differences per interval.
+        // It is read when the interval is processed, which is right after the interval's end unless the attribution falls behind.
+        long totalApplicationCpuTime = CpuAndThreadUtils.getTotalApplicationCpuTimeAndCalculateCpuTimePerApplicationThread(threadCpuTimeCollector, threadsCpuTime);
+        // Share of the application in the measured power, read every interval (even without a power reading) to keep the differences per interval.
+        double applicationShare = powerShare != null ? powerShare.nextInterval() : 1.0;
+
+        // Latest power reading, never waits for the sensor. No energy is attributed until the sensor has been read once.
+        PowerSensorReader.PowerReading powerReading = powerSensorReader.getLatestReading(System.nanoTime());
+        if (powerReading == null) {
+            return List.of();
+        }
+        // Adds current energy (power over the real interval length) to total energy consumption of application
+        double currentPowerInWatts = powerReading.getPowerInWatts() * applicationShare;
+        long energyInMicroJoules = MicroJoules.of(currentPowerInWatts, intervalInNanos);
+        energyConsumptionTotalInMicroJoules.add(energyInMicroJoules);
+        if (stateJournal != null) {
+            stateJournal.beginInterval(System.currentTimeMillis(), energyInMicroJoules);
+        }
 
-        writePowerMeasurementsToCsvFiles(methodActivityPerThread);
+        // Now we have CPU time for each thread, and stats for methods in each thread
+        // We allocated power to each method based on activity
+        if (samples == 0) {
+            return List.of();
+        }
+        return allocateEnergyUsageToActivity(histograms, currentPowerInWatts, totalApplicationCpuTime, intervalInNanos, samples, end);
     }
 
-    private static void gatherMethodActivityPerThread(Map<String, Set<MethodActivity>> methodActivityPerThread, Set<Thread> threads) {
-        for (Thread thread : threads) {
-            // Only consider threads that are currently running (not waiting or blocked)
-            if (Thread.State.RUNNABLE == thread.getState()) {
-                StackTraceElement[] stackTrace = thread.getStackTrace();
-                if (stackTrace.length == 0) {
-                    continue;
+    /**
+     * Each sample represents the same share of the interval, i.e. <code>1 / samples</code> of the thread's power and energy.
+     * A method sampled <code>n</code> times in a thread gets <code>n / samples</code> of the thread's power and energy.
+     * If the stack sampler delivers its samples in batches (see {@link StackSampler#isSynchronous()}), a thread may hold more samples
+     * than were taken in the interval. The thread's power is split by its own number of samples then, so the methods of a thread
+     * never get more than the thread's power.
+     *
+     * @return one activity per sampled method and thread for the power CSV files
+     */
+    private List<Activity> allocateEnergyUsageToActivity(SampleHistograms histograms, double currentPowerInWatts, long totalApplicationCpuTime,
+                                                         long intervalInNanos, int samples, LocalDateTime now) {
+        List<Activity> activities = new ArrayList<>();
+        histograms.forEach((threadId, histogram) -> {
+            // the thread may have terminated before its CPU time was read, its CPU time is 0 then
+            double threadPower = CpuAndThreadUtils.calculatePowerOfApplicationThread(
+                threadsCpuTime.getCpuTimeInInterval(threadId), totalApplicationCpuTime, currentPowerInWatts);
+            double powerPerSample = threadPower / (stackSampler.isSynchronous() ? samples : histogram.getSamples());
+            if (MicroJoules.of(powerPerSample, intervalInNanos) <= 0) {
+                return;
+            }
+
+            histogram.forEach((methodId, filteredMethodId, count) -> {
+                double methodPower = powerPerSample * count;
+                MethodEnergy methodEnergy = appendEnergyUsage(methodId, histogram.getThreadName(), MicroJoules.of(methodPower, intervalInNanos));
+                if (methodPowerHistory != null) {
+                    methodPowerHistory.add(methodEnergy.getSlot(methodId), methodId, methodPower);
                 }
+                SampledMethodActivity activity = new SampledMethodActivity(methodSymbolTable, histogram.getThreadName(), now, methodId, filteredMethodId);
+                activity.setPowerInWatts(methodPower);
+                activities.add(activity);
+            });
+            if (callTree != null) {
+                histogram.forEachCallTreeNode((node, count) -> callTree.addSelfEnergy(node, MicroJoules.of(powerPerSample * count, intervalInNanos)));
+            }
+        });
+        return activities;
+    }
 
-                String threadName = thread.getName();
-                methodActivityPerThread.putIfAbsent(threadName, new HashSet<>());
-                MethodActivity activity = new MethodActivity();
-                activity.setThreadName(threadName);
-                activity.setTime(LocalDateTime.now());
-
-                Arrays.stream(stackTrace)
-                    .findFirst()
-                    .map(PowerStatistics::getFullQualifiedMethodName)
-                    .ifPresent(activity::setMethodQualifier);
-                Arrays.stream(stackTrace)
-                    .map(PowerStatistics::getFullQualifiedMethodName)
-                    .filter(PowerStatistics::isMethodInFilterList)
-                    .findFirst()
-                    .ifPresent(activity::setFilteredMethodQualifier);
-
-                methodActivityPerThread.get(threadName).add(activity);
+    private MethodEnergy appendEnergyUsage(int methodId, String threadName, long energyInMicroJoules) {
+        MethodEnergy methodEnergy = energyConsumptionPerMethod.get(methodId);
+        if (methodEnergy == null) {
+            methodEnergy = heavyHitters != null ? admitHeavyHitter(methodId, new MethodEnergy(threadName, heavyHitters.getErrorOfNextMethod()))
+                : energyConsumptionPerMethod.computeIfAbsent(methodId, id -> new MethodEnergy(threadName));
+        }
+        methodEnergy.add(energyInMicroJoules);
+        attributedEnergyInMicroJoules.add(energyInMicroJoules);
+        if (heavyHitters != null) {
+            heavyHitters.increased(methodEnergy);
+        }
+        energyCsvCheckpoint.markDirty(methodId, methodEnergy);
+        if (energyWindows != null) {
+            energyWindows.add(methodEnergy.getSlot(methodId), methodId, energyInMicroJoules);
+        }
+        if (stateJournal != null) {
+            stateJournal.addMethodEnergy(methodId, methodSymbolTable, methodEnergy.getThreadName(), energyInMicroJoules);
+        }
+        return methodEnergy;
+    }
+
+    private MethodEnergy admitHeavyHitter(int methodId, MethodEnergy methodEnergy) {
+        int replacedMethodId = heavyHitters.admit(methodId, methodEnergy); // assigns the slot before the method energy is published
+        energyConsumptionPerMethod.put(methodId, methodEnergy);
+        methodSymbolTable.pin(methodId);
+        if (replacedMethodId != MethodSymbolTable.NO_METHOD) {
+            // the energy of the replaced method is part of the other methods from now on
+            MethodEnergy replaced = energyConsumptionPerMethod.remove(replacedMethodId);
+            otherMethodsEnergyInMicroJoules.add(replaced.getMicroJoules());
+            energyCsvCheckpoint.markRemoved(replacedMethodId, replaced);
+            // the new method takes over the slot, the state of the replaced method is dropped before its id may be recycled
+            if (energyWindows != null) {
+                energyWindows.remove(methodEnergy.trackedSlot);
             }
+            if (methodPowerHistory != null) {
+                methodPowerHistory.remove(methodEnergy.trackedSlot);
+            }
+            if (stateJournal != null) {
+                stateJournal.forget(replacedMethodId);
+            }
+            methodSymbolTable.unpin(replacedMethodId);
         }
+        return methodEnergy;
     }
 
-    @NotNull
-    private static String getFullQualifiedMethodName(StackTraceElement ste) {
-        return ste.getClassName() + CLASS_METHOD_SEPARATOR + ste.getMethodName();
+    /**
+     * Limits the number of methods whose energy is tracked, see {@link HeavyHitters}. The method ids are recycled from
+     * {@value #INTERNED_METHODS_PER_TRACKED_METHOD} interned methods per tracked method on (at least {@value #MIN_INTERNED_METHODS}),
+     * see {@link MethodSymbolTable}, so the memory needed per method is bounded as well. Must be called before
+     * {@link #restoreAndJournalTo(StateJournal)} and {@link #start(String, long, long)}.
+     *
+     * @param maxTrackedMethods maximum number of tracked methods
+     */
+    void limitTrackedMethodsTo(int maxTrackedMethods) {
+        this.heavyHitters = new HeavyHitters(maxTrackedMethods);
+        methodSymbolTable.recycleIdsFrom(Math.max(MIN_INTERNED_METHODS, INTERNED_METHODS_PER_TRACKED_METHOD * maxTrackedMethods), callTree);
     }
 
-    private static boolean isMethodInFilterList(String method) {
-        return packageFilter.stream()
-            .anyMatch(method::startsWith);
+    /**
+     * Restores the energy of previous runs from the state journal and journals all further energy to it. Must be called before {@link #start(String, long, long)}.
+     *
+     * @param journal state journal
+     */
+    void restoreAndJournalTo(StateJournal journal) {
+        StateJournal.State state = journal.replay();
+        energyConsumptionTotalInMicroJoules.add(state.totalMicroJoules);
+        Collection<StateJournal.MethodState> methods = state.methods.values();
+        long restoredMethodsMicroJoules = methods.stream().mapToLong(method -> method.microJoules).sum();
+        attributedEnergyInMicroJoules.add(restoredMethodsMicroJoules + state.otherMethodsMicroJoules);
+        otherMethodsEnergyInMicroJoules.add(state.otherMethodsMicroJoules);
+        if (heavyHitters != null) {
+            // only the methods with the highest energy are restored, the energy of the others is part of the other methods
+            methods = methods.stream().sorted(Comparator.comparingLong((StateJournal.MethodState method) -> method.microJoules).reversed())
+                .limit(heavyHitters.getCapacity()).collect(Collectors.toList());
+            otherMethodsEnergyInMicroJoules.add(restoredMethodsMicroJoules - methods.stream().mapToLong(method -> method.microJoules).sum());
+        }
+        for (StateJournal.MethodState method : methods) {
+            int methodId = methodSymbolTable.internQualifiedName(method.name);
+            MethodEnergy methodEnergy = energyConsumptionPerMethod.get(methodId);
+            if (methodEnergy == null) {
+                methodEnergy = heavyHitters != null ? admitHeavyHitter(methodId, new MethodEnergy(method.threadName))
+                    : energyConsumptionPerMethod.computeIfAbsent(methodId, id -> new MethodEnergy(method.threadName));
+            }
+            methodEnergy.restore(method.microJoules, method.lastUpdateInMillis);
+            if (heavyHitters != null) {
+                heavyHitters.increased(methodEnergy);
+            }
+            energyCsvCheckpoint.markDirty(methodId, methodEnergy);
+        }
+        if (!state.methods.isEmpty() || state.totalMicroJoules != 0) {
+            System.out.println("Restored " + MicroJoules.toJoules(state.totalMicroJoules) + " J of " + state.methods.size() + " methods from previous runs");
+        }
+        // the restored state is the new base, the journal continues with the method ids of this run
+        journal.snapshot(energyConsumptionTotalInMicroJoules.sum(), otherMethodsEnergyInMicroJoules.sum(), energyConsumptionPerMethod, methodSymbolTable);
+        this.stateJournal = journal;
     }
 
-    private void allocateEnergyUsageToActivity(Map<String, Set<MethodActivity>> methodActivityPerThread, Map<String, BigDecimal> powerPerApplicationThread) {
-        for (Map.Entry<String, Set<MethodActivity>> entry : methodActivityPerThread.entrySet()) {
-            String threadName = entry.getKey();
+    /**
+     * Records the power per method of each interval in memory. Must be called before {@link #start(String, long, long)}.
+     *
+     * @param history power history per method
+     */
+    void recordPowerHistoryIn(MethodPowerHistory history) {
+        this.methodPowerHistory = history;
+    }
 
-            for (MethodActivity activity : entry.getValue()) {
-                Quantity methodPower = Quantity.of(powerPerApplicationThread.get(threadName).multiply(activityToEnergyRatio, MATH_CONTEXT), Unit.WATT);
-                Quantity methodEnergy = Quantity.of(
-                    methodPower.getValue().multiply(BigDecimal.valueOf(measurementInterval), MATH_CONTEXT).divide(ONE_THOUSAND, MATH_CONTEXT),
-                    Unit.JOULE
-                );
+    /**
+     * Decodes the in-memory power history, see {@link #recordPowerHistoryIn(MethodPowerHistory)}. The thread name of a point is the thread
+     * the method was sampled in first, the points of downsampled blocks hold the mean power of several intervals.
+     *
+     * @param consumer consumer of the power per method and interval
+     * @return <code>false</code> if the power history is not recorded
+     */
+    boolean forEachPowerHistoryPoint(Consumer<DataPoint> consumer) {
+        if (methodPowerHistory == null) {
+            return false;
+        }
+        methodPowerHistory.forEach((methodId, timeInMillis, powerInWatts, resolution) -> {
+            MethodEnergy methodEnergy = energyConsumptionPerMethod.get(methodId);
+            consumer.accept(new DataPoint(methodSymbolTable.getQualifiedName(methodId), BigDecimal.valueOf(powerInWatts), Unit.WATT,
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(timeInMillis), ZoneId.systemDefault()), methodEnergy != null ? methodEnergy.getThreadName() : null));
+        });
+        return true;
+    }
 
-                if (methodEnergy.getValue().signum() > 0) {
-                    activity.setRepresentedQuantity(methodEnergy);
-                    appendEnergyUsage(activity);
-                    activity.setRepresentedQuantity(methodPower);
-                }
+    /**
+     * Attributes only a share of the measured power to the application, e.g. by its share of the CPU time of the node.
+     * Must be called before {@link #start(String, long, long)}.
+     *
+     * @param share share of the measured power attributed to the application
+     */
+    void apportionPowerWith(PowerShare share) {
+        this.powerShare = share;
+    }
+
+    /**
+     * Aggregates the energy per method in rolling time windows. Must be called before {@link #start(String, long, long)}.
+     *
+     * @param windows rolling time windows
+     */
+    void aggregateEnergyIn(EnergyWindows windows) {
+        this.energyWindows = windows;
+    }
+
+    /**
+     * @return lengths of the rolling time windows in seconds, empty if disabled
+     */
+    public long[] getEnergyWindowsInS() {
+        return energyWindows != null ? Arrays.stream(energyWindows.getWindowsInMillis()).map(TimeUnit.MILLISECONDS::toSeconds).toArray() : new long[0];
+    }
+
+    /**
+     * Returns the methods with the highest energy consumption in a rolling time window, e.g. the last 5 minutes.
+     * The rolling sums are kept ranked, the query costs <code>O(topK)</code>.
+     *
+     * @param windowInS length of the window in seconds, see {@link #getEnergyWindowsInS()}
+     * @param topK      maximum number of methods
+     * @return energy consumption of the top methods in the window, highest first
+     * @throws IllegalArgumentException if no window of this length is aggregated
+     */
+    public List<DataPoint> getTopEnergyConsumptionPerMethod(long windowInS, int topK) {
+        long[] windowsInS = getEnergyWindowsInS();
+        for (int window = 0; window < windowsInS.length; window++) {
+            if (windowsInS[window] == windowInS) {
+                LocalDateTime now = LocalDateTime.now();
+                return energyWindows.getTopMethods(window, topK).stream()
+                    .map(method -> new DataPoint(methodSymbolTable.getQualifiedName(method.methodId), MicroJoules.toJoules(method.microJoules), Unit.JOULE, now, ""))
+                    .collect(Collectors.toList());
             }
         }
+        throw new IllegalArgumentException("No energy window of " + windowInS + " s aggregated, windows are " + Arrays.toString(windowsInS));
     }
 
-    private void appendEnergyUsage(MethodActivity activity) {
-        if (!activity.isFinalized()) {
-            return;
+    private void writePowerMeasurementsToCsvFiles(IntervalActivities interval) {
+        try {
+            if (powerSeriesWriter != null) {
+                powerSeriesWriter.append(interval.getActivities());
+                powerSeriesWriter.flushIfDue(System.nanoTime());
+                return;
+            }
+            powerCsvResultsWriter.appendPowerConsumptionPerMethod(interval.getActivities(), powerPerMethodCsv, powerPerFilteredMethodCsv);
+            long now = System.nanoTime();
+            powerPerMethodCsv.flushIfDue(now);
+            powerPerFilteredMethodCsv.flushIfDue(now);
+        } finally {
+            // the activities resolve their method names when written, afterwards the ids of the interval may be recycled
+            methodSymbolTable.releaseIntervalsUpTo(interval.getInterval());
         }
+    }
 
-        energyConsumptionPerMethod.merge(
-            activity.getIdentifier(false),
-            getDataPointFrom(activity, false),
-            this::addDataPoint
-        );
+    /**
+     * @return snapshot of the call tree energy profile, <code>null</code> if the call tree is disabled
+     */
+    CallTree.Snapshot getCallTreeSnapshot() {
+        return callTree != null ? callTree.snapshot() : null;
     }
 
-    private void writePowerMeasurementsToCsvFiles(Map<String, Set<MethodActivity>> methodActivityPerThread) {
-        new ResultsWriter(this, false, BigDecimal.ZERO).createUnfilteredAndFilteredPowerConsumptionPerMethodCsvAndWriteToFiles(
-            methodActivityPerThread.values().stream()
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList())
-        );
+    /**
+     * @return method names of the call tree
+     */
+    MethodSymbolTable getMethodSymbolTable() {
+        return methodSymbolTable;
+    }
+
+    /**
+     * @return snapshot of the total energy consumption of the application
+     */
+    public DataPoint getEnergyConsumptionTotalInJoule() {
+        return new DataPoint("energyConsumptionTotalInJoule", MicroJoules.toJoules(energyConsumptionTotalInMicroJoules.sum()), Unit.JOULE, LocalDateTime.now(), null);
     }
 
+    /**
+     * Writes a checkpoint of the energy per method CSV files. Only the rows of the methods changed since the last checkpoint are created,
+     * the files are replaced atomically.
+     *
+     * @param csvEntryForDataPoint        creates the CSV row of a method's energy
+     * @param carbonDioxideEmissionFactor factor used by the CSV rows
+     * @param file                        file for all methods
+     * @param filteredFile                file for the methods matching the package filter
+     */
+    void writeEnergyConsumptionPerMethodCheckpoint(Function<DataPoint, String> csvEntryForDataPoint, BigDecimal carbonDioxideEmissionFactor, Path file, Path filteredFile) {
+        energyCsvCheckpoint.write(energyConsumptionPerMethod, methodSymbolTable, csvEntryForDataPoint, carbonDioxideEmissionFactor, file, filteredFile);
+    }
+
+    /**
+     * @param asFiltered if only methods matching the package filter should be returned
+     * @return snapshot of the energy consumption per method
+     */
     public Map<String, DataPoint> getEnergyConsumptionPerMethod(boolean asFiltered) {
         return energyConsumptionPerMethod.entrySet().stream()
-            .filter(e -> asFiltered ? isMethodInFilterList(e.getKey()) : e.getKey() != null)
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+            .filter(e -> !asFiltered || methodSymbolTable.isFiltered(e.getKey()))
+            .collect(Collectors.toMap(e -> methodSymbolTable.getQualifiedName(e.getKey()), e -> e.getValue().toDataPoint(methodSymbolTable.getQualifiedName(e.getKey()))));
+    }
+
+    /**
+     * Energy of the tracked methods with error bounds if the number of tracked methods is limited, see {@link #limitTrackedMethodsTo(int)}.
+     * The value of a tracked method is the energy measured since it was admitted, its true energy is at most the maximum energy.
+     * It is followed by two entries:
+     * <ul>
+     *     <li>{@value #OTHER_METHODS}: the energy of the methods replaced by the Space-Saving algorithm, summed up when they were replaced
+     *     (including the energy of tracked methods replaced before they were admitted again), thus also its maximum energy</li>
+     *     <li>{@value #UNATTRIBUTED}: the energy not attributed to any sampled method, e.g. consumed while no application thread was sampled
+     *     or by threads without samples in an interval</li>
+     * </ul>
+     * The energy of the tracked methods, the other methods and the unattributed energy add up to the total energy.
+     *
+     * @return energy and maximum energy in joules of the tracked methods, highest energy first, of the other methods and the unattributed energy;
+     * empty if the number of tracked methods is unlimited
+     */
+    List<Map.Entry<DataPoint, BigDecimal>> getEnergyConsumptionOfHeavyHitters() {
+        if (heavyHitters == null) {
+            return List.of();
+        }
+        List<Map.Entry<DataPoint, BigDecimal>> methods = new ArrayList<>();
+        for (Map.Entry<Integer, MethodEnergy> entry : energyConsumptionPerMethod.entrySet()) {
+            MethodEnergy methodEnergy = entry.getValue();
+            DataPoint energy = methodEnergy.toDataPoint(methodSymbolTable.getQualifiedName(entry.getKey()));
+            methods.add(new AbstractMap.SimpleImmutableEntry<>(energy, energy.getValue().add(MicroJoules.toJoules(methodEnergy.getErrorInMicroJoules()))));
+        }
+        methods.sort(Comparator.comparing((Map.Entry<DataPoint, BigDecimal> method) -> method.getKey().getValue()).reversed());
+        LocalDateTime now = LocalDateTime.now();
+        BigDecimal other = MicroJoules.toJoules(otherMethodsEnergyInMicroJoules.sum());
+        methods.add(new AbstractMap.SimpleImmutableEntry<>(new DataPoint(OTHER_METHODS, other, Unit.JOULE, now, ""), other));
+        BigDecimal unattributed = MicroJoules.toJoules(Math.max(0L, energyConsumptionTotalInMicroJoules.sum() - attributedEnergyInMicroJoules.sum()));
+        methods.add(new AbstractMap.SimpleImmutableEntry<>(new DataPoint(UNATTRIBUTED, unattributed, Unit.JOULE, now, ""), unattributed));
+        return methods;
     }
 
     /**
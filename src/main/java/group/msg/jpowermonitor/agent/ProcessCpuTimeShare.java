@@ -0,0 +1,79 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.util.ProcStatReader;
+
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+/**
+ * Attributes the share of the power to the application that the CPU time of this process has of the busy CPU time of all processes
+ * on the node in the same interval. The process CPU time is read with {@link com.sun.management.OperatingSystemMXBean#getProcessCpuTime()},
+ * the busy CPU time of the node from <code>/proc/stat</code> (Linux only).
+ * <br><br>
+ * Both are read once per interval, the power of idle CPUs is attributed to the processes by their share as well.
+ * If the CPU times cannot be read, the share of the previous interval is kept.
+ */
+class ProcessCpuTimeShare implements PowerShare {
+    private final LongSupplier processCpuTimeInNanos;
+    private final ProcStatReader procStat;
+    private long lastProcessCpuTime;
+    private long lastBusyTicks;
+    private double share = 1.0;
+
+    /**
+     * @param processCpuTimeInNanos CPU time of this process in nanoseconds
+     * @param procStat              reader of the CPU times of the node, closed with this share
+     * @throws IOException if the CPU times of the node cannot be read, the reader is closed then
+     */
+    ProcessCpuTimeShare(LongSupplier processCpuTimeInNanos, ProcStatReader procStat) throws IOException {
+        this.processCpuTimeInNanos = processCpuTimeInNanos;
+        this.procStat = procStat;
+        try {
+            procStat.read();
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+        this.lastProcessCpuTime = processCpuTimeInNanos.getAsLong();
+        this.lastBusyTicks = procStat.getBusyTicks();
+    }
+
+    @Override
+    public double nextInterval() {
+        long processCpuTime = processCpuTimeInNanos.getAsLong();
+        try {
+            procStat.read();
+        } catch (IOException ex) {
+            return share;
+        }
+        long busyTicks = procStat.getBusyTicks();
+        share = calculateShare(processCpuTime - lastProcessCpuTime, (busyTicks - lastBusyTicks) * ProcStatReader.NANOS_PER_TICK);
+        lastProcessCpuTime = processCpuTime;
+        lastBusyTicks = busyTicks;
+        return share;
+    }
+
+    /**
+     * Closes <code>/proc/stat</code>, further intervals keep the share of the last interval.
+     */
+    @Override
+    public void close() {
+        try {
+            procStat.close();
+        } catch (IOException ex) {
+            System.err.println("Unable to close " + ProcStatReader.PROC_STAT + ": " + ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * The CPU time of the node is counted in clock ticks, the application CPU time may thus exceed it slightly.
+     *
+     * @return share of the application CPU time in the CPU time of the node, <code>0</code> if neither consumed CPU time
+     */
+    static double calculateShare(long applicationCpuTimeInNanos, long nodeCpuTimeInNanos) {
+        if (nodeCpuTimeInNanos <= 0L) {
+            return applicationCpuTimeInNanos > 0L ? 1.0 : 0.0;
+        }
+        return Math.max(0.0, Math.min(1.0, (double) applicationCpuTimeInNanos / nodeCpuTimeInNanos));
+    }
+}
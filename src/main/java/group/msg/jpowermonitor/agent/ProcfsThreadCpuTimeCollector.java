@@ -0,0 +1,229 @@
+package group.msg.jpowermonitor.agent;
+
+import java.io.IOException;
+import java.lang.management.ThreadInfo;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the CPU time of all threads from <code>/proc/self/task/&lt;tid&gt;/schedstat</code> (Linux only) in one pass over the task directory.
+ * The first value in <code>schedstat</code> is the time the task spent on the CPU in nanoseconds, the same clock
+ * {@link java.lang.management.ThreadMXBean#getThreadCpuTime(long)} uses.
+ * <br><br>
+ * Each <code>schedstat</code> file is opened once per task and re-read with a positional read into a reused buffer, procfs regenerates
+ * the content on each read. The file is closed when the task has terminated or by {@link #close()}.
+ * <br><br>
+ * The JVM does not expose the mapping of native task ids to Java thread ids. The mapping is resolved once for each new task by comparing
+ * the native thread name (<code>comm</code>, set by the JVM at thread start and truncated to 15 bytes) with the Java thread names.
+ * A task is only mapped if no other unmapped task and no other unmapped Java thread has the same native name, including tasks given up on.
+ * Java threads without a unique match (e.g. threads renamed after start or with ambiguous truncated names) are read with
+ * {@link BulkJmxThreadCpuTimeCollector} instead, the name is never guessed.
+ */
+class ProcfsThreadCpuTimeCollector implements ThreadCpuTimeCollector {
+    static final Path PROC_SELF_TASK = Paths.get("/proc/self/task");
+    private static final int NATIVE_THREAD_NAME_MAX_BYTES = 15;
+    private static final int MAX_RESOLVE_ATTEMPTS = 3;
+    private final Path taskDirectory;
+    private final com.sun.management.ThreadMXBean threadMxBean;
+    private final BulkJmxThreadCpuTimeCollector fallbackCollector;
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final Map<Long, Task> tasksPerThreadId = new HashMap<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(128);
+    private int interval;
+
+    /**
+     * Constructor
+     *
+     * @param taskDirectory task directory of the process, normally {@link #PROC_SELF_TASK}
+     * @param threadMxBean  bean to read the Java thread names and the CPU time of unmapped threads with
+     */
+    ProcfsThreadCpuTimeCollector(Path taskDirectory, com.sun.management.ThreadMXBean threadMxBean) {
+        this.taskDirectory = taskDirectory;
+        this.threadMxBean = threadMxBean;
+        this.fallbackCollector = new BulkJmxThreadCpuTimeCollector(threadMxBean);
+    }
+
+    /**
+     * @return <code>true</code> if the task directory of the current process is readable, thus running on Linux
+     */
+    static boolean isAvailable() {
+        return Files.isDirectory(PROC_SELF_TASK) && Files.isReadable(PROC_SELF_TASK);
+    }
+
+    @Override
+    public long collect(ThreadCpuTimeRegistry cpuTimePerApplicationThread) {
+        String[] taskIds = taskDirectory.toFile().list();
+        if (taskIds == null) {
+            return fallbackCollector.collect(cpuTimePerApplicationThread);
+        }
+        long[] threadIds = threadMxBean.getAllThreadIds();
+        updateTasks(taskIds);
+        resolveThreadIds(threadIds);
+
+        long totalApplicationCpuTime = 0;
+        int unmappedCount = 0;
+        for (long threadId : threadIds) {
+            Task task = tasksPerThreadId.get(threadId);
+            long cpuTime = task != null ? readCpuTime(task) : -1L;
+            if (cpuTime >= 0) {
+                totalApplicationCpuTime += cpuTimePerApplicationThread.update(threadId, cpuTime);
+            } else {
+                threadIds[unmappedCount++] = threadId; // reuse the array for the threads to read via JMX
+            }
+        }
+        if (unmappedCount > 0) {
+            totalApplicationCpuTime += fallbackCollector.collect(cpuTimePerApplicationThread, Arrays.copyOf(threadIds, unmappedCount));
+        }
+        return totalApplicationCpuTime;
+    }
+
+    private void updateTasks(String[] taskIds) {
+        interval++;
+        for (String taskId : taskIds) {
+            tasks.computeIfAbsent(taskId, id -> new Task(taskDirectory.resolve(id))).lastSeenInInterval = interval;
+        }
+        for (Iterator<Task> it = tasks.values().iterator(); it.hasNext(); ) {
+            Task task = it.next();
+            if (task.lastSeenInInterval != interval) { // task has terminated
+                it.remove();
+                forget(task);
+            }
+        }
+    }
+
+    private void forget(Task task) {
+        if (task.threadId != 0L) {
+            tasksPerThreadId.remove(task.threadId);
+        }
+        task.closeSchedstat();
+    }
+
+    private void resolveThreadIds(long[] threadIds) {
+        Map<String, List<Task>> tasksPerNativeName = new HashMap<>();
+        boolean anyNameRead = false;
+        for (Task task : tasks.values()) {
+            if (task.threadId != 0L) {
+                continue;
+            }
+            if (task.resolveAttempts < MAX_RESOLVE_ATTEMPTS) {
+                task.resolveAttempts++;
+                task.nativeName = readNativeThreadName(task); // re-read, a thread may rename itself after start
+                task.nameReadInInterval = interval;
+                anyNameRead = true;
+            }
+            if (task.nativeName != null) {
+                // tasks given up on count as well, so a Java thread is never mapped to one of several tasks with its name
+                tasksPerNativeName.computeIfAbsent(task.nativeName, name -> new ArrayList<>()).add(task);
+            }
+        }
+        if (!anyNameRead) {
+            return;
+        }
+        long[] unmappedThreadIds = Arrays.stream(threadIds).filter(threadId -> !tasksPerThreadId.containsKey(threadId)).toArray();
+        Map<String, List<Long>> threadIdsPerNativeName = new HashMap<>();
+        for (ThreadInfo threadInfo : threadMxBean.getThreadInfo(unmappedThreadIds)) { // without stack trace, no safepoint needed
+            if (threadInfo != null) {
+                threadIdsPerNativeName.computeIfAbsent(toNativeThreadName(threadInfo.getThreadName()), name -> new ArrayList<>()).add(threadInfo.getThreadId());
+            }
+        }
+        tasksPerNativeName.forEach((nativeName, tasksWithName) -> {
+            List<Long> threadIdsWithName = threadIdsPerNativeName.get(nativeName);
+            if (tasksWithName.size() == 1 && threadIdsWithName != null && threadIdsWithName.size() == 1
+                && tasksWithName.get(0).nameReadInInterval == interval) {
+                Task task = tasksWithName.get(0);
+                task.threadId = threadIdsWithName.get(0);
+                tasksPerThreadId.put(task.threadId, task);
+            }
+        });
+    }
+
+    /**
+     * The JVM sets the native thread name to the Java thread name truncated to 15 bytes.
+     */
+    static String toNativeThreadName(String threadName) {
+        byte[] name = threadName.getBytes(StandardCharsets.UTF_8);
+        return name.length <= NATIVE_THREAD_NAME_MAX_BYTES ? threadName : new String(name, 0, NATIVE_THREAD_NAME_MAX_BYTES, StandardCharsets.UTF_8);
+    }
+
+    private String readNativeThreadName(Task task) {
+        try {
+            return new String(Files.readAllBytes(task.directory.resolve("comm")), StandardCharsets.UTF_8).trim();
+        } catch (IOException ex) {
+            return null; // task has terminated
+        }
+    }
+
+    /**
+     * @return CPU time of the task in nanoseconds, <code>-1</code> if not readable
+     */
+    private long readCpuTime(Task task) {
+        buffer.clear();
+        try {
+            if (task.schedstat == null) {
+                task.schedstat = FileChannel.open(task.directory.resolve("schedstat"), StandardOpenOption.READ);
+            }
+            task.schedstat.read(buffer, 0L);
+        } catch (IOException ex) {
+            // task has terminated, its id may be reused by a new task which has to be mapped again
+            tasks.values().remove(task);
+            forget(task);
+            return -1L;
+        }
+        long cpuTime = 0;
+        int digits = 0;
+        for (int i = 0; i < buffer.position(); i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            cpuTime = cpuTime * 10 + (b - '0');
+            digits++;
+        }
+        return digits > 0 ? cpuTime : -1L;
+    }
+
+    /**
+     * Closes the <code>schedstat</code> files of all tasks.
+     */
+    @Override
+    public void close() {
+        tasks.values().forEach(this::forget);
+        tasks.clear();
+    }
+
+    private static class Task {
+        private final Path directory;
+        private FileChannel schedstat;
+        private String nativeName;
+        private long threadId;
+        private int resolveAttempts;
+        private int nameReadInInterval;
+        private int lastSeenInInterval;
+
+        private Task(Path directory) {
+            this.directory = directory;
+        }
+
+        private void closeSchedstat() {
+            if (schedstat != null) {
+                try {
+                    schedstat.close();
+                } catch (IOException ex) {
+                    System.err.println("Unable to close " + directory.resolve("schedstat") + ": " + ex.getLocalizedMessage());
+                }
+                schedstat = null;
+            }
+        }
+    }
+}
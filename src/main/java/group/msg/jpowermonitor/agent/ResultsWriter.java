@@ -2,21 +2,21 @@ package group.msg.jpowermonitor.agent;
 
 import group.msg.jpowermonitor.dto.Activity;
 import group.msg.jpowermonitor.dto.DataPoint;
+import group.msg.jpowermonitor.util.CsvRowEncoder;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.math.BigDecimal;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 import static group.msg.jpowermonitor.util.Constants.APP_TITLE;
-import static group.msg.jpowermonitor.util.Constants.DATE_TIME_FORMATTER;
 import static group.msg.jpowermonitor.util.Constants.NEW_LINE;
 import static group.msg.jpowermonitor.util.Converter.convertJouleToCarbonDioxideGrams;
 import static group.msg.jpowermonitor.util.Converter.convertJouleToKiloWattHours;
@@ -28,15 +28,7 @@ import static group.msg.jpowermonitor.util.Converter.convertJouleToWattHours;
  * @author deinerj
  */
 public class ResultsWriter implements Runnable {
-    private static final DecimalFormat DECIMAL_FORMAT;
-    private static final String dataPointFormatCsv;
-    private static final String dataPointFormatEnergyConsumptionCsv;
-
-    static {
-        dataPointFormatCsv = Locale.getDefault().getCountry().toLowerCase(Locale.ROOT).equals("de") ? "%s;%s;%s;%s;%s%s" : "%s,%s,%s,%s,%s%s";
-        dataPointFormatEnergyConsumptionCsv = Locale.getDefault().getCountry().toLowerCase(Locale.ROOT).equals("de") ? "%s;%s;%s;%s;%s;%s;%s%s" : "%s,%s,%s,%s,%s,%s,%s%s";
-        DECIMAL_FORMAT = new DecimalFormat("###0.#####", DecimalFormatSymbols.getInstance(Locale.getDefault()));
-    }
+    private static final CsvRowEncoder CSV = CsvRowEncoder.forLocale(Locale.getDefault());
 
     protected static final String FILE_NAME_PREFIX = APP_TITLE + "_";
     protected static final String SEPARATOR = "-----------------------------------------------------------------------------------------";
@@ -48,6 +40,17 @@ public class ResultsWriter implements Runnable {
     private String energyConsumptionPerFilteredMethodFileName;
     private String powerConsumptionPerMethodFileName;
     private String powerConsumptionPerFilteredMethodFileName;
+    private String powerSeriesFileName;
+    private String energyConsumptionCallTreeFileName;
+    private String powerHistoryFileName;
+    private String energyConsumptionOfHeavyHittersFileName;
+    private final int energyWindowsTopMethods;
+    /**
+     * Reused for each row appended to the power CSV files, a results writer is only used by one thread.
+     */
+    private final StringBuilder row = new StringBuilder(256);
+    private final PowerRows powerPerMethod = new PowerRows();
+    private final PowerRows powerPerFilteredMethod = new PowerRows();
 
     /**
      * Constructor
@@ -57,9 +60,22 @@ public class ResultsWriter implements Runnable {
      * @param carbonDioxideEmissionFactor conversion factor to calculate CO2 usage from energy usage
      */
     public ResultsWriter(PowerStatistics powerStatistics, boolean doWriteStatistics, BigDecimal carbonDioxideEmissionFactor) {
+        this(powerStatistics, doWriteStatistics, carbonDioxideEmissionFactor, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param powerStatistics             energy consumption measurements
+     * @param doWriteStatistics           set 'true' if this is shutdown hook - logs some statistics
+     * @param carbonDioxideEmissionFactor conversion factor to calculate CO2 usage from energy usage
+     * @param energyWindowsTopMethods     number of methods written per rolling time window, see {@link PowerStatistics#getEnergyWindowsInS()}
+     */
+    public ResultsWriter(PowerStatistics powerStatistics, boolean doWriteStatistics, BigDecimal carbonDioxideEmissionFactor, int energyWindowsTopMethods) {
         this.powerStatistics = powerStatistics;
         this.doWriteStatistics = doWriteStatistics;
         this.carbonDioxideEmissionFactor = carbonDioxideEmissionFactor;
+        this.energyWindowsTopMethods = energyWindowsTopMethods;
         initCsvFileNames();
     }
 
@@ -70,6 +86,9 @@ public class ResultsWriter implements Runnable {
 
     public void execute() {
         writeEnergyConsumptionToCsv();
+        if (doWriteStatistics) {
+            writePowerHistory(Paths.get(powerHistoryFileName));
+        }
         logStatistics();
     }
 
@@ -78,11 +97,85 @@ public class ResultsWriter implements Runnable {
         energyConsumptionPerFilteredMethodFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_energy_per_method_filtered.csv";
         powerConsumptionPerMethodFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_power_per_method.csv";
         powerConsumptionPerFilteredMethodFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_power_per_method_filtered.csv";
+        powerSeriesFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_power_per_method" + PowerSeriesConverter.FILE_EXTENSION;
+        energyConsumptionCallTreeFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_energy_call_tree.collapsed";
+        powerHistoryFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_power_history.csv";
+        energyConsumptionOfHeavyHittersFileName = FILE_NAME_PREFIX + powerStatistics.getPid() + "_energy_top_methods.csv";
     }
 
     private void writeEnergyConsumptionToCsv() {
-        createUnfilteredAndFilteredPowerConsumptionPerMethodCsvAndWriteToFiles(powerStatistics.getEnergyConsumptionPerMethod(false), energyConsumptionPerMethodFileName);
-        createUnfilteredAndFilteredPowerConsumptionPerMethodCsvAndWriteToFiles(powerStatistics.getEnergyConsumptionPerMethod(true), energyConsumptionPerFilteredMethodFileName);
+        powerStatistics.writeEnergyConsumptionPerMethodCheckpoint(this::createCsvEntryForDataPoint, carbonDioxideEmissionFactor,
+            Paths.get(energyConsumptionPerMethodFileName), Paths.get(energyConsumptionPerFilteredMethodFileName));
+        writeEnergyConsumptionOfHeavyHitters();
+        writeEnergyConsumptionInWindows();
+        writeCallTree();
+    }
+
+    /**
+     * Writes the methods with the highest energy consumption of each rolling time window, highest first,
+     * to <code>jPowerMonitor_&lt;pid&gt;_energy_per_method_last_&lt;window&gt;s.csv</code>.
+     */
+    private void writeEnergyConsumptionInWindows() {
+        if (energyWindowsTopMethods <= 0) {
+            return;
+        }
+        for (long windowInS : powerStatistics.getEnergyWindowsInS()) {
+            StringBuilder csv = new StringBuilder(energyWindowsTopMethods * 128);
+            powerStatistics.getTopEnergyConsumptionPerMethod(windowInS, energyWindowsTopMethods).forEach(energy -> appendCsvEntryForDataPoint(csv, energy));
+            EnergyCsvCheckpoint.writeAtomically(csv, Paths.get(FILE_NAME_PREFIX + powerStatistics.getPid() + "_energy_per_method_last_" + windowInS + "s.csv"));
+        }
+    }
+
+    /**
+     * Writes the energy of the tracked methods if their number is limited, highest energy first, followed by the other methods
+     * and the unattributed energy.
+     * Each row of the energy per method CSV file is extended by the maximum energy, the energy plus its error bound.
+     */
+    private void writeEnergyConsumptionOfHeavyHitters() {
+        List<Map.Entry<DataPoint, BigDecimal>> heavyHitters = powerStatistics.getEnergyConsumptionOfHeavyHitters();
+        if (heavyHitters.isEmpty()) {
+            return;
+        }
+        StringBuilder csv = new StringBuilder(heavyHitters.size() * 160);
+        for (Map.Entry<DataPoint, BigDecimal> method : heavyHitters) {
+            appendCsvFieldsForDataPoint(csv, method.getKey(), carbonDioxideEmissionFactor);
+            CSV.appendSeparator(csv);
+            CSV.appendDecimal(csv, method.getValue()).append(CSV.getSeparator());
+            CSV.appendText(csv, Unit.JOULE).append(NEW_LINE);
+        }
+        EnergyCsvCheckpoint.writeAtomically(csv, Paths.get(energyConsumptionOfHeavyHittersFileName));
+    }
+
+    /**
+     * Writes the call tree in the collapsed stack format, e.g. for <code>flamegraph.pl</code>. The energy is given in micro joules.
+     */
+    private void writeCallTree() {
+        CallTree.Snapshot callTree = powerStatistics.getCallTreeSnapshot();
+        if (callTree == null) {
+            return;
+        }
+        StringBuilder collapsed = new StringBuilder();
+        callTree.toCollapsedStacks(powerStatistics.getMethodSymbolTable()).forEach(line -> collapsed.append(line).append(NEW_LINE));
+        EnergyCsvCheckpoint.writeAtomically(collapsed, Paths.get(energyConsumptionCallTreeFileName));
+    }
+
+    /**
+     * Writes the in-memory power history per method, one row per method and interval, like the power per method CSV file.
+     *
+     * @param file file to write, replaced atomically
+     * @return <code>false</code> if the power history is not recorded
+     */
+    boolean writePowerHistory(Path file) {
+        StringBuilder csv = new StringBuilder();
+        if (!powerStatistics.forEachPowerHistoryPoint(power -> appendCsvEntryForDataPoint(csv, power))) {
+            return false;
+        }
+        EnergyCsvCheckpoint.writeAtomically(csv, file);
+        return true;
+    }
+
+    String getPowerHistoryFileName() {
+        return powerHistoryFileName;
     }
 
     private void logStatistics() {
@@ -96,54 +189,170 @@ public class ResultsWriter implements Runnable {
     private void logStatisticsCommon(Consumer<String> prioritizedLogger) {
         if (prioritizedLogger == null || powerStatistics == null
             || powerStatistics.getEnergyConsumptionTotalInJoule() == null
-            || powerStatistics.getEnergyConsumptionTotalInJoule().get() == null
-            || powerStatistics.getEnergyConsumptionTotalInJoule().get().getValue() == null) {
+            || powerStatistics.getEnergyConsumptionTotalInJoule().getValue() == null) {
             return;
         }
+        BigDecimal energyConsumptionTotalInJoule = powerStatistics.getEnergyConsumptionTotalInJoule().getValue();
         prioritizedLogger.accept(String.format("Application consumed %.2f joule - %.3f wh - %.6f kwh - %.3f gCO2 total",
-            powerStatistics.getEnergyConsumptionTotalInJoule().get().getValue()
-            , convertJouleToWattHours(powerStatistics.getEnergyConsumptionTotalInJoule().get().getValue())
-            , convertJouleToKiloWattHours(powerStatistics.getEnergyConsumptionTotalInJoule().get().getValue())
-            , convertJouleToCarbonDioxideGrams(powerStatistics.getEnergyConsumptionTotalInJoule().get().getValue(), carbonDioxideEmissionFactor)));
+            energyConsumptionTotalInJoule
+            , convertJouleToWattHours(energyConsumptionTotalInJoule)
+            , convertJouleToKiloWattHours(energyConsumptionTotalInJoule)
+            , convertJouleToCarbonDioxideGrams(energyConsumptionTotalInJoule, carbonDioxideEmissionFactor)));
         prioritizedLogger.accept("Energy consumption per method and filtered methods written to '" + energyConsumptionPerMethodFileName + "' / '" + energyConsumptionPerFilteredMethodFileName + "'");
         prioritizedLogger.accept(SEPARATOR);
     }
 
+    /**
+     * Appends the power per method and per filtered method of one measurement interval row by row to long-lived writers.
+     * The power of the activities with the same method and thread name (e.g. of virtual threads) is summed up.
+     * The rows are encoded from the {@link SampledMethodActivity}s into a reused builder, other activities are skipped.
+     *
+     * @param measurements         activities of the interval
+     * @param perMethodCsv         writer of the power per method CSV file, see {@link #getPowerConsumptionPerMethodFileName()}
+     * @param perFilteredMethodCsv writer of the power per filtered method CSV file, see {@link #getPowerConsumptionPerFilteredMethodFileName()}
+     */
+    void appendPowerConsumptionPerMethod(Collection<Activity> measurements, BufferedCsvFileWriter perMethodCsv, BufferedCsvFileWriter perFilteredMethodCsv) {
+        for (Activity activity : measurements) {
+            if (activity instanceof SampledMethodActivity && activity.isFinalized()) {
+                SampledMethodActivity sampled = (SampledMethodActivity) activity;
+                powerPerMethod.add(sampled, sampled.getMethodId());
+                powerPerFilteredMethod.add(sampled, sampled.getFilteredMethodId());
+            }
+        }
+        powerPerMethod.appendTo(perMethodCsv, row, false);
+        powerPerFilteredMethod.appendTo(perFilteredMethodCsv, row, true);
+    }
 
-    public void createUnfilteredAndFilteredPowerConsumptionPerMethodCsvAndWriteToFiles(Map<String, DataPoint> measurements, String fileName) {
-        writeToFile(createCsv(measurements), fileName);
+    String getPowerConsumptionPerMethodFileName() {
+        return powerConsumptionPerMethodFileName;
     }
 
-    public void createUnfilteredAndFilteredPowerConsumptionPerMethodCsvAndWriteToFiles(Collection<Activity> measurements) {
-        writeToFile(createCsv(powerStatistics.aggregateActivityToDataPoints(measurements, false)), powerConsumptionPerMethodFileName, true);
-        writeToFile(createCsv(powerStatistics.aggregateActivityToDataPoints(measurements, true)), powerConsumptionPerFilteredMethodFileName, true);
+    String getPowerConsumptionPerFilteredMethodFileName() {
+        return powerConsumptionPerFilteredMethodFileName;
     }
 
-    protected String createCsv(Map<String, DataPoint> measurements) {
-        StringBuilder csv = new StringBuilder();
-        measurements.forEach((method, energy) -> csv.append(createCsvEntryForDataPoint(energy)));
-        return csv.toString();
+    /**
+     * @return name of the binary file replacing both power CSV files if <code>javaAgent.powerOutputFormat</code> is <code>binary</code>
+     */
+    String getPowerSeriesFileName() {
+        return powerSeriesFileName;
     }
 
     protected String createCsvEntryForDataPoint(@NotNull DataPoint dp) {
-        if (Unit.JOULE == dp.getUnit()) {
-            return String.format(dataPointFormatEnergyConsumptionCsv, DATE_TIME_FORMATTER.format(dp.getTime()), dp.getThreadName(), dp.getName(), DECIMAL_FORMAT.format(dp.getValue()), dp.getUnit(),
-                DECIMAL_FORMAT.format(convertJouleToCarbonDioxideGrams(dp.getValue(), carbonDioxideEmissionFactor)), Unit.GRAMS_CO2.getAbbreviation(), NEW_LINE);
-        }
-        return String.format(dataPointFormatCsv, DATE_TIME_FORMATTER.format(dp.getTime()), dp.getThreadName(), dp.getName(), DECIMAL_FORMAT.format(dp.getValue()), dp.getUnit(), NEW_LINE);
+        return appendCsvEntryForDataPoint(new StringBuilder(128), dp).toString();
+    }
+
+    private StringBuilder appendCsvEntryForDataPoint(StringBuilder csv, @NotNull DataPoint dp) {
+        return appendCsvEntryForDataPoint(csv, dp, carbonDioxideEmissionFactor);
     }
 
-    protected void writeToFile(String csv, String fileName) {
-        writeToFile(csv, fileName, false);
+    /**
+     * Appends the CSV row of the data point, the CO2 emission is only added for energy.
+     *
+     * @param csv                         builder to append to
+     * @param dp                          power or energy
+     * @param carbonDioxideEmissionFactor conversion factor to calculate CO2 usage from energy usage
+     * @return the builder
+     */
+    static StringBuilder appendCsvEntryForDataPoint(StringBuilder csv, @NotNull DataPoint dp, BigDecimal carbonDioxideEmissionFactor) {
+        return appendCsvFieldsForDataPoint(csv, dp, carbonDioxideEmissionFactor).append(NEW_LINE);
     }
 
-    protected void writeToFile(String csv, String fileName, boolean append) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fileName, append))) {
-            bw.write(csv);
-        } catch (IOException ex) {
-            System.err.println(ex.getLocalizedMessage());
-            ex.printStackTrace();
+    /**
+     * Appends the fields of the CSV row of the data point without the line separator, so further fields can follow.
+     */
+    private static StringBuilder appendCsvFieldsForDataPoint(StringBuilder csv, @NotNull DataPoint dp, BigDecimal carbonDioxideEmissionFactor) {
+        CSV.appendTime(csv, dp.getTime()).append(CSV.getSeparator());
+        CSV.appendText(csv, dp.getThreadName()).append(CSV.getSeparator());
+        CSV.appendText(csv, dp.getName()).append(CSV.getSeparator());
+        CSV.appendDecimal(csv, dp.getValue()).append(CSV.getSeparator());
+        CSV.appendText(csv, dp.getUnit());
+        if (Unit.JOULE == dp.getUnit()) {
+            CSV.appendSeparator(csv);
+            CSV.appendDecimal(csv, convertJouleToCarbonDioxideGrams(dp.getValue(), carbonDioxideEmissionFactor)).append(CSV.getSeparator());
+            CSV.appendText(csv, Unit.GRAMS_CO2.getAbbreviation());
         }
+        return csv;
     }
 
+    /**
+     * Power per method and thread name of one interval, reused for all intervals. The rows are kept in the order of their first
+     * activity and found by an open addressing hash table on method id and thread name, so adding a row does not allocate.
+     */
+    private static final class PowerRows {
+        private static final int INITIAL_CAPACITY = 64;
+        // hash table: slot -> row + 1, 0 marks a free slot
+        private int[] slots = new int[2 * INITIAL_CAPACITY];
+        private int[] methodIds = new int[INITIAL_CAPACITY];
+        private SampledMethodActivity[] firstActivities = new SampledMethodActivity[INITIAL_CAPACITY];
+        private double[] powerInWatts = new double[INITIAL_CAPACITY];
+        private int rows;
+
+        private void add(SampledMethodActivity activity, int methodId) {
+            if (methodId == MethodSymbolTable.NO_METHOD) {
+                return;
+            }
+            if (rows == methodIds.length) {
+                grow();
+            }
+            String threadName = activity.getThreadName();
+            int mask = slots.length - 1;
+            for (int slot = hash(methodId, threadName) & mask; ; slot = (slot + 1) & mask) {
+                int row = slots[slot] - 1;
+                if (row < 0) {
+                    slots[slot] = rows + 1;
+                    methodIds[rows] = methodId;
+                    firstActivities[rows] = activity;
+                    powerInWatts[rows] = activity.getPowerInWatts();
+                    rows++;
+                    return;
+                }
+                if (methodIds[row] == methodId && Objects.equals(firstActivities[row].getThreadName(), threadName)) {
+                    powerInWatts[row] += activity.getPowerInWatts();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Appends one row per method and thread name, like {@link #appendCsvEntryForDataPoint(StringBuilder, DataPoint, BigDecimal)}
+         * of the power, and clears the rows for the next interval.
+         */
+        private void appendTo(BufferedCsvFileWriter csv, StringBuilder row, boolean filtered) {
+            for (int i = 0; i < rows; i++) {
+                SampledMethodActivity activity = firstActivities[i];
+                row.setLength(0);
+                CSV.appendTime(row, activity.getTime()).append(CSV.getSeparator());
+                CSV.appendText(row, activity.getThreadName()).append(CSV.getSeparator());
+                CSV.appendText(row, activity.getIdentifier(filtered)).append(CSV.getSeparator());
+                CSV.appendDecimal(row, powerInWatts[i]).append(CSV.getSeparator());
+                CSV.appendText(row, Unit.WATT).append(NEW_LINE);
+                csv.append(row);
+            }
+            Arrays.fill(slots, 0);
+            Arrays.fill(firstActivities, 0, rows, null); // the activities are not kept beyond the interval
+            rows = 0;
+        }
+
+        private void grow() {
+            int capacity = methodIds.length * 2;
+            methodIds = Arrays.copyOf(methodIds, capacity);
+            firstActivities = Arrays.copyOf(firstActivities, capacity);
+            powerInWatts = Arrays.copyOf(powerInWatts, capacity);
+            slots = new int[2 * capacity];
+            int mask = slots.length - 1;
+            for (int row = 0; row < rows; row++) {
+                int slot = hash(methodIds[row], firstActivities[row].getThreadName()) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = row + 1;
+            }
+        }
+
+        private static int hash(int methodId, String threadName) {
+            int hash = 31 * methodId + Objects.hashCode(threadName);
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
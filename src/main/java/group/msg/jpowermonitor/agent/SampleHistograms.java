@@ -0,0 +1,139 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * The {@link ThreadSampleHistogram}s of all sampled threads, keyed by thread id in a {@link ThreadIdMap}. The histograms are reused
+ * across intervals, histograms of threads without samples for {@value #MAX_IDLE_INTERVALS} intervals are evicted.
+ * <br><br>
+ * Not thread safe, but accessed by one thread at a time: the sampling scheduler thread counts the samples of an interval,
+ * then hands the histograms over to the attribution stage thread (see {@link PowerStatistics.IntervalSamples}), which reads and clears them
+ * and returns them for reuse via a concurrent ring buffer. The hand-overs publish the histograms safely.
+ */
+class SampleHistograms {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_IDLE_INTERVALS = 10;
+    private final CallTree callTree;
+    private final ThreadIdMap<ThreadSampleHistogram> histograms = new ThreadIdMap<>(INITIAL_CAPACITY);
+    private int[] methodIdBuffer = new int[128];
+
+    /**
+     * Constructor
+     *
+     * @param callTree call tree to add the sampled stacks to, <code>null</code> if disabled
+     */
+    SampleHistograms(CallTree callTree) {
+        this.callTree = callTree;
+    }
+
+    /**
+     * Consumer for the histogram of one thread.
+     */
+    @FunctionalInterface
+    interface ThreadHistogramConsumer {
+        void accept(long threadId, ThreadSampleHistogram histogram);
+    }
+
+    /**
+     * Counts one sample of the given stack.
+     *
+     * @param methodSymbolTable symbol table to intern the methods of the stack in
+     * @param threadId          id of the running thread
+     * @param threadName        name of the running thread
+     * @param stackTrace        current stack of the thread, topmost frame first
+     */
+    void addStack(MethodSymbolTable methodSymbolTable, long threadId, String threadName, StackTraceElement[] stackTrace) {
+        if (stackTrace.length == 0) {
+            return;
+        }
+        if (callTree != null) {
+            addStackToCallTree(methodSymbolTable, threadId, threadName, stackTrace);
+            return;
+        }
+
+        int methodId = methodSymbolTable.intern(stackTrace[0]);
+        int filteredMethodId = methodSymbolTable.isFiltered(methodId) ? methodId : MethodSymbolTable.NO_METHOD;
+        for (int i = 1; i < stackTrace.length && filteredMethodId == MethodSymbolTable.NO_METHOD; i++) {
+            int id = methodSymbolTable.intern(stackTrace[i]);
+            if (methodSymbolTable.isFiltered(id)) {
+                filteredMethodId = id;
+            }
+        }
+        add(threadId, threadName, methodId, filteredMethodId, CallTree.NO_NODE);
+    }
+
+    /**
+     * All frames of the stack are interned for the call tree.
+     */
+    private void addStackToCallTree(MethodSymbolTable methodSymbolTable, long threadId, String threadName, StackTraceElement[] stackTrace) {
+        if (methodIdBuffer.length < stackTrace.length) {
+            methodIdBuffer = new int[Math.max(stackTrace.length, methodIdBuffer.length * 2)];
+        }
+        int filteredMethodId = MethodSymbolTable.NO_METHOD;
+        for (int i = 0; i < stackTrace.length; i++) {
+            int id = methodSymbolTable.intern(stackTrace[i]);
+            methodIdBuffer[i] = id;
+            if (filteredMethodId == MethodSymbolTable.NO_METHOD && methodSymbolTable.isFiltered(id)) {
+                filteredMethodId = id;
+            }
+        }
+        add(threadId, threadName, methodIdBuffer[0], filteredMethodId, callTree.add(methodIdBuffer, stackTrace.length));
+    }
+
+    /**
+     * Counts one sample.
+     *
+     * @param threadId         id of the running thread
+     * @param threadName       name of the running thread
+     * @param methodId         id of the topmost method
+     * @param filteredMethodId id of the topmost filtered method, {@link MethodSymbolTable#NO_METHOD} if none
+     * @param callTreeNode     call tree node of the sampled stack, {@link CallTree#NO_NODE} if the call tree is disabled
+     */
+    void add(long threadId, String threadName, int methodId, int filteredMethodId, int callTreeNode) {
+        ThreadSampleHistogram histogram = histograms.get(threadId);
+        if (histogram == null) {
+            histogram = new ThreadSampleHistogram(threadName);
+            histograms.put(threadId, histogram);
+        }
+        histogram.add(threadName, methodId, filteredMethodId, callTreeNode);
+    }
+
+    /**
+     * Calls the consumer for each thread sampled in the current interval.
+     *
+     * @param consumer consumer of thread id and histogram
+     */
+    void forEach(ThreadHistogramConsumer consumer) {
+        for (int slot = 0; slot < histograms.capacity(); slot++) {
+            ThreadSampleHistogram histogram = histograms.valueAt(slot);
+            if (histogram != null && histogram.getSamples() > 0) {
+                consumer.accept(histograms.threadIdAt(slot), histogram);
+            }
+        }
+    }
+
+    /**
+     * Clears all histograms for the next interval, histograms idle for too long are evicted.
+     */
+    void clear() {
+        int slot = 0;
+        while (slot < histograms.capacity()) {
+            ThreadSampleHistogram histogram = histograms.valueAt(slot);
+            if (histogram != null) {
+                histogram.idleIntervals = histogram.getSamples() > 0 ? 0 : histogram.idleIntervals + 1;
+                if (histogram.idleIntervals > MAX_IDLE_INTERVALS) {
+                    histograms.removeAt(slot);
+                    // an entry following in the probe sequence may have been shifted to this slot, so check it again
+                    continue;
+                }
+                histogram.clear();
+            }
+            slot++;
+        }
+    }
+
+    /**
+     * @return number of threads currently registered
+     */
+    int size() {
+        return histograms.size();
+    }
+}
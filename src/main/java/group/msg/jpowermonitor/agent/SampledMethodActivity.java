@@ -0,0 +1,72 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.Activity;
+import group.msg.jpowermonitor.dto.Quantity;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * {@link Activity} of a sampled method in one thread and interval, representing all samples of the method, see {@link ThreadSampleHistogram}.<br>
+ * The methods are referenced by their id in the {@link MethodSymbolTable}, the method names are resolved from the symbol table
+ * only when the identifier is requested, e.g. when writing the results.
+ */
+class SampledMethodActivity implements Activity {
+    private final MethodSymbolTable methodSymbolTable;
+    @Getter
+    private final String threadName;
+    @Getter
+    private final LocalDateTime time;
+    /**
+     * Id of the topmost method on the stack.
+     */
+    @Getter
+    private final int methodId;
+    /**
+     * Id of the topmost method on the stack matching the package filter, {@link MethodSymbolTable#NO_METHOD} if none matches.
+     */
+    @Getter
+    private final int filteredMethodId;
+    private double powerInWatts = Double.NaN;
+
+    SampledMethodActivity(MethodSymbolTable methodSymbolTable, String threadName, LocalDateTime time, int methodId, int filteredMethodId) {
+        this.methodSymbolTable = methodSymbolTable;
+        this.threadName = threadName;
+        this.time = time;
+        this.methodId = methodId;
+        this.filteredMethodId = filteredMethodId;
+    }
+
+    @Override
+    public String getIdentifier(boolean asFiltered) {
+        return methodSymbolTable.getQualifiedName(asFiltered ? filteredMethodId : methodId);
+    }
+
+    /**
+     * @param powerInWatts power attributed to this activity
+     */
+    void setPowerInWatts(double powerInWatts) {
+        this.powerInWatts = powerInWatts;
+    }
+
+    /**
+     * @return power attributed to this activity, <code>NaN</code> if not attributed yet
+     */
+    double getPowerInWatts() {
+        return powerInWatts;
+    }
+
+    /**
+     * @return the attributed power, created on demand for the export
+     */
+    @Override
+    public Quantity getRepresentedQuantity() {
+        return isFinalized() ? Quantity.of(BigDecimal.valueOf(powerInWatts), Unit.WATT) : null;
+    }
+
+    @Override
+    public boolean isFinalized() {
+        return !Double.isNaN(powerInWatts);
+    }
+}
@@ -0,0 +1,130 @@
+package group.msg.jpowermonitor.agent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules the stack samples and the measurement intervals on absolute {@link System#nanoTime()} deadlines.
+ * <br><br>
+ * The time spent for sampling and for processing an interval does not shift the following deadlines, so the schedule does not drift.
+ * Deadlines that have already passed (e.g. under heavy load or after a long GC pause) are skipped instead of being caught up.
+ * As a consequence, an interval may contain fewer samples than configured, and it may take longer than configured.
+ * Thus, the real elapsed time of each interval and the real number of samples are handed over to the {@link IntervalListener}.
+ */
+class SamplingScheduler {
+    private final long measurementIntervalInNanos;
+    private final long gatherStatisticsIntervalInNanos;
+    private final Runnable sampler;
+    private final IntervalListener intervalListener;
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Listener for the end of a measurement interval.
+     */
+    @FunctionalInterface
+    interface IntervalListener {
+        /**
+         * @param elapsedNanos real elapsed time since the end of the previous interval
+         * @param samples      number of samples taken in the interval
+         */
+        void onIntervalEnd(long elapsedNanos, int samples);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param measurementIntervalInMs      length of a measurement interval
+     * @param gatherStatisticsIntervalInMs period of the samples within an interval
+     * @param sampler                      takes one sample
+     * @param intervalListener             called at the end of each interval
+     * @param threadName                   name of the scheduler thread
+     */
+    SamplingScheduler(long measurementIntervalInMs, long gatherStatisticsIntervalInMs, Runnable sampler, IntervalListener intervalListener, String threadName) {
+        this.measurementIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, measurementIntervalInMs));
+        this.gatherStatisticsIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, gatherStatisticsIntervalInMs));
+        this.sampler = sampler;
+        this.intervalListener = intervalListener;
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true); // does not prevent applications from stopping
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the thread and waits for it for at most {@link PipelineStage#STOP_TIMEOUT_IN_MS}, the current interval is discarded.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        PipelineStage.join(thread, PipelineStage.STOP_TIMEOUT_IN_MS);
+    }
+
+    private void run() {
+        long intervalStart = System.nanoTime();
+        long intervalDeadline = intervalStart;
+        while (running) {
+            intervalDeadline = nextDeadline(intervalDeadline, measurementIntervalInNanos, System.nanoTime());
+            int samples = 0;
+            long sampleDeadline = intervalDeadline - measurementIntervalInNanos;
+            while (running && sampleDeadline - intervalDeadline < 0) {
+                samples += takeSample();
+                sampleDeadline = nextDeadline(sampleDeadline, gatherStatisticsIntervalInNanos, System.nanoTime());
+                parkUntil(Math.min(sampleDeadline, intervalDeadline));
+            }
+            parkUntil(intervalDeadline);
+            if (!running) {
+                return;
+            }
+            long intervalEnd = System.nanoTime();
+            endInterval(intervalEnd - intervalStart, samples);
+            intervalStart = intervalEnd;
+        }
+    }
+
+    private int takeSample() {
+        try {
+            sampler.run();
+            return 1;
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to take sample: " + ex.getLocalizedMessage());
+            ex.printStackTrace();
+            return 0;
+        }
+    }
+
+    private void endInterval(long elapsedNanos, int samples) {
+        try {
+            intervalListener.onIntervalEnd(elapsedNanos, samples);
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to process measurement interval: " + ex.getLocalizedMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    private void parkUntil(long deadline) {
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Calculates the next deadline after <code>now</code> on the grid of <code>deadline + n * period</code>, skipping the deadlines already passed.
+     *
+     * @param deadline previous deadline
+     * @param period   period in nanoseconds
+     * @param now      current {@link System#nanoTime()}
+     * @return next deadline
+     */
+    static long nextDeadline(long deadline, long period, long now) {
+        long next = deadline + period;
+        if (next - now <= 0) {
+            next += ((now - next) / period + 1) * period;
+        }
+        return next;
+    }
+}
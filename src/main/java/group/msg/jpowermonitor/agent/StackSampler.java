@@ -0,0 +1,38 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Strategy for capturing the stacks of the running application threads.<br>
+ * Called by {@link PowerStatistics} once every <code>gatherStatisticsIntervalInMs</code>.
+ *
+ * @see StackSamplerProvider
+ */
+interface StackSampler {
+    /**
+     * Starts sampling, called by {@link PowerStatistics#start(String, long, long)}. A sampler interning methods on a thread of its own
+     * must not do so before, the symbol table is written by the restore of the state journal until then.
+     */
+    default void start() {
+    }
+
+    /**
+     * Captures the currently running threads and counts one sample per running thread.
+     *
+     * @param sampleHistograms sample histograms per thread, the new samples are counted in
+     */
+    void sample(SampleHistograms sampleHistograms);
+
+    /**
+     * @return <code>true</code> if each call of {@link #sample(SampleHistograms)} counts at most one sample per thread, so a thread's samples
+     * are a share of the samples taken in the interval. <code>false</code> if the samples are recorded asynchronously and delivered in batches,
+     * an interval may then hold no samples or more samples of a thread than samples were taken.
+     */
+    default boolean isSynchronous() {
+        return true;
+    }
+
+    /**
+     * Releases the resources of the sampler, called when the measurement ends.
+     */
+    default void close() {
+    }
+}
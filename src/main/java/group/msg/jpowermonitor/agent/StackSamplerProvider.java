@@ -0,0 +1,29 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.config.JavaAgent;
+
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Factory for creating the StackSampler from the java agent config.
+ *
+ * @see StackSampler
+ */
+class StackSamplerProvider {
+    static StackSampler resolveStackSampler(JavaAgent javaAgentCfg, ThreadMXBean threadMXBean, MethodSymbolTable methodSymbolTable, CallTree callTree) {
+        if ("threadDump".equals(javaAgentCfg.getStackSampler())) {
+            return new ThreadDumpStackSampler(threadMXBean, methodSymbolTable, javaAgentCfg.getMaxStackDepth());
+        } else if ("perThread".equals(javaAgentCfg.getStackSampler())) {
+            return new PerThreadStackSampler(methodSymbolTable);
+        } else if ("jfr".equals(javaAgentCfg.getStackSampler())) {
+            if (JfrStackSampler.isAvailable()) {
+                return new JfrStackSampler(methodSymbolTable, callTree, javaAgentCfg.getGatherStatisticsIntervalInMs());
+            }
+            System.err.println("JFR event streaming requires Java 14 or later, falling back to stack sampler 'threadDump'");
+            return new ThreadDumpStackSampler(threadMXBean, methodSymbolTable, javaAgentCfg.getMaxStackDepth());
+        } else {
+            throw new JPowerMonitorException("Unknown stack sampler " + javaAgentCfg.getStackSampler());
+        }
+    }
+}
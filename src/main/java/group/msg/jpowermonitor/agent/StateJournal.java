@@ -0,0 +1,405 @@
+package group.msg.jpowermonitor.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the energy totals across restarts of the JVM in a binary snapshot plus an append-only journal.
+ * <br><br>
+ * Files (for the configured <code>javaAgent.stateFile</code>):
+ * <ul>
+ *     <li><code>&lt;stateFile&gt;.snapshot</code>: complete state, replaced atomically (temporary file and rename)</li>
+ *     <li><code>&lt;stateFile&gt;.journal</code>: energy added per measurement interval since the snapshot, appended once per interval</li>
+ * </ul>
+ * Both files carry a generation. A snapshot of generation <code>n + 1</code> contains everything of the journal of generation <code>n</code>,
+ * so a journal is only replayed if its generation equals the one of the snapshot. Thus a crash between writing the snapshot
+ * and starting the new journal does not count any energy twice.
+ * <br><br>
+ * The journal is not synced to the storage device, it survives crashes and restarts of the JVM, but not of the operating system.
+ * An incomplete record at the end of the journal (crash while appending) is ignored on replay.
+ * <br><br>
+ * Replay reads both files into heap buffers. They are not memory mapped, as Windows refuses to replace the snapshot or truncate
+ * the journal as long as a mapping, released only by the garbage collector, is open. Journal records refer to methods by the method ids of the run that wrote them,
+ * a definition record maps such an id to its name once per journal.
+ * <br><br>
+ * Written by the attribution stage thread only, {@link #close()} may be called by a shutdown hook, so the write methods are synchronized.
+ */
+class StateJournal implements AutoCloseable {
+    private static final int SNAPSHOT_MAGIC = 0x4A504D53; // JPMS
+    private static final int JOURNAL_MAGIC = 0x4A504D4A; // JPMJ
+    private static final int VERSION = 1;
+    private static final byte INTERVAL = 1;
+    private static final byte METHOD_DEFINITION = 2;
+    private static final byte METHOD_ENERGY = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final long snapshotIntervalInNanos;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /**
+     * Method ids already defined in the current journal.
+     */
+    private final BitSet definedMethodIds = new BitSet();
+    private FileChannel journal;
+    private long generation;
+    private long lastSnapshotInNanos;
+
+    /**
+     * Energy of a method restored from the snapshot and journal.
+     */
+    static class MethodState {
+        final String name;
+        final String threadName;
+        long microJoules;
+        long lastUpdateInMillis;
+
+        MethodState(String name, String threadName) {
+            this.name = name;
+            this.threadName = threadName;
+        }
+    }
+
+    /**
+     * State restored from the snapshot and journal.
+     */
+    static class State {
+        long totalMicroJoules;
+        /**
+         * Energy of the methods no longer tracked, see {@link PowerStatistics#getEnergyConsumptionOfHeavyHitters()}.
+         */
+        long otherMethodsMicroJoules;
+        final Map<String, MethodState> methods = new LinkedHashMap<>();
+
+        MethodState method(String name, String threadName) {
+            return methods.computeIfAbsent(name, n -> new MethodState(n, threadName));
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param stateFile           base path of the snapshot and journal file
+     * @param snapshotIntervalInS interval to write a new snapshot and start a new journal
+     */
+    StateJournal(Path stateFile, long snapshotIntervalInS) {
+        this.snapshotFile = stateFile.resolveSibling(stateFile.getFileName() + ".snapshot");
+        this.journalFile = stateFile.resolveSibling(stateFile.getFileName() + ".journal");
+        this.snapshotIntervalInNanos = TimeUnit.SECONDS.toNanos(Math.max(1, snapshotIntervalInS));
+    }
+
+    /**
+     * Reads the snapshot and replays the journal of the same generation.
+     *
+     * @return restored state, empty if there is no state yet
+     */
+    State replay() {
+        State state = new State();
+        generation = 0L;
+        ByteBuffer snapshot = read(snapshotFile);
+        if (snapshot != null) {
+            try {
+                generation = readSnapshot(snapshot, state);
+            } catch (BufferUnderflowException | IllegalStateException ex) {
+                System.err.println("Ignoring corrupt state snapshot " + snapshotFile + ": " + ex.getLocalizedMessage());
+                return new State();
+            }
+        }
+        ByteBuffer journalContent = read(journalFile);
+        if (journalContent != null) {
+            replayJournal(journalContent, state);
+        }
+        return state;
+    }
+
+    /**
+     * Starts a new interval in the journal.
+     *
+     * @param timeInMillis     end of the interval
+     * @param totalMicroJoules energy of the application in the interval
+     */
+    synchronized void beginInterval(long timeInMillis, long totalMicroJoules) {
+        if (journal == null) {
+            return;
+        }
+        ensureRemaining(17);
+        buffer.put(INTERVAL).putLong(timeInMillis).putLong(totalMicroJoules);
+    }
+
+    /**
+     * Adds the energy of a method in the current interval to the journal.
+     *
+     * @param methodId          id of the method
+     * @param methodSymbolTable symbol table of the method id
+     * @param threadName        thread of the method
+     * @param microJoules       energy of the method in the interval
+     */
+    synchronized void addMethodEnergy(int methodId, MethodSymbolTable methodSymbolTable, String threadName, long microJoules) {
+        if (journal == null) {
+            return;
+        }
+        if (!definedMethodIds.get(methodId)) {
+            byte[] name = methodSymbolTable.getQualifiedName(methodId).getBytes(StandardCharsets.UTF_8);
+            byte[] thread = String.valueOf(threadName).getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(13 + name.length + thread.length);
+            buffer.put(METHOD_DEFINITION).putInt(methodId).putInt(name.length).put(name).putInt(thread.length).put(thread);
+            definedMethodIds.set(methodId);
+        }
+        ensureRemaining(13);
+        buffer.put(METHOD_ENERGY).putInt(methodId).putLong(microJoules);
+    }
+
+    /**
+     * Forgets the definition of a method id, e.g. if the method is no longer tracked and its id may be recycled, see {@link MethodSymbolTable}.
+     * The next energy of the id defines it again, replay maps the id to the latest definition.
+     *
+     * @param methodId id of the method
+     */
+    synchronized void forget(int methodId) {
+        definedMethodIds.clear(methodId);
+    }
+
+    /**
+     * Appends the records of the interval to the journal.
+     */
+    synchronized void endInterval() {
+        writeBuffer();
+    }
+
+    /**
+     * @param nowInNanos current {@link System#nanoTime()}
+     * @return <code>true</code> if the snapshot interval has elapsed
+     */
+    synchronized boolean isSnapshotDue(long nowInNanos) {
+        return journal != null && nowInNanos - lastSnapshotInNanos >= snapshotIntervalInNanos;
+    }
+
+    /**
+     * Writes a snapshot of the current state and starts a new, empty journal.
+     *
+     * @param totalMicroJoules        total energy of the application
+     * @param otherMethodsMicroJoules energy of the methods no longer tracked, stored as a method named {@value PowerStatistics#OTHER_METHODS}
+     * @param energyPerMethod         energy per method id
+     * @param methodSymbolTable       symbol table of the method ids
+     */
+    synchronized void snapshot(long totalMicroJoules, long otherMethodsMicroJoules, Map<Integer, MethodEnergy> energyPerMethod, MethodSymbolTable methodSymbolTable) {
+        writeBuffer();
+        long nextGeneration = generation + 1;
+        try {
+            writeSnapshot(nextGeneration, totalMicroJoules, otherMethodsMicroJoules, energyPerMethod, methodSymbolTable);
+            // from here on the old journal is contained in the snapshot
+            closeJournal();
+            journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            definedMethodIds.clear();
+            generation = nextGeneration;
+            buffer.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(generation);
+            writeBuffer();
+        } catch (IOException ex) {
+            System.err.println("Unable to write state snapshot " + snapshotFile + ": " + ex.getLocalizedMessage());
+        }
+        lastSnapshotInNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void close() {
+        writeBuffer();
+        closeJournal();
+    }
+
+    private long readSnapshot(ByteBuffer snapshot, State state) {
+        if (snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getInt() != VERSION) {
+            throw new IllegalStateException("unknown format");
+        }
+        long snapshotGeneration = snapshot.getLong();
+        state.totalMicroJoules = snapshot.getLong();
+        int methods = snapshot.getInt();
+        for (int i = 0; i < methods; i++) {
+            String name = readString(snapshot);
+            String threadName = readString(snapshot);
+            long microJoules = snapshot.getLong();
+            long lastUpdateInMillis = snapshot.getLong();
+            if (PowerStatistics.OTHER_METHODS.equals(name)) {
+                state.otherMethodsMicroJoules += microJoules;
+                continue;
+            }
+            MethodState method = state.method(name, threadName);
+            method.microJoules += microJoules;
+            method.lastUpdateInMillis = lastUpdateInMillis;
+        }
+        return snapshotGeneration;
+    }
+
+    private void replayJournal(ByteBuffer content, State state) {
+        try {
+            if (content.getInt() != JOURNAL_MAGIC || content.getInt() != VERSION || content.getLong() != generation) {
+                return; // older journal, already contained in the snapshot
+            }
+        } catch (BufferUnderflowException ex) {
+            return;
+        }
+        Map<Integer, MethodState> methodsById = new HashMap<>();
+        long intervalTimeInMillis = 0L;
+        while (content.hasRemaining()) {
+            int recordStart = content.position();
+            try {
+                byte type = content.get();
+                if (type == INTERVAL) {
+                    intervalTimeInMillis = content.getLong();
+                    state.totalMicroJoules += content.getLong();
+                } else if (type == METHOD_DEFINITION) {
+                    int methodId = content.getInt();
+                    methodsById.put(methodId, state.method(readString(content), readString(content)));
+                } else if (type == METHOD_ENERGY) {
+                    MethodState method = methodsById.get(content.getInt());
+                    long microJoules = content.getLong();
+                    if (method != null) {
+                        method.microJoules += microJoules;
+                        method.lastUpdateInMillis = Math.max(method.lastUpdateInMillis, intervalTimeInMillis);
+                    }
+                } else {
+                    throw new IllegalStateException("unknown record type " + type);
+                }
+            } catch (BufferUnderflowException | IllegalStateException ex) {
+                System.err.println("Ignoring incomplete state journal " + journalFile + " from byte " + recordStart);
+                return;
+            }
+        }
+    }
+
+    private void writeSnapshot(long snapshotGeneration, long totalMicroJoules, long otherMethodsMicroJoules, Map<Integer, MethodEnergy> energyPerMethod,
+                               MethodSymbolTable methodSymbolTable) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(snapshotGeneration);
+        out.writeLong(totalMicroJoules);
+        Collection<Map.Entry<Integer, MethodEnergy>> entries = energyPerMethod.entrySet();
+        ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+        DataOutputStream methods = new DataOutputStream(methodBytes);
+        int count = 0;
+        for (Map.Entry<Integer, MethodEnergy> entry : entries) {
+            MethodEnergy methodEnergy = entry.getValue();
+            writeString(methods, methodSymbolTable.getQualifiedName(entry.getKey()));
+            writeString(methods, methodEnergy.getThreadName());
+            methods.writeLong(methodEnergy.getMicroJoules());
+            methods.writeLong(methodEnergy.getLastUpdateInMillis());
+            count++;
+        }
+        if (otherMethodsMicroJoules > 0) {
+            writeString(methods, PowerStatistics.OTHER_METHODS);
+            writeString(methods, "");
+            methods.writeLong(otherMethodsMicroJoules);
+            methods.writeLong(0L);
+            count++;
+        }
+        out.writeInt(count);
+        methodBytes.writeTo(out);
+        out.flush();
+
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() < bytes) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            if (journal != null) {
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Unable to append to state journal " + journalFile + ": " + ex.getLocalizedMessage());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                System.err.println(ex.getLocalizedMessage());
+            }
+            journal = null;
+        }
+    }
+
+    private static ByteBuffer read(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return null;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + size + " bytes");
+            }
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining()) {
+                if (channel.read(content) < 0) {
+                    break; // truncated meanwhile, replay what has been read
+                }
+            }
+            return content.flip();
+        } catch (IOException ex) {
+            System.err.println("Unable to read state file " + file + ": " + ex.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer content) {
+        int length = content.getInt();
+        if (length < 0 || length > content.remaining()) {
+            throw new IllegalStateException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        content.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
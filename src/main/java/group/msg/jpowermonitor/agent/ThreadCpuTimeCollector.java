@@ -0,0 +1,22 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Strategy for reading the CPU time of all application threads once per measurement interval.
+ *
+ * @see CpuAndThreadUtils#resolveThreadCpuTimeCollector(group.msg.jpowermonitor.config.JavaAgent, java.lang.management.ThreadMXBean)
+ */
+interface ThreadCpuTimeCollector {
+    /**
+     * Reads the cumulative CPU time of all live threads and updates the registry.
+     *
+     * @param cpuTimePerApplicationThread registry of CPU time per thread id
+     * @return total CPU time of all application threads in the current interval in nanoseconds
+     */
+    long collect(ThreadCpuTimeRegistry cpuTimePerApplicationThread);
+
+    /**
+     * Releases the resources of the collector (e.g. open files), called when the measurement ends.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,108 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * CPU time per application thread, keyed by thread id in a {@link ThreadIdMap}.
+ * <br><br>
+ * For each thread the last cumulative CPU time and the CPU time consumed in the current interval are stored in an entry,
+ * allocated once per thread and updated in place.
+ * Threads that have not been updated in an interval are terminated and get evicted by {@link #evictTerminatedThreads()},
+ * so the table does not grow in applications with changing thread pools.
+ * <br><br>
+ * Not thread safe. Only used by the attribution stage thread of {@link PowerStatistics}: the CPU times are read when an interval is attributed.
+ */
+class ThreadCpuTimeRegistry {
+    private static final int INITIAL_CAPACITY = 64;
+    private final ThreadIdMap<ThreadCpuTime> threads = new ThreadIdMap<>(INITIAL_CAPACITY);
+    private int interval;
+
+    /**
+     * Consumer for the CPU time of one thread.
+     */
+    interface ThreadCpuTimeConsumer {
+        void accept(long threadId, long cpuTimeInInterval);
+    }
+
+    private static class ThreadCpuTime {
+        private long cumulativeCpuTime;
+        private long cpuTimeInInterval;
+        private int lastUpdatedInInterval;
+    }
+
+    /**
+     * Starts a new interval, all following updates belong to this interval.
+     */
+    void startInterval() {
+        interval++;
+    }
+
+    /**
+     * Updates the cumulative CPU time of a thread.
+     *
+     * @param threadId          id of the thread, must be positive
+     * @param cumulativeCpuTime CPU time of the thread since its start in nanoseconds
+     * @return CPU time consumed by the thread since the last update in nanoseconds, or the cumulative CPU time if the thread is new
+     */
+    long update(long threadId, long cumulativeCpuTime) {
+        ThreadCpuTime thread = threads.get(threadId);
+        if (thread == null) {
+            thread = new ThreadCpuTime();
+            threads.put(threadId, thread);
+        }
+        long cpuTimeInInterval = Math.max(0L, cumulativeCpuTime - thread.cumulativeCpuTime);
+        thread.cumulativeCpuTime = cumulativeCpuTime;
+        thread.cpuTimeInInterval = cpuTimeInInterval;
+        thread.lastUpdatedInInterval = interval;
+        return cpuTimeInInterval;
+    }
+
+    /**
+     * @param threadId id of the thread
+     * @return CPU time consumed by the thread in the current interval in nanoseconds, <code>0</code> if the thread is unknown
+     */
+    long getCpuTimeInInterval(long threadId) {
+        ThreadCpuTime thread = threads.get(threadId);
+        return thread != null && thread.lastUpdatedInInterval == interval ? thread.cpuTimeInInterval : 0L;
+    }
+
+    /**
+     * Calls the consumer for each thread updated in the current interval.
+     *
+     * @param consumer consumer of thread id and CPU time in the current interval
+     */
+    void forEach(ThreadCpuTimeConsumer consumer) {
+        for (int slot = 0; slot < threads.capacity(); slot++) {
+            ThreadCpuTime thread = threads.valueAt(slot);
+            if (thread != null && thread.lastUpdatedInInterval == interval) {
+                consumer.accept(threads.threadIdAt(slot), thread.cpuTimeInInterval);
+            }
+        }
+    }
+
+    /**
+     * Removes all threads that have not been updated in the current interval.
+     *
+     * @return number of evicted threads
+     */
+    int evictTerminatedThreads() {
+        int evicted = 0;
+        int slot = 0;
+        while (slot < threads.capacity()) {
+            ThreadCpuTime thread = threads.valueAt(slot);
+            if (thread != null && thread.lastUpdatedInInterval != interval) {
+                threads.removeAt(slot);
+                evicted++;
+                // an entry following in the probe sequence may have been shifted to this slot, so check it again
+            } else {
+                slot++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return number of threads currently registered
+     */
+    int size() {
+        return threads.size();
+    }
+}
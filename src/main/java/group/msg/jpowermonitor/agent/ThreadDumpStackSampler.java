@@ -0,0 +1,41 @@
+package group.msg.jpowermonitor.agent;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Samples the stacks of all live threads with one single {@link ThreadMXBean#dumpAllThreads(boolean, boolean, int)} call,
+ * thus only one safepoint per sample is needed, regardless of the number of threads.<br>
+ * The stack depth may be limited with <code>javaAgent.maxStackDepth</code>: only the topmost frames are captured then,
+ * a filtered method deeper in the stack will not be found.
+ *
+ * @see PerThreadStackSampler
+ */
+class ThreadDumpStackSampler implements StackSampler {
+    private final ThreadMXBean threadMXBean;
+    private final MethodSymbolTable methodSymbolTable;
+    private final int maxStackDepth;
+
+    /**
+     * Constructor
+     *
+     * @param threadMXBean      bean to dump the threads with
+     * @param methodSymbolTable symbol table to intern the sampled methods in
+     * @param maxStackDepth     maximum number of frames per thread, <code>0</code> for unlimited
+     */
+    ThreadDumpStackSampler(ThreadMXBean threadMXBean, MethodSymbolTable methodSymbolTable, int maxStackDepth) {
+        this.threadMXBean = threadMXBean;
+        this.methodSymbolTable = methodSymbolTable;
+        this.maxStackDepth = maxStackDepth > 0 ? maxStackDepth : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void sample(SampleHistograms sampleHistograms) {
+        for (ThreadInfo threadInfo : threadMXBean.dumpAllThreads(false, false, maxStackDepth)) {
+            // Only consider threads that are currently running (not waiting or blocked)
+            if (threadInfo != null && Thread.State.RUNNABLE == threadInfo.getThreadState()) {
+                sampleHistograms.addStack(methodSymbolTable, threadInfo.getThreadId(), threadInfo.getThreadName(), threadInfo.getStackTrace());
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package group.msg.jpowermonitor.agent;
+
+/**
+ * Map of thread ids to values, implemented as open addressing hash table with linear probing on a primitive <code>long</code> array,
+ * thus the thread ids are not boxed. Removed entries are not marked with tombstones, the following entries of the probe sequence
+ * are shifted back instead.
+ * <br><br>
+ * The slots are iterated from <code>0</code> to {@link #capacity()}, a free slot has the thread id {@link #FREE}.
+ * After {@link #removeAt(int)} a following entry may have been shifted to the same slot, so the slot must be checked again.
+ * <br><br>
+ * Not thread safe.
+ *
+ * @param <V> type of the values
+ */
+class ThreadIdMap<V> {
+    static final long FREE = 0L; // thread ids are always positive
+    private long[] threadIds;
+    private Object[] values;
+    private int size;
+
+    /**
+     * @param initialCapacity initial number of slots, a power of two
+     */
+    ThreadIdMap(int initialCapacity) {
+        allocate(initialCapacity);
+    }
+
+    /**
+     * @param threadId id of the thread
+     * @return value of the thread, <code>null</code> if the thread is unknown
+     */
+    @SuppressWarnings("unchecked")
+    V get(long threadId) {
+        int slot = slotOf(threadId);
+        return threadIds[slot] == threadId ? (V) values[slot] : null;
+    }
+
+    /**
+     * Sets the value of a thread, the capacity is doubled at a load factor of 0.75.
+     *
+     * @param threadId id of the thread, must be positive
+     * @param value    value of the thread
+     */
+    void put(long threadId, V value) {
+        if (threadId <= FREE) {
+            throw new IllegalArgumentException("threadId must be positive: " + threadId);
+        }
+        int slot = slotOf(threadId);
+        if (threadIds[slot] == FREE) {
+            if ((size + 1) * 4 > threadIds.length * 3) {
+                rehash(threadIds.length * 2);
+                slot = slotOf(threadId);
+            }
+            threadIds[slot] = threadId;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * @return number of slots
+     */
+    int capacity() {
+        return threadIds.length;
+    }
+
+    /**
+     * @param slot slot index
+     * @return thread id in the slot, {@link #FREE} if the slot is free
+     */
+    long threadIdAt(int slot) {
+        return threadIds[slot];
+    }
+
+    /**
+     * @param slot slot index
+     * @return value in the slot, <code>null</code> if the slot is free
+     */
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * Removes the entry in the slot and shifts back following entries of the probe sequence.
+     *
+     * @param slot slot index of an entry
+     */
+    void removeAt(int slot) {
+        int mask = threadIds.length - 1;
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (threadIds[next] != FREE) {
+            int home = hash(threadIds[next]) & mask;
+            // move the entry to the free slot if its home slot is not cyclically located in (free, next]
+            if (free <= next ? (home <= free || home > next) : (home <= free && home > next)) {
+                threadIds[free] = threadIds[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        threadIds[free] = FREE;
+        values[free] = null;
+        size--;
+    }
+
+    /**
+     * @return number of threads
+     */
+    int size() {
+        return size;
+    }
+
+    private int slotOf(long threadId) {
+        int mask = threadIds.length - 1;
+        int slot = hash(threadId) & mask;
+        while (threadIds[slot] != FREE && threadIds[slot] != threadId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long threadId) {
+        long h = threadId * 0x9E3779B97F4A7C15L; // fibonacci hashing, thread ids are mostly consecutive
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldThreadIds = threadIds;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldThreadIds.length; i++) {
+            if (oldThreadIds[i] != FREE) {
+                int slot = slotOf(oldThreadIds[i]);
+                threadIds[slot] = oldThreadIds[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        threadIds = new long[capacity];
+        values = new Object[capacity];
+    }
+}
@@ -0,0 +1,155 @@
+package group.msg.jpowermonitor.agent;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Number of samples per sampled method of one thread in the current interval.<br>
+ * A method is counted by the pair of its method id and the id of its first filtered method, see {@link MethodSymbolTable}.
+ * If the call tree is enabled, the samples are counted per call tree node as well, see {@link CallTree}.
+ * The histogram is cleared in place at the end of each interval and reused, thus counting a sample does not allocate.
+ */
+class ThreadSampleHistogram {
+    @Getter
+    private String threadName;
+    private final CountTable methodCounts = new CountTable();
+    private final CountTable callTreeNodeCounts = new CountTable();
+    /**
+     * Number of samples of the thread in the current interval.
+     */
+    @Getter
+    private int samples;
+    /**
+     * Number of consecutive intervals without samples, maintained by {@link SampleHistograms} to evict idle threads.
+     */
+    int idleIntervals;
+
+    /**
+     * Consumer of the sample count per method.
+     */
+    @FunctionalInterface
+    interface MethodCountConsumer {
+        void accept(int methodId, int filteredMethodId, int count);
+    }
+
+    /**
+     * Consumer of the sample count per call tree node.
+     */
+    @FunctionalInterface
+    interface CallTreeNodeCountConsumer {
+        void accept(int node, int count);
+    }
+
+    ThreadSampleHistogram(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Counts one sample.
+     *
+     * @param threadName       current name of the thread, threads may be renamed
+     * @param methodId         id of the topmost method
+     * @param filteredMethodId id of the topmost filtered method, {@link MethodSymbolTable#NO_METHOD} if none
+     * @param callTreeNode     call tree node of the sampled stack, {@link CallTree#NO_NODE} if the call tree is disabled
+     */
+    void add(String threadName, int methodId, int filteredMethodId, int callTreeNode) {
+        this.threadName = threadName;
+        samples++;
+        methodCounts.increment(((long) methodId << 32) | (filteredMethodId & 0xFFFFFFFFL));
+        if (callTreeNode != CallTree.NO_NODE) {
+            callTreeNodeCounts.increment(callTreeNode);
+        }
+    }
+
+    void forEach(MethodCountConsumer consumer) {
+        long[] keys = methodCounts.keys;
+        for (int slot = 0; slot < keys.length; slot++) {
+            long key = keys[slot];
+            if (key != CountTable.FREE) {
+                consumer.accept((int) (key >>> 32), (int) key, methodCounts.counts[slot]);
+            }
+        }
+    }
+
+    void forEachCallTreeNode(CallTreeNodeCountConsumer consumer) {
+        long[] keys = callTreeNodeCounts.keys;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != CountTable.FREE) {
+                consumer.accept((int) keys[slot], callTreeNodeCounts.counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Removes all counts, keeps the capacity.
+     */
+    void clear() {
+        methodCounts.clear();
+        callTreeNodeCounts.clear();
+        samples = 0;
+    }
+
+    /**
+     * Open addressing hash table with linear probing of non-negative <code>long</code> keys to <code>int</code> counts.
+     */
+    private static class CountTable {
+        private static final long FREE = -1L; // keys are never negative
+        private static final int INITIAL_CAPACITY = 16;
+        private long[] keys = newKeys(INITIAL_CAPACITY);
+        private int[] counts = new int[INITIAL_CAPACITY];
+        private int size;
+
+        private void increment(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != FREE) {
+                if (keys[slot] == key) {
+                    counts[slot]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            counts[slot] = 1;
+            if (++size > keys.length * 3 / 4) {
+                rehash(keys.length * 2);
+            }
+        }
+
+        private void clear() {
+            if (size > 0) {
+                Arrays.fill(keys, FREE);
+                size = 0;
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = newKeys(capacity);
+            counts = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (keys[slot] != FREE) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            return Long.hashCode(key * 0x9E3779B97F4A7C15L);
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, FREE);
+            return keys;
+        }
+    }
+}
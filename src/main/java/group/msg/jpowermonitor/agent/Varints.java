@@ -0,0 +1,63 @@
+package group.msg.jpowermonitor.agent;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of integers (unsigned LEB128): 7 bits per byte, the highest bit marks that more bytes follow.
+ * Signed values, e.g. deltas, are zigzag encoded first, so small negative values are short as well.
+ */
+final class Varints {
+    /**
+     * Maximum number of bytes of an encoded long.
+     */
+    static final int MAX_LENGTH = 10;
+
+    private Varints() {
+    }
+
+    static void putUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void putSigned(ByteBuffer buffer, long value) {
+        putUnsigned(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @throws BufferUnderflowException if the buffer ends within the value
+     * @throws IllegalStateException    if the value is longer than {@link #MAX_LENGTH} bytes
+     */
+    static long getUnsigned(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    static long getSigned(ByteBuffer buffer) {
+        long value = getUnsigned(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return value as int
+     * @throws IllegalStateException if the value does not fit into an int
+     */
+    static int getUnsignedInt(ByteBuffer buffer) {
+        long value = getUnsigned(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("invalid length or id " + value);
+        }
+        return (int) value;
+    }
+}
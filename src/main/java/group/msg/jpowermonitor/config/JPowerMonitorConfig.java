@@ -45,6 +45,18 @@ public class JPowerMonitorConfig {
                 || pathElems.get(0).getPath().isEmpty()) {
                 throw new JPowerMonitorException("At least one path to a sensor value must be configured under paths");
             }
+        } else if ("rapl".equals(measurement.getMethod())) {
+            setDefaultIfNotSet(measurement.getRapl(), measurement::setRapl, new RaplCfg());
+            if (measurement.getRapl().getDomains() == null || measurement.getRapl().getDomains().isEmpty()) {
+                RaplDomain packageDomain = new RaplDomain();
+                packageDomain.setName("package");
+                measurement.getRapl().setDomains(List.of(packageDomain));
+            }
+        } else if ("model".equals(measurement.getMethod())) {
+            setDefaultIfNotSet(measurement.getModel(), measurement::setModel, new PowerModelCfg());
+            if (measurement.getModel().getHostTypes() == null || !measurement.getModel().getHostTypes().containsKey(measurement.getModel().getHostType())) {
+                throw new JPowerMonitorException("A power curve for host type '" + measurement.getModel().getHostType() + "' must be configured under hostTypes");
+            }
         } else {
             if (measurement.getCsv() == null || measurement.getCsv().getInputFile() == null || measurement.getCsv().getColumns() == null || measurement.getCsv().getColumns().size() == 0) {
                 throw new JPowerMonitorException("CSV input filepath and columns must be configured");
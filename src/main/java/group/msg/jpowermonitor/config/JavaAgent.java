@@ -2,6 +2,7 @@ package group.msg.jpowermonitor.config;
 
 import lombok.Data;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -13,4 +14,19 @@ public class JavaAgent {
     private long measurementIntervalInMs;
     private long gatherStatisticsIntervalInMs;
     private long writeEnergyMeasurementsToCsvIntervalInS;
+    private String stackSampler = "threadDump";
+    private int maxStackDepth;
+    private String cpuTimeCollector = "jmxBulk";
+    private String powerAttribution = "full";
+    private boolean writeCallTree;
+    private String powerOutputFormat = "csv";
+    private long powerCsvFlushIntervalInS = 10;
+    private long powerCsvFsyncIntervalInS;
+    private String stateFile;
+    private long stateSnapshotIntervalInS = 60;
+    private long powerHistoryRetentionInS;
+    private long powerHistoryMaxMemoryInKb = 16384;
+    private int maxTrackedMethods;
+    private List<Integer> energyWindowsInS;
+    private int energyWindowsTopMethods = 20;
 }
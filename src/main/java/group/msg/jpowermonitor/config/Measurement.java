@@ -7,10 +7,14 @@ import lombok.Data;
  *
  * @see CsvMeasurementCfg
  * @see LibreHardwareMonitorCfg
+ * @see RaplCfg
+ * @see PowerModelCfg
  */
 @Data
 public class Measurement {
     private String method;
     private CsvMeasurementCfg csv;
     private LibreHardwareMonitorCfg lhm;
+    private RaplCfg rapl;
+    private PowerModelCfg model;
 }
@@ -0,0 +1,19 @@
+package group.msg.jpowermonitor.config;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Data class for the power curve of a host type: either linear from <code>idleInWatts</code> to <code>maxInWatts</code>,
+ * or piecewise linear through the given <code>points</code>.
+ *
+ * @see PowerModelCfg
+ */
+@Data
+public class PowerCurve {
+    private BigDecimal idleInWatts;
+    private BigDecimal maxInWatts;
+    private List<PowerCurvePoint> points;
+}
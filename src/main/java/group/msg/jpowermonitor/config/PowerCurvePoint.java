@@ -0,0 +1,16 @@
+package group.msg.jpowermonitor.config;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Data class for a point of a piecewise power curve: power at a CPU utilization in percent.
+ *
+ * @see PowerCurve
+ */
+@Data
+public class PowerCurvePoint {
+    private BigDecimal utilization;
+    private BigDecimal powerInWatts;
+}
@@ -0,0 +1,20 @@
+package group.msg.jpowermonitor.config;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Data class for the CPU utilization power model config, for hosts without a power sensor.
+ *
+ * @see PowerCurve
+ */
+@Data
+public class PowerModelCfg {
+    private String procStat = "/proc/stat";
+    private String name = "CPU Power (estimated from CPU utilization)";
+    private String hostType = "default";
+    private Map<String, PowerCurve> hostTypes;
+    private BigDecimal energyInIdleMode;
+}
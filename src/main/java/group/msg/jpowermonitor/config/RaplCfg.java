@@ -0,0 +1,16 @@
+package group.msg.jpowermonitor.config;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Data class for the Linux RAPL (running average power limit) powercap measurement config.
+ *
+ * @see RaplDomain
+ */
+@Data
+public class RaplCfg {
+    private String path = "/sys/class/powercap";
+    private List<RaplDomain> domains;
+}
@@ -0,0 +1,16 @@
+package group.msg.jpowermonitor.config;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Data class for a RAPL domain config, e.g. <code>package</code>, <code>core</code>, <code>uncore</code> or <code>dram</code>.
+ *
+ * @see RaplCfg
+ */
+@Data
+public class RaplDomain {
+    private String name;
+    private BigDecimal energyInIdleMode;
+}
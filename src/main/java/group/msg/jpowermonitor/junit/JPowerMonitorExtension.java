@@ -12,6 +12,7 @@ import group.msg.jpowermonitor.dto.SensorValues;
 import group.msg.jpowermonitor.util.Constants;
 import group.msg.jpowermonitor.util.HumanReadableTime;
 import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.extension.AfterAllCallback;
 import org.junit.jupiter.api.extension.AfterTestExecutionCallback;
 import org.junit.jupiter.api.extension.BeforeAllCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
@@ -39,7 +40,7 @@ import static group.msg.jpowermonitor.util.Constants.MATH_CONTEXT;
  * Implements AfterTestExecutionCallback in order to be able to access results in the @AfterEach method in the test class.
  * AfterEachCallback would be too late, since @AfterEach is called before this callback.
  */
-public class JPowerMonitorExtension implements BeforeAllCallback, BeforeEachCallback, AfterTestExecutionCallback {
+public class JPowerMonitorExtension implements BeforeAllCallback, BeforeEachCallback, AfterTestExecutionCallback, AfterAllCallback {
     private final Map<String, List<DataPoint>> powerMeasurements = new HashMap<>();
     private Timer timer;
     private TimerTask timedMeasurement;
@@ -101,6 +102,11 @@ public class JPowerMonitorExtension implements BeforeAllCallback, BeforeEachCall
         setSensorValueIntoAnnotatedFields(context, sensorValues);
     }
 
+    @Override
+    public void afterAll(ExtensionContext context) {
+        measureMethod.close();
+    }
+
     private void logSensorValue(String testName, SensorValue sensorValue) {
         if (sensorValue.isPowerSensor()) {
             System.out.printf("%s: energy consumption for %s is %s %s, that is %s Wh for %s%n", testName, sensorValue.getName(), sensorValue.getValue(),
@@ -4,6 +4,7 @@ import group.msg.jpowermonitor.JPowerMonitorException;
 import group.msg.jpowermonitor.agent.Unit;
 import group.msg.jpowermonitor.dto.DataPoint;
 import group.msg.jpowermonitor.dto.SensorValue;
+import group.msg.jpowermonitor.util.CsvRowEncoder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -13,13 +14,10 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
 
-import static group.msg.jpowermonitor.util.Constants.DATE_TIME_FORMATTER;
 import static group.msg.jpowermonitor.util.Constants.NEW_LINE;
 import static group.msg.jpowermonitor.util.Converter.convertJouleToCarbonDioxideGrams;
 import static group.msg.jpowermonitor.util.Converter.convertWattHoursToJoule;
@@ -32,26 +30,16 @@ public class ResultsWriter {
         setLocaleDependentValues();
     }
 
-    private static DecimalFormat DECIMAL_FORMAT;
     private final Path pathToMeasurementCsv, pathToResultCsv;
     private final BigDecimal carbonDioxideEmissionFactor;
     private static ResourceBundle labels;
-    private static String dataPointFormatCsv, nonPowerSensorResultFormatCsv, powerSensorResultFormatCsv, SEP;
-    private static final String DATA_POINT_FORMAT = "%s;%s;%s;%s;%s%s";
-    private static final String NON_POWER_SENSOR_RESULT_FORMAT = "%s;%s;%s;%s;%s;%s";
-    private static final String POWER_SENSOR_RESULT_FORMAT = "%s;%s;%s;%s;%s;%s;%s;%s;%s;%s;%s;%s;%s;%s;%s;%s";
+    private static volatile CsvRowEncoder csv;
+    private static String SEP;
 
     public static void setLocaleDependentValues() {
         labels = ResourceBundle.getBundle("csvExport", Locale.getDefault());
-        SEP = Locale.getDefault().getCountry().toLowerCase(Locale.ROOT).equals("de") ? ";" : ",";
-        dataPointFormatCsv = setCorrectDelimiter(DATA_POINT_FORMAT);
-        nonPowerSensorResultFormatCsv = setCorrectDelimiter(NON_POWER_SENSOR_RESULT_FORMAT);
-        powerSensorResultFormatCsv = setCorrectDelimiter(POWER_SENSOR_RESULT_FORMAT);
-        DECIMAL_FORMAT = new DecimalFormat("###0.#####", DecimalFormatSymbols.getInstance(Locale.getDefault()));
-    }
-
-    private static String setCorrectDelimiter(String format) {
-        return Locale.getDefault().getCountry().toLowerCase(Locale.ROOT).equals("de") ? format : format.replace(';', ',');
+        csv = CsvRowEncoder.forLocale(Locale.getDefault());
+        SEP = String.valueOf(csv.getSeparator());
     }
 
     public ResultsWriter(@Nullable Path pathToResultCsv, @Nullable Path pathToMeasurementCsv, @Nullable BigDecimal carbonDioxideEmissionFactor) {
@@ -103,12 +91,14 @@ public class ResultsWriter {
     }
 
     public static String createCsvEntryForDataPoint(@NotNull DataPoint dp, String namePrefix, String testName) {
-        return String.format(dataPointFormatCsv,
-            DATE_TIME_FORMATTER.format(dp.getTime()),
-            namePrefix + testName,
-            dp.getName(),
-            DECIMAL_FORMAT.format(dp.getValue()),
-            dp.getUnit(), NEW_LINE);
+        CsvRowEncoder encoder = csv;
+        StringBuilder row = new StringBuilder(128);
+        encoder.appendTime(row, dp.getTime()).append(encoder.getSeparator());
+        row.append(namePrefix).append(testName).append(encoder.getSeparator());
+        encoder.appendText(row, dp.getName()).append(encoder.getSeparator());
+        encoder.appendDecimal(row, dp.getValue()).append(encoder.getSeparator());
+        encoder.appendText(row, dp.getUnit());
+        return row.append(NEW_LINE).toString();
     }
 
     public void writeToResultCsv(String testName, SensorValue sensorValue) {
@@ -120,38 +110,31 @@ public class ResultsWriter {
     }
 
     private String createCsvEntryForSensorValue(String testName, SensorValue sensorValue) {
-        String csvEntry;
+        CsvRowEncoder encoder = csv;
+        char sep = encoder.getSeparator();
+        StringBuilder row = new StringBuilder(256);
+        encoder.appendTime(row, sensorValue.getExecutionTime()).append(sep);
+        encoder.appendText(row, testName).append(sep);
+        encoder.appendText(row, sensorValue.getName()).append(sep);
+        encoder.appendDecimal(row, sensorValue.getValue()).append(sep);
+        encoder.appendText(row, sensorValue.getUnit());
         if (sensorValue.isPowerSensor()) { // only power values=>
             BigDecimal valueWithoutIdlePowerJ = convertWattHoursToJoule(sensorValue.getValueWithoutIdlePowerPerHour());
             BigDecimal valueWithIdlePowerJ = convertWattHoursToJoule(sensorValue.getValueWithIdlePowerPerHour());
             BigDecimal co2Equivalent = convertJouleToCarbonDioxideGrams(sensorValue.getValueWithIdlePowerPerHour(), carbonDioxideEmissionFactor);
-            csvEntry = String.format(powerSensorResultFormatCsv,
-                DATE_TIME_FORMATTER.format(sensorValue.getExecutionTime()),
-                testName,
-                sensorValue.getName(),
-                formatNumber(sensorValue.getValue()),
-                sensorValue.getUnit(),
-                formatNumber(sensorValue.getPowerInIdleMode()),
-                sensorValue.getUnit(),
-                formatNumber(sensorValue.getValue().add(sensorValue.getPowerInIdleMode())),
-                sensorValue.getUnit(),
-                formatNumber(valueWithoutIdlePowerJ),
-                Unit.JOULE.getAbbreviation(),
-                formatNumber(valueWithIdlePowerJ),
-                Unit.JOULE.getAbbreviation(),
-                formatNumber(co2Equivalent),
-                Unit.GRAMS_CO2.getAbbreviation(),
-                NEW_LINE);
-        } else {
-            csvEntry = String.format(nonPowerSensorResultFormatCsv, DATE_TIME_FORMATTER.format(sensorValue.getExecutionTime()), testName,
-                sensorValue.getName(), formatNumber(sensorValue.getValue()), sensorValue.getUnit(), NEW_LINE);
+            row.append(sep);
+            encoder.appendDecimal(row, sensorValue.getPowerInIdleMode()).append(sep);
+            encoder.appendText(row, sensorValue.getUnit()).append(sep);
+            encoder.appendDecimal(row, sensorValue.getValue().add(sensorValue.getPowerInIdleMode())).append(sep);
+            encoder.appendText(row, sensorValue.getUnit()).append(sep);
+            encoder.appendDecimal(row, valueWithoutIdlePowerJ).append(sep);
+            encoder.appendText(row, Unit.JOULE.getAbbreviation()).append(sep);
+            encoder.appendDecimal(row, valueWithIdlePowerJ).append(sep);
+            encoder.appendText(row, Unit.JOULE.getAbbreviation()).append(sep);
+            encoder.appendDecimal(row, co2Equivalent).append(sep);
+            encoder.appendText(row, Unit.GRAMS_CO2.getAbbreviation());
         }
-        return csvEntry;
-    }
-
-    @NotNull
-    private String formatNumber(BigDecimal val) {
-        return DECIMAL_FORMAT.format(val);
+        return row.append(sep).append(NEW_LINE).toString(); // result rows end with a separator
     }
 
     private void appendToFile(@NotNull Path path, @NotNull String lineToAppend) {
@@ -0,0 +1,228 @@
+package group.msg.jpowermonitor.measurement.model;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.MeasureMethod;
+import group.msg.jpowermonitor.agent.Unit;
+import group.msg.jpowermonitor.config.JPowerMonitorConfig;
+import group.msg.jpowermonitor.config.PowerCurve;
+import group.msg.jpowermonitor.config.PowerCurvePoint;
+import group.msg.jpowermonitor.config.PowerModelCfg;
+import group.msg.jpowermonitor.dto.DataPoint;
+import group.msg.jpowermonitor.util.ProcStatReader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measure method for hosts without a power sensor (e.g. virtual machines and containers): the power is <b>estimated</b>
+ * from the CPU utilization of the node read from <code>/proc/stat</code> and the power curve configured for the host type.
+ * The curve is either linear from the idle to the maximum power, or piecewise linear through measured points.
+ * <br><br>
+ * The estimate is only as good as the curve: it does not see the power of memory, disks and other components, frequency scaling,
+ * nor the power of other virtual machines on the same physical host. The data point is named accordingly (see
+ * {@link PowerModelCfg#getName()}) and the curve is printed in the startup banner (see {@link #describe()}).
+ * <br><br>
+ * A measurement reads the first line of <code>/proc/stat</code> with a positional read into a reused buffer and interpolates the curve,
+ * so it is cheap enough for sampling intervals of 10 ms. The file is kept open until {@link #close()}.
+ * The utilization is only updated when the CPUs accumulated at least {@value #MIN_TICKS} clock ticks since the last update,
+ * shorter intervals return the previous estimate.
+ *
+ * @see MeasureMethod
+ */
+public class CpuUtilizationPowerModel implements MeasureMethod {
+    static final int MIN_TICKS = 10;
+    private final JPowerMonitorConfig config;
+    private final PowerModelCfg modelConfig;
+    private final ProcStatReader procStat;
+    /**
+     * Points of the curve: utilization (0..1) and power in watts, sorted by utilization.
+     */
+    private final double[] utilization;
+    private final double[] powerInWatts;
+    private long lastTotalTicks;
+    private long lastBusyTicks;
+    private BigDecimal lastPowerInWatts;
+
+    public CpuUtilizationPowerModel(JPowerMonitorConfig config) {
+        this.config = config;
+        this.modelConfig = config.getMeasurement().getModel();
+        PowerCurve curve = modelConfig.getHostTypes().get(modelConfig.getHostType());
+        List<double[]> points = toPoints(curve);
+        this.utilization = new double[points.size()];
+        this.powerInWatts = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            utilization[i] = points.get(i)[0];
+            powerInWatts[i] = points.get(i)[1];
+        }
+        try {
+            this.procStat = new ProcStatReader(Paths.get(modelConfig.getProcStat()));
+        } catch (IOException e) {
+            throw cannotRead(e);
+        }
+        try {
+            procStat.read();
+        } catch (IOException e) {
+            close();
+            throw cannotRead(e);
+        }
+        lastTotalTicks = procStat.getTotalTicks();
+        lastBusyTicks = procStat.getBusyTicks();
+        lastPowerInWatts = toBigDecimal(powerInWatts[0]);
+    }
+
+    private List<double[]> toPoints(PowerCurve curve) {
+        if (curve == null) {
+            throw new JPowerMonitorException("No power curve configured for host type '" + modelConfig.getHostType() + "' under measurement -> model -> hostTypes");
+        }
+        List<double[]> points = new ArrayList<>();
+        if (curve.getPoints() != null && !curve.getPoints().isEmpty()) {
+            for (PowerCurvePoint point : curve.getPoints()) {
+                if (point.getUtilization() == null || point.getPowerInWatts() == null
+                    || point.getUtilization().signum() < 0 || point.getUtilization().compareTo(new BigDecimal("100")) > 0) {
+                    throw new JPowerMonitorException("Power curve of host type '" + modelConfig.getHostType() + "' needs utilization (0-100) and powerInWatts for each point");
+                }
+                points.add(new double[]{point.getUtilization().doubleValue() / 100.0, point.getPowerInWatts().doubleValue()});
+            }
+            points.sort(Comparator.comparingDouble(point -> point[0]));
+        } else if (curve.getIdleInWatts() != null && curve.getMaxInWatts() != null) {
+            points.add(new double[]{0.0, curve.getIdleInWatts().doubleValue()});
+            points.add(new double[]{1.0, curve.getMaxInWatts().doubleValue()});
+        } else {
+            throw new JPowerMonitorException("Power curve of host type '" + modelConfig.getHostType() + "' needs idleInWatts and maxInWatts or points");
+        }
+        return points;
+    }
+
+    /**
+     * @return the power curve, printed in the startup banner so the estimates can be judged
+     */
+    @Override
+    public @NotNull String describe() {
+        return "No power sensor: power is estimated from the CPU utilization with the curve of host type '" + modelConfig.getHostType() + "' "
+            + curveToString() + ", energy values are estimates";
+    }
+
+    private String curveToString() {
+        StringBuilder curve = new StringBuilder("[");
+        for (int i = 0; i < utilization.length; i++) {
+            curve.append(i > 0 ? ", " : "").append(Math.round(utilization[i] * 100)).append("%: ").append(powerInWatts[i]).append(" W");
+        }
+        return curve.append(']').toString();
+    }
+
+    /**
+     * @param cpuUtilization utilization of all CPUs (0..1)
+     * @return power in watts, linearly interpolated between the points of the curve and constant outside
+     */
+    double estimatePowerInWatts(double cpuUtilization) {
+        if (cpuUtilization <= utilization[0]) {
+            return powerInWatts[0];
+        }
+        for (int i = 1; i < utilization.length; i++) {
+            if (cpuUtilization <= utilization[i]) {
+                double fraction = (cpuUtilization - utilization[i - 1]) / (utilization[i] - utilization[i - 1]);
+                return powerInWatts[i - 1] + fraction * (powerInWatts[i] - powerInWatts[i - 1]);
+            }
+        }
+        return powerInWatts[powerInWatts.length - 1];
+    }
+
+    private static BigDecimal toBigDecimal(double watts) {
+        return BigDecimal.valueOf(watts).setScale(3, RoundingMode.HALF_UP);
+    }
+
+    @Override
+    public @NotNull List<DataPoint> measure() throws JPowerMonitorException {
+        return List.of(measureFirstConfiguredPath());
+    }
+
+    @Override
+    public synchronized @NotNull DataPoint measureFirstConfiguredPath() throws JPowerMonitorException {
+        try {
+            procStat.read();
+        } catch (IOException e) {
+            throw cannotRead(e);
+        }
+        long totalTicks = procStat.getTotalTicks() - lastTotalTicks;
+        if (totalTicks >= MIN_TICKS) {
+            long busyTicks = procStat.getBusyTicks() - lastBusyTicks;
+            lastPowerInWatts = toBigDecimal(estimatePowerInWatts((double) busyTicks / totalTicks));
+            lastTotalTicks = procStat.getTotalTicks();
+            lastBusyTicks = procStat.getBusyTicks();
+        }
+        return new DataPoint(modelConfig.getName(), lastPowerInWatts, Unit.WATT, LocalDateTime.now(), null);
+    }
+
+    private JPowerMonitorException cannotRead(IOException e) {
+        return new JPowerMonitorException("Cannot read CPU utilization from '" + modelConfig.getProcStat() + "'", e);
+    }
+
+    /**
+     * Closes <code>/proc/stat</code>.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            procStat.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close '" + modelConfig.getProcStat() + "': " + e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public @NotNull List<String> configuredSensors() {
+        return List.of(modelConfig.getName());
+    }
+
+    @Override
+    public @NotNull Map<String, BigDecimal> defaultEnergyInIdleModeForMeasuredSensors() {
+        return modelConfig.getEnergyInIdleMode() != null ? Map.of(modelConfig.getName(), modelConfig.getEnergyInIdleMode()) : Map.of();
+    }
+
+    @Override
+    public int getSamplingInterval() {
+        return config.getSamplingIntervalInMs();
+    }
+
+    @Override
+    public int initCycles() {
+        return config.getInitCycles();
+    }
+
+    @Override
+    public int getSamplingIntervalForInit() {
+        return config.getSamplingIntervalForInitInMs();
+    }
+
+    @Override
+    public int getCalmDownIntervalInMs() {
+        return config.getCalmDownIntervalInMs();
+    }
+
+    @Override
+    public @Nullable Path getPathToResultCsv() {
+        return config.getCsvRecording().getResultCsv() != null ? Paths.get(
+            config.getCsvRecording().getResultCsv()) : null;
+    }
+
+    @Override
+    public @Nullable Path getPathToMeasurementCsv() {
+        return config.getCsvRecording().getMeasurementCsv() != null ? Paths.get(
+            config.getCsvRecording().getMeasurementCsv()) : null;
+    }
+
+    @Override
+    public @NotNull BigDecimal getPercentageOfSamplesAtBeginningToDiscard() {
+        return config.getPercentageOfSamplesAtBeginningToDiscard();
+    }
+}
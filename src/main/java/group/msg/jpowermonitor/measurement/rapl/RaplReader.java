@@ -0,0 +1,292 @@
+package group.msg.jpowermonitor.measurement.rapl;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.MeasureMethod;
+import group.msg.jpowermonitor.agent.Unit;
+import group.msg.jpowermonitor.config.JPowerMonitorConfig;
+import group.msg.jpowermonitor.config.RaplCfg;
+import group.msg.jpowermonitor.config.RaplDomain;
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of the Linux RAPL (running average power limit) measure method, reading the energy counters of the powercap
+ * interface, e.g. <code>/sys/class/powercap/intel-rapl:0/energy_uj</code> (AMD processors use the same interface).
+ * <br><br>
+ * A domain is a zone <code>name</code> like <code>core</code> or <code>dram</code>, <code>package</code> matches the zones
+ * <code>package-0</code>, <code>package-1</code>, ... of all sockets. The energy of all zones of a domain is summed up.
+ * The power is the energy consumed since the previous measurement divided by the elapsed time.
+ * <br><br>
+ * Each <code>energy_uj</code> file is opened once and re-read with a positional read into a reused buffer,
+ * so a measurement costs one system call per zone and creates no garbage besides the data point. The files are closed by {@link #close()}.
+ * The counters wrap around at <code>max_energy_range_uj</code>.
+ * Note: on most distributions <code>energy_uj</code> is only readable by root.
+ *
+ * @see MeasureMethod
+ */
+public class RaplReader implements MeasureMethod {
+    static final String ZONE_PREFIX = "intel-rapl:";
+    /**
+     * The counters are updated about every millisecond, a shorter interval returns the previous power.
+     */
+    private static final long MIN_INTERVAL_IN_NANOS = 1_000_000L;
+    private final JPowerMonitorConfig config;
+    private final LongSupplier nanoTime;
+    private final List<Domain> domains = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(32);
+
+    /**
+     * An energy counter of the powercap interface.
+     */
+    private static class Zone {
+        private final Path energyFile;
+        private final FileChannel energy;
+        private final long maxEnergyRangeInMicroJoules;
+        private long lastMicroJoules;
+
+        Zone(Path energyFile, FileChannel energy, long maxEnergyRangeInMicroJoules) {
+            this.energyFile = energyFile;
+            this.energy = energy;
+            this.maxEnergyRangeInMicroJoules = maxEnergyRangeInMicroJoules;
+        }
+    }
+
+    /**
+     * A configured domain and its zones.
+     */
+    private static class Domain {
+        private final String name;
+        private final List<Zone> zones = new ArrayList<>();
+        private long lastNanos;
+        private BigDecimal lastWatts = BigDecimal.ZERO;
+
+        Domain(String name) {
+            this.name = name;
+        }
+    }
+
+    public RaplReader(JPowerMonitorConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    /**
+     * @param config   the configuration
+     * @param nanoTime clock of the elapsed time between two measurements, {@link System#nanoTime()} except for tests
+     */
+    RaplReader(JPowerMonitorConfig config, LongSupplier nanoTime) {
+        this.config = config;
+        this.nanoTime = nanoTime;
+        try {
+            initRaplConfig(config.getMeasurement().getRapl());
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void initRaplConfig(RaplCfg raplConfig) {
+        Map<String, List<Path>> zonesByName = findZones(Paths.get(raplConfig.getPath()));
+        for (RaplDomain raplDomain : raplConfig.getDomains()) {
+            Domain domain = new Domain(raplDomain.getName());
+            domains.add(domain); // added before opening the zones, so they are closed if the initialization fails
+            zonesByName.forEach((zoneName, zoneDirs) -> {
+                if (zoneName.equals(domain.name) || zoneName.startsWith(domain.name + "-")) {
+                    zoneDirs.forEach(zoneDir -> domain.zones.add(openZone(zoneDir)));
+                }
+            });
+            if (domain.zones.isEmpty()) {
+                throw new JPowerMonitorException("RAPL domain '" + domain.name + "' not found in '" + raplConfig.getPath() + "', available zones: " + zonesByName.keySet());
+            }
+            domain.lastNanos = nanoTime.getAsLong();
+            for (Zone zone : domain.zones) {
+                zone.lastMicroJoules = readCounter(zone);
+            }
+        }
+    }
+
+    /**
+     * @param powercap the powercap directory, e.g. <code>/sys/class/powercap</code>
+     * @return the directories of all zones and subzones with an energy counter by zone name
+     */
+    private static Map<String, List<Path>> findZones(Path powercap) {
+        Map<String, List<Path>> zonesByName = new HashMap<>();
+        List<Path> zoneDirs = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(powercap, ZONE_PREFIX + "*")) {
+            dirs.forEach(zoneDirs::add);
+        } catch (IOException e) {
+            throw new JPowerMonitorException("Cannot read RAPL zones from '" + powercap + "'", e);
+        }
+        zoneDirs.sort(null);
+        for (Path zoneDir : zoneDirs) {
+            if (Files.isRegularFile(zoneDir.resolve("name")) && Files.exists(zoneDir.resolve("energy_uj"))) {
+                zonesByName.computeIfAbsent(readString(zoneDir.resolve("name")), name -> new ArrayList<>()).add(zoneDir);
+            }
+        }
+        return zonesByName;
+    }
+
+    private static String readString(Path file) {
+        try {
+            return Files.readString(file, StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            throw new JPowerMonitorException("Cannot read RAPL file '" + file + "'", e);
+        }
+    }
+
+    private static Zone openZone(Path zoneDir) {
+        Path energyFile = zoneDir.resolve("energy_uj");
+        long maxEnergyRange = Long.parseLong(readString(zoneDir.resolve("max_energy_range_uj")));
+        try {
+            return new Zone(energyFile, FileChannel.open(energyFile, StandardOpenOption.READ), maxEnergyRange);
+        } catch (IOException e) {
+            throw new JPowerMonitorException("Cannot open RAPL energy counter '" + energyFile + "', it is usually only readable by root", e);
+        }
+    }
+
+    /**
+     * Reads the counter from position 0 of the open file, sysfs regenerates the content on each read.
+     */
+    private long readCounter(Zone zone) {
+        buffer.clear();
+        try {
+            zone.energy.read(buffer, 0L);
+        } catch (IOException e) {
+            throw new JPowerMonitorException("Cannot read RAPL energy counter '" + zone.energyFile + "'", e);
+        }
+        long value = 0L;
+        int digits = 0;
+        for (int i = 0; i < buffer.position(); i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            digits++;
+        }
+        if (digits == 0) {
+            throw new JPowerMonitorException("RAPL energy counter '" + zone.energyFile + "' does not contain a number");
+        }
+        return value;
+    }
+
+    private DataPoint measure(Domain domain) {
+        long now = nanoTime.getAsLong();
+        long elapsedNanos = now - domain.lastNanos;
+        if (elapsedNanos >= MIN_INTERVAL_IN_NANOS) {
+            long microJoules = 0L;
+            for (Zone zone : domain.zones) {
+                long counter = readCounter(zone);
+                long delta = counter - zone.lastMicroJoules;
+                if (delta < 0L) { // wrapped around
+                    delta += zone.maxEnergyRangeInMicroJoules;
+                }
+                microJoules += delta;
+                zone.lastMicroJoules = counter;
+            }
+            domain.lastNanos = now;
+            domain.lastWatts = BigDecimal.valueOf(microJoules * 1000.0 / elapsedNanos).setScale(3, RoundingMode.HALF_UP);
+        }
+        return new DataPoint(domain.name, domain.lastWatts, Unit.WATT, LocalDateTime.now(), null);
+    }
+
+    @Override
+    public synchronized @NotNull List<DataPoint> measure() throws JPowerMonitorException {
+        List<DataPoint> result = new ArrayList<>(domains.size());
+        for (Domain domain : domains) {
+            result.add(measure(domain));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized @NotNull DataPoint measureFirstConfiguredPath() throws JPowerMonitorException {
+        return measure(domains.get(0));
+    }
+
+    /**
+     * Closes the energy counter files of all zones.
+     */
+    @Override
+    public synchronized void close() {
+        for (Domain domain : domains) {
+            for (Zone zone : domain.zones) {
+                try {
+                    zone.energy.close();
+                } catch (IOException e) {
+                    System.err.println("Cannot close RAPL energy counter '" + zone.energyFile + "': " + e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public @NotNull List<String> configuredSensors() {
+        return config.getMeasurement().getRapl().getDomains().stream().map(RaplDomain::getName).collect(Collectors.toList());
+    }
+
+    @Override
+    public @NotNull Map<String, BigDecimal> defaultEnergyInIdleModeForMeasuredSensors() {
+        Map<String, BigDecimal> energyInIdleModeForMeasuredSensors = new HashMap<>();
+        config.getMeasurement().getRapl().getDomains().stream()
+            .filter(x -> x.getEnergyInIdleMode() != null)
+            .forEach(d -> energyInIdleModeForMeasuredSensors.put(d.getName(), d.getEnergyInIdleMode()));
+        return energyInIdleModeForMeasuredSensors;
+    }
+
+    @Override
+    public int getSamplingInterval() {
+        return config.getSamplingIntervalInMs();
+    }
+
+    @Override
+    public int initCycles() {
+        return config.getInitCycles();
+    }
+
+    @Override
+    public int getSamplingIntervalForInit() {
+        return config.getSamplingIntervalForInitInMs();
+    }
+
+    @Override
+    public int getCalmDownIntervalInMs() {
+        return config.getCalmDownIntervalInMs();
+    }
+
+    @Override
+    public @Nullable Path getPathToResultCsv() {
+        return config.getCsvRecording().getResultCsv() != null ? Paths.get(
+            config.getCsvRecording().getResultCsv()) : null;
+    }
+
+    @Override
+    public @Nullable Path getPathToMeasurementCsv() {
+        return config.getCsvRecording().getMeasurementCsv() != null ? Paths.get(
+            config.getCsvRecording().getMeasurementCsv()) : null;
+    }
+
+    @Override
+    public @NotNull BigDecimal getPercentageOfSamplesAtBeginningToDiscard() {
+        return config.getPercentageOfSamplesAtBeginningToDiscard();
+    }
+}
@@ -0,0 +1,214 @@
+package group.msg.jpowermonitor.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+import static group.msg.jpowermonitor.util.Constants.DATE_TIME_FORMATTER;
+
+/**
+ * Encodes the fields of CSV rows directly into a {@link StringBuilder}, without <code>String.format</code> and <code>DecimalFormat</code>.
+ * <br><br>
+ * The output equals the former formatting:
+ * <ul>
+ *     <li>numbers like <code>new DecimalFormat("###0.#####", DecimalFormatSymbols.getInstance(locale))</code>:
+ *     no grouping, at most {@value #MAX_FRACTION_DIGITS} fraction digits rounded half even, no trailing zeros,
+ *     decimal separator, negative prefix and digits of the locale</li>
+ *     <li>timestamps like {@link Constants#DATE_TIME_FORMATTER}</li>
+ *     <li>separator <code>;</code> for german locales, <code>,</code> otherwise</li>
+ * </ul>
+ * The encoder is immutable and thus safe to use from several threads, the caller provides (and may reuse) the {@link StringBuilder}.
+ */
+public final class CsvRowEncoder {
+    public static final int MAX_FRACTION_DIGITS = 5;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L};
+    /**
+     * Limit of the scaled doubles encoded without {@link BigDecimal}, all integers below are exact doubles.
+     */
+    private static final double MAX_EXACT_SCALED_DOUBLE = 0x1p53;
+    private final char separator;
+    private final char decimalSeparator;
+    private final String negativePrefix;
+    private final char zeroDigit;
+
+    private CsvRowEncoder(char separator, char decimalSeparator, String negativePrefix, char zeroDigit) {
+        this.separator = separator;
+        this.decimalSeparator = decimalSeparator;
+        this.negativePrefix = negativePrefix;
+        this.zeroDigit = zeroDigit;
+    }
+
+    /**
+     * @param locale locale to take separators and digits from
+     * @return encoder for the locale
+     */
+    public static CsvRowEncoder forLocale(Locale locale) {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        char separator = locale.getCountry().toLowerCase(Locale.ROOT).equals("de") ? ';' : ',';
+        // the negative prefix may contain more than the minus sign, e.g. a right-to-left mark
+        String negativePrefix = new DecimalFormat("###0", symbols).getNegativePrefix();
+        return new CsvRowEncoder(separator, symbols.getDecimalSeparator(), negativePrefix, symbols.getZeroDigit());
+    }
+
+    /**
+     * @return separator of the CSV fields
+     */
+    public char getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Appends the field separator.
+     *
+     * @param row row to append to
+     * @return the row
+     */
+    public StringBuilder appendSeparator(StringBuilder row) {
+        return row.append(separator);
+    }
+
+    /**
+     * Appends text like <code>String.valueOf(text)</code>, i.e. <code>null</code> is written as "null".
+     *
+     * @param row  row to append to
+     * @param text text to append
+     * @return the row
+     */
+    public StringBuilder appendText(StringBuilder row, Object text) {
+        return row.append(text);
+    }
+
+    /**
+     * Appends the timestamp in the format <code>yyyy/MM/dd'T'HH:mm:ss-SSS</code>.
+     *
+     * @param row  row to append to
+     * @param time timestamp to append
+     * @return the row
+     */
+    public StringBuilder appendTime(StringBuilder row, LocalDateTime time) {
+        int year = time.getYear();
+        if (year < 1 || year > 9999) {
+            DATE_TIME_FORMATTER.formatTo(time, row); // signed or era based years are rare enough for the formatter
+            return row;
+        }
+        appendPadded(row, year, 4, '0');
+        appendPadded(row.append('/'), time.getMonthValue(), 2, '0');
+        appendPadded(row.append('/'), time.getDayOfMonth(), 2, '0');
+        appendPadded(row.append('T'), time.getHour(), 2, '0');
+        appendPadded(row.append(':'), time.getMinute(), 2, '0');
+        appendPadded(row.append(':'), time.getSecond(), 2, '0');
+        return appendPadded(row.append('-'), time.getNano() / 1_000_000, 3, '0');
+    }
+
+    /**
+     * Appends the number with at most {@value #MAX_FRACTION_DIGITS} fraction digits.
+     *
+     * @param row   row to append to
+     * @param value number to append
+     * @return the row
+     * @throws IllegalArgumentException if the value is <code>null</code>
+     */
+    public StringBuilder appendDecimal(StringBuilder row, BigDecimal value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot format null as a number");
+        }
+        // like DecimalFormat, negative numbers rounded to zero keep their sign
+        boolean negative = value.signum() < 0;
+        BigDecimal rounded = value.scale() > MAX_FRACTION_DIGITS ? value.setScale(MAX_FRACTION_DIGITS, RoundingMode.HALF_EVEN)
+            : value.scale() < 0 ? value.setScale(0) : value;
+        if (rounded.precision() <= 18) {
+            return appendFixedPoint(row, negative, Math.abs(rounded.unscaledValue().longValue()), rounded.scale());
+        }
+        if (negative) {
+            row.append(negativePrefix);
+        }
+        String plain = rounded.abs().toPlainString();
+        int end = plain.length();
+        int point = plain.indexOf('.');
+        if (point >= 0) {
+            while (plain.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (end == point + 1) {
+                end = point;
+            }
+        }
+        for (int i = 0; i < end; i++) {
+            char c = plain.charAt(i);
+            row.append(c == '.' ? decimalSeparator : (char) (c - '0' + zeroDigit));
+        }
+        return row;
+    }
+
+    /**
+     * Appends the number with at most {@value #MAX_FRACTION_DIGITS} fraction digits without creating a {@link BigDecimal}, e.g. for the power per method.
+     * The result equals {@link #appendDecimal(StringBuilder, BigDecimal)} of <code>BigDecimal.valueOf(value)</code>, except for values
+     * within the rounding error of the double arithmetic around half of the last digit, which may be rounded the other way.
+     *
+     * @param row   row to append to
+     * @param value number to append
+     * @return the row
+     * @throws IllegalArgumentException if the value is infinite or not a number
+     */
+    public StringBuilder appendDecimal(StringBuilder row, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Cannot format " + value + " as a number");
+        }
+        double scaled = Math.abs(value) * POWERS_OF_TEN[MAX_FRACTION_DIGITS];
+        if (scaled >= MAX_EXACT_SCALED_DOUBLE) {
+            return appendDecimal(row, BigDecimal.valueOf(value));
+        }
+        return appendFixedPoint(row, value < 0, (long) Math.rint(scaled), MAX_FRACTION_DIGITS);
+    }
+
+    /**
+     * Appends the number <code>unscaled / 10^scale</code> without trailing zeros.
+     *
+     * @param row      row to append to
+     * @param negative if the negative prefix is written
+     * @param unscaled non-negative unscaled value
+     * @param scale    number of fraction digits, between 0 and {@value #MAX_FRACTION_DIGITS}
+     * @return the row
+     */
+    StringBuilder appendFixedPoint(StringBuilder row, boolean negative, long unscaled, int scale) {
+        if (negative) {
+            row.append(negativePrefix);
+        }
+        long integer = unscaled / POWERS_OF_TEN[scale];
+        long fraction = unscaled % POWERS_OF_TEN[scale];
+        appendPadded(row, integer, 1, zeroDigit);
+        if (fraction != 0) {
+            int digits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            appendPadded(row.append(decimalSeparator), fraction, digits, zeroDigit);
+        }
+        return row;
+    }
+
+    /**
+     * Appends the non-negative value with at least <code>width</code> digits, left padded with zeros.
+     */
+    private static StringBuilder appendPadded(StringBuilder row, long value, int width, char zero) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            row.append(zero);
+        }
+        int start = row.length();
+        row.setLength(start + digits);
+        long v = value;
+        for (int i = start + digits - 1; i >= start; i--) {
+            row.setCharAt(i, (char) (zero + v % 10));
+            v /= 10;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,111 @@
+package group.msg.jpowermonitor.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the CPU time of all CPUs of the node from the first line of <code>/proc/stat</code> (Linux only):
+ * <pre>cpu  user nice system idle iowait irq softirq steal guest guest_nice</pre>
+ * The values are in clock ticks (<code>USER_HZ</code>, 100 per second on all common architectures).
+ * <code>guest</code> and <code>guest_nice</code> are already contained in <code>user</code> and <code>nice</code>.
+ * <br><br>
+ * The file is opened once and re-read with a positional read into a reused buffer, procfs regenerates the content on each read
+ * at position 0. Only the first line is read and parsed, a read costs one system call and creates no garbage.
+ * Not thread safe, the caller synchronizes.
+ */
+public final class ProcStatReader implements AutoCloseable {
+    public static final Path PROC_STAT = Paths.get("/proc/stat");
+    public static final long NANOS_PER_TICK = 10_000_000L;
+    private static final int FIELDS = 8;
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(256);
+    private final long[] fields = new long[FIELDS];
+    private long totalTicks;
+    private long idleTicks;
+
+    /**
+     * @param file <code>/proc/stat</code> or a file with the same format
+     * @throws IOException if the file cannot be opened
+     */
+    public ProcStatReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * @return <code>true</code> if <code>/proc/stat</code> is readable, thus running on Linux
+     */
+    public static boolean isAvailable() {
+        return Files.isReadable(PROC_STAT);
+    }
+
+    /**
+     * Reads the current CPU times, see {@link #getTotalTicks()} and {@link #getIdleTicks()}.
+     *
+     * @throws IOException if the file cannot be read or does not start with the <code>cpu</code> line
+     */
+    public void read() throws IOException {
+        buffer.clear();
+        channel.read(buffer, 0L);
+        int end = buffer.position();
+        int i = 0;
+        while (i < end && buffer.get(i) != ' ') { // skip 'cpu'
+            i++;
+        }
+        int field = 0;
+        while (field < FIELDS && i < end && buffer.get(i) != '\n') {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                long value = 0L;
+                while (i < end && (b = buffer.get(i)) >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    i++;
+                }
+                fields[field++] = value;
+            } else {
+                i++;
+            }
+        }
+        if (field < 4 || buffer.get(0) != 'c') {
+            throw new IOException("'" + file + "' does not start with the cpu line");
+        }
+        long total = 0L;
+        for (int f = 0; f < field; f++) {
+            total += fields[f];
+        }
+        totalTicks = total;
+        idleTicks = fields[3] + (field > 4 ? fields[4] : 0L); // idle + iowait
+    }
+
+    /**
+     * @return CPU time of all CPUs in clock ticks since boot, including idle time, as of the last {@link #read()}
+     */
+    public long getTotalTicks() {
+        return totalTicks;
+    }
+
+    /**
+     * @return idle time (including waiting for I/O) of all CPUs in clock ticks since boot, as of the last {@link #read()}
+     */
+    public long getIdleTicks() {
+        return idleTicks;
+    }
+
+    /**
+     * @return busy CPU time of all CPUs in clock ticks since boot, as of the last {@link #read()}
+     */
+    public long getBusyTicks() {
+        return totalTicks - idleTicks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,68 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BufferedCsvFileWriterTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rowsAreBufferedUntilFlushIntervalElapsedTest() throws IOException {
+        Path file = tempDir.resolve("power.csv");
+        BufferedCsvFileWriter writer = new BufferedCsvFileWriter(file, 1024, 10_000L, 0L);
+        long start = System.nanoTime();
+        writer.append("a;1\n");
+        writer.flushIfDue(start);
+        assertThat(file).doesNotExist(); // opened on first write
+
+        writer.append("b;2\n");
+        writer.flushIfDue(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+        assertThat(read(file)).isEqualTo("a;1\nb;2\n");
+
+        writer.append("c;3\n");
+        writer.close();
+        writer.append("ignored\n");
+        assertThat(read(file)).isEqualTo("a;1\nb;2\nc;3\n");
+    }
+
+    @Test
+    void fullBufferIsWrittenImmediatelyTest() throws IOException {
+        Path file = tempDir.resolve("power.csv");
+        StringBuilder expected = new StringBuilder();
+        try (BufferedCsvFileWriter writer = new BufferedCsvFileWriter(file, 16, 60_000L, 0L)) {
+            for (int i = 0; i < 10; i++) {
+                String row = "method" + i + ";" + i * 1.5 + "\n";
+                writer.append(row);
+                expected.append(row);
+            }
+            assertThat(Files.size(file)).isGreaterThanOrEqualTo(expected.length() - 16L);
+        }
+        assertThat(read(file)).isEqualTo(expected.toString());
+    }
+
+    @Test
+    void existingFileIsAppendedTest() throws IOException {
+        Path file = tempDir.resolve("power.csv");
+        Files.writeString(file, "old\n", Charset.defaultCharset());
+        try (BufferedCsvFileWriter writer = new BufferedCsvFileWriter(file, 1024, 0L, 1L)) {
+            writer.append("new\n");
+            writer.flushIfDue(System.nanoTime()); // flush interval 0: written on each check, synced after 1 ms
+            assertThat(read(file)).isEqualTo("old\nnew\n");
+            writer.flush();
+        }
+        assertThat(read(file)).isEqualTo("old\nnew\n");
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.readString(file, Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,84 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallTreeTest {
+    private final MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+
+    @Test
+    void stacksWithSamePrefixShareNodesTest() {
+        CallTree callTree = new CallTree();
+        int process = add(callTree, "com.msg.OrderService.process", "com.msg.Main.main");
+        int write = add(callTree, "java.io.FileOutputStream.write", "com.msg.OrderService.process", "com.msg.Main.main");
+        int print = add(callTree, "java.io.PrintStream.println", "com.msg.Main.main");
+
+        assertThat(add(callTree, "com.msg.OrderService.process", "com.msg.Main.main")).isEqualTo(process);
+        assertThat(callTree.size()).isEqualTo(5); // root, main, process, write, println
+        assertThat(write).isNotEqualTo(process).isNotEqualTo(print);
+    }
+
+    @Test
+    void inclusiveEnergyIsSumOfSubtreeTest() {
+        CallTree callTree = new CallTree();
+        int process = add(callTree, "com.msg.OrderService.process", "com.msg.Main.main");
+        int write = add(callTree, "java.io.FileOutputStream.write", "com.msg.OrderService.process", "com.msg.Main.main");
+        int print = add(callTree, "java.io.PrintStream.println", "com.msg.Main.main");
+        callTree.addSelfEnergy(process, 100L);
+        callTree.addSelfEnergy(write, 300L);
+        callTree.addSelfEnergy(write, 100L);
+        callTree.addSelfEnergy(print, 500L);
+
+        CallTree.Snapshot snapshot = callTree.snapshot();
+        int main = snapshot.getParent(process);
+        assertThat(snapshot.getParent(main)).isEqualTo(CallTree.ROOT);
+        assertThat(symbols.getQualifiedName(snapshot.getMethodId(main))).isEqualTo("com.msg.Main.main");
+        assertThat(snapshot.getSelfMicroJoules(process)).isEqualTo(100L);
+        assertThat(snapshot.getInclusiveMicroJoules(process)).isEqualTo(500L);
+        assertThat(snapshot.getSelfMicroJoules(main)).isEqualTo(0L);
+        assertThat(snapshot.getInclusiveMicroJoules(main)).isEqualTo(1000L);
+        assertThat(snapshot.getInclusiveMicroJoules(CallTree.ROOT)).isEqualTo(1000L);
+
+        assertThat(snapshot.toCollapsedStacks(symbols)).containsExactly(
+            "com.msg.Main.main;com.msg.OrderService.process 100",
+            "com.msg.Main.main;com.msg.OrderService.process;java.io.FileOutputStream.write 400",
+            "com.msg.Main.main;java.io.PrintStream.println 500");
+    }
+
+    @Test
+    void samplesAreCountedPerCallTreeNodeTest() {
+        CallTree callTree = new CallTree();
+        SampleHistograms histograms = new SampleHistograms(callTree);
+        StackTraceElement[] stack = {
+            new StackTraceElement("java.io.FileOutputStream", "write", null, 1),
+            new StackTraceElement("com.msg.Writer", "flush", null, 2),
+            new StackTraceElement("com.msg.Main", "main", null, 3)};
+        histograms.addStack(symbols, 1L, "main", stack);
+        histograms.addStack(symbols, 1L, "main", stack);
+
+        histograms.forEach((threadId, histogram) -> {
+            histogram.forEach((methodId, filteredMethodId, count) -> {
+                assertThat(symbols.getQualifiedName(methodId)).isEqualTo("java.io.FileOutputStream.write");
+                assertThat(symbols.getQualifiedName(filteredMethodId)).isEqualTo("com.msg.Writer.flush");
+                assertThat(count).isEqualTo(2);
+            });
+            histogram.forEachCallTreeNode((node, count) -> callTree.addSelfEnergy(node, count * 10L));
+        });
+        assertThat(callTree.snapshot().toCollapsedStacks(symbols)).containsExactly("com.msg.Main.main;com.msg.Writer.flush;java.io.FileOutputStream.write 20");
+    }
+
+    /**
+     * @param frames full qualified method names, topmost frame first
+     */
+    private int add(CallTree callTree, String... frames) {
+        int[] methodIds = new int[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            int separator = frames[i].lastIndexOf('.');
+            methodIds[i] = symbols.intern(frames[i].substring(0, separator), frames[i].substring(separator + 1));
+        }
+        return callTree.add(methodIds, frames.length);
+    }
+}
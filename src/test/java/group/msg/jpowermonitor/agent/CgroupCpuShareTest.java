@@ -0,0 +1,76 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.util.ProcStatReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class CgroupCpuShareTest {
+    @TempDir
+    Path tempDir;
+
+    private Path procStat(long busy, long idle) throws IOException {
+        Path procStat = tempDir.resolve("stat");
+        Files.writeString(procStat, "cpu  " + busy + " 0 0 " + idle + " 0 0 0 0 0 0\n");
+        return procStat;
+    }
+
+    private static void cpuStat(Path cpuStat, long usageInMicros) throws IOException {
+        Files.writeString(cpuStat, "usage_usec " + usageInMicros + "\nuser_usec 1\nsystem_usec 2\nnr_periods 0\nnr_throttled 0\nthrottled_usec 0\n");
+    }
+
+    private Path fakeCgroup() throws IOException {
+        Path cgroupRoot = tempDir.resolve("sys/fs/cgroup");
+        Path cgroup = Files.createDirectories(cgroupRoot.resolve("kubepods.slice/kubepods-pod1.slice/cri-containerd-abc.scope"));
+        cpuStat(cgroup.resolve("cpu.stat"), 0L);
+        Files.writeString(tempDir.resolve("cgroup"), "0::/kubepods.slice/kubepods-pod1.slice/cri-containerd-abc.scope\n");
+        return cgroupRoot;
+    }
+
+    @Test
+    void cpuStatOfTheCgroupIsResolvedTest() throws IOException {
+        Path cgroupRoot = fakeCgroup();
+        assertThat(CgroupCpuShare.resolveCpuStat(tempDir.resolve("cgroup"), cgroupRoot))
+            .isEqualTo(cgroupRoot.resolve("kubepods.slice/kubepods-pod1.slice/cri-containerd-abc.scope/cpu.stat"));
+
+        // cgroup v1 only
+        Files.writeString(tempDir.resolve("cgroup"), "12:cpu,cpuacct:/docker/abc\n");
+        assertThat(CgroupCpuShare.resolveCpuStat(tempDir.resolve("cgroup"), cgroupRoot)).isNull();
+        assertThat(CgroupCpuShare.resolveCpuStat(tempDir.resolve("missing"), cgroupRoot)).isNull();
+    }
+
+    @Test
+    void shareOfTheCgroupInBusyCpuTimeOfNodeTest() throws IOException {
+        Path cpuStat = CgroupCpuShare.resolveCpuStat(tempDir.resolve("cgroup"), fakeCgroup());
+        cpuStat(cpuStat, 7_000_000L);
+        PowerShare share = new CgroupCpuShare(cpuStat, new ProcStatReader(procStat(10_000, 100_000)));
+
+        // node: 64 CPUs busy for 0.5 s (3200 ticks), container: 2 CPUs for 0.5 s
+        cpuStat(cpuStat, 8_000_000L);
+        procStat(13_200, 100_000);
+        assertThat(share.nextInterval()).isCloseTo(1.0 / 32, within(1e-9));
+
+        // unreadable cpu.stat keeps the previous share
+        Files.writeString(cpuStat, "nr_periods 0\n");
+        procStat(14_000, 100_000);
+        assertThat(share.nextInterval()).isCloseTo(1.0 / 32, within(1e-9));
+        share.close();
+    }
+
+    @Test
+    void readersAreClosedIfTheCgroupCannotBeReadTest() throws IOException {
+        Path cpuStat = CgroupCpuShare.resolveCpuStat(tempDir.resolve("cgroup"), fakeCgroup());
+        Files.writeString(cpuStat, "nr_periods 0\n");
+        ProcStatReader procStat = new ProcStatReader(procStat(10_000, 100_000));
+        assertThatThrownBy(() -> new CgroupCpuShare(cpuStat, procStat)).isInstanceOf(IOException.class).hasMessageContaining("usage_usec");
+        assertThatThrownBy(procStat::read).isInstanceOf(ClosedChannelException.class);
+    }
+}
@@ -0,0 +1,81 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DropOldestRingBufferTest {
+
+    @Test
+    void elementsArePolledInOrderTest() {
+        DropOldestRingBuffer<String> buffer = new DropOldestRingBuffer<>(4);
+        assertThat(buffer.poll()).isNull();
+        buffer.offer("a");
+        buffer.offer("b");
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.poll()).isEqualTo("a");
+        buffer.offer("c");
+        assertThat(buffer.poll()).isEqualTo("b");
+        assertThat(buffer.poll()).isEqualTo("c");
+        assertThat(buffer.poll()).isNull();
+        assertThat(buffer.getDropped()).isZero();
+    }
+
+    @Test
+    void oldestElementsAreDroppedIfFullTest() {
+        DropOldestRingBuffer<Integer> buffer = new DropOldestRingBuffer<>(3); // rounded up to 4
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(i);
+        }
+        assertThat(buffer.size()).isEqualTo(4);
+        assertThat(buffer.getDropped()).isEqualTo(6L);
+        assertThat(buffer.poll()).isEqualTo(6);
+        assertThat(buffer.poll()).isEqualTo(7);
+        assertThat(buffer.poll()).isEqualTo(8);
+        assertThat(buffer.poll()).isEqualTo(9);
+        assertThat(buffer.poll()).isNull();
+    }
+
+    @Test
+    void invalidCapacityTest() {
+        assertThatThrownBy(() -> new DropOldestRingBuffer<>(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void concurrentProducerAndConsumerTest() throws InterruptedException {
+        int elements = 1_000_000;
+        DropOldestRingBuffer<Long> buffer = new DropOldestRingBuffer<>(8);
+        AtomicLong consumed = new AtomicLong();
+        AtomicLong outOfOrder = new AtomicLong();
+        Thread producer = new Thread(() -> {
+            for (long i = 0; i < elements; i++) {
+                buffer.offer(i);
+            }
+        });
+        producer.start();
+        long last = -1L;
+        while (producer.isAlive() || buffer.size() > 0) {
+            Long element = buffer.poll();
+            if (element != null) {
+                if (element <= last) {
+                    outOfOrder.incrementAndGet();
+                }
+                last = element;
+                consumed.incrementAndGet();
+            }
+        }
+        producer.join();
+        Long element;
+        while ((element = buffer.poll()) != null) {
+            last = element;
+            consumed.incrementAndGet();
+        }
+
+        assertThat(outOfOrder.get()).isZero();
+        assertThat(last).isEqualTo(elements - 1L); // the newest element is never dropped
+        assertThat(consumed.get() + buffer.getDropped()).isEqualTo(elements);
+    }
+}
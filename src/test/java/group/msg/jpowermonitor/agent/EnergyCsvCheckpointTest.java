@@ -0,0 +1,138 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class EnergyCsvCheckpointTest {
+    private static final Function<DataPoint, String> ROW = dp -> dp.getName() + "=" + dp.getValue() + "\n";
+    private static final BigDecimal FACTOR = new BigDecimal("485");
+    @TempDir
+    Path tempDir;
+    private final MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+    private final Map<Integer, MethodEnergy> energyPerMethod = new ConcurrentHashMap<>();
+    private final EnergyCsvCheckpoint checkpoint = new EnergyCsvCheckpoint();
+
+    @Test
+    void onlyChangedMethodsAreWrittenAgainTest() throws IOException {
+        int run = add("com.msg.Main", "run", 1_000_000L);
+        add("java.lang.Thread", "sleep", 500_000L);
+        Path file = tempDir.resolve("energy.csv");
+        Path filteredFile = tempDir.resolve("energy_filtered.csv");
+
+        assertThat(checkpoint.write(energyPerMethod, symbols, ROW, FACTOR, file, filteredFile)).isEqualTo(2);
+        assertThat(read(file)).isEqualTo("com.msg.Main.run=1.000000\njava.lang.Thread.sleep=0.500000\n");
+        assertThat(read(filteredFile)).isEqualTo("com.msg.Main.run=1.000000\n");
+
+        assertThat(checkpoint.write(energyPerMethod, symbols, ROW, FACTOR, file, filteredFile)).isZero();
+
+        add(run, 250_000L);
+        add(run, 250_000L); // marked dirty only once
+        int parse = add("com.msg.Parser", "parse", 2_000_000L);
+        assertThat(checkpoint.write(energyPerMethod, symbols, ROW, FACTOR, file, filteredFile)).isEqualTo(2);
+        assertThat(read(file)).isEqualTo("com.msg.Main.run=1.500000\njava.lang.Thread.sleep=0.500000\ncom.msg.Parser.parse=2.000000\n");
+        assertThat(read(filteredFile)).isEqualTo("com.msg.Main.run=1.500000\ncom.msg.Parser.parse=2.000000\n");
+        assertThat(symbols.getQualifiedName(parse)).isEqualTo("com.msg.Parser.parse");
+
+        // a different factor changes all rows
+        assertThat(checkpoint.write(energyPerMethod, symbols, ROW, BigDecimal.ONE, file, filteredFile)).isEqualTo(3);
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files).containsExactlyInAnyOrder(file, filteredFile); // no temporary files left
+        }
+    }
+
+    @Test
+    void rowOfReplacedMethodIsTakenOverInItsSlotTest() throws IOException {
+        HeavyHitters heavyHitters = new HeavyHitters(1);
+        int run = symbols.intern("com.msg.Main", "run");
+        MethodEnergy runEnergy = new MethodEnergy("main");
+        heavyHitters.admit(run, runEnergy);
+        energyPerMethod.put(run, runEnergy);
+        add(run, 1_000_000L);
+        Path file = tempDir.resolve("energy.csv");
+        Path filteredFile = tempDir.resolve("energy_filtered.csv");
+        checkpoint.write(energyPerMethod, symbols, ROW, FACTOR, file, filteredFile);
+
+        // sleep replaces run in slot 0
+        int sleep = symbols.intern("java.lang.Thread", "sleep");
+        MethodEnergy sleepEnergy = new MethodEnergy("main", heavyHitters.getErrorOfNextMethod());
+        assertThat(heavyHitters.admit(sleep, sleepEnergy)).isEqualTo(run);
+        energyPerMethod.put(sleep, sleepEnergy);
+        checkpoint.markRemoved(run, energyPerMethod.remove(run));
+        add(sleep, 2_000_000L);
+        assertThat(sleepEnergy.getSlot(sleep)).isEqualTo(runEnergy.getSlot(run)).isZero();
+
+        assertThat(checkpoint.write(energyPerMethod, symbols, ROW, FACTOR, file, filteredFile)).isEqualTo(1);
+        assertThat(read(file)).isEqualTo("java.lang.Thread.sleep=2.000000\n");
+        assertThat(read(filteredFile)).isEmpty();
+    }
+
+    @Test
+    void existingFileIsReplacedTest() throws IOException {
+        Path file = tempDir.resolve("energy.csv");
+        Files.writeString(file, "old content which is longer than the new one\n", Charset.defaultCharset());
+        EnergyCsvCheckpoint.writeAtomically("new\n", file);
+        assertThat(read(file)).isEqualTo("new\n");
+    }
+
+    @Test
+    void concurrentWritersDoNotShareTheTemporaryFileTest() throws Exception {
+        Path file = tempDir.resolve("energy.csv");
+        String first = "first\n".repeat(1000);
+        String second = "second\n".repeat(1000);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                EnergyCsvCheckpoint.writeAtomically(first, file);
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 100; i++) {
+            EnergyCsvCheckpoint.writeAtomically(second, file);
+        }
+        writer.join();
+        assertThat(read(file)).isIn(first, second);
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(file); // no temporary files left
+        }
+    }
+
+    @Test
+    void fileGetsTheDefaultPermissionsTest() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path reference = Files.createFile(tempDir.resolve("reference.csv"));
+        Path file = tempDir.resolve("energy.csv");
+        EnergyCsvCheckpoint.writeAtomically("new\n", file);
+        assertThat(Files.getPosixFilePermissions(file)).isEqualTo(Files.getPosixFilePermissions(reference));
+    }
+
+    private int add(String className, String methodName, long microJoules) {
+        int methodId = symbols.intern(className, methodName);
+        add(methodId, microJoules);
+        return methodId;
+    }
+
+    private void add(int methodId, long microJoules) {
+        MethodEnergy methodEnergy = energyPerMethod.computeIfAbsent(methodId, id -> new MethodEnergy("main"));
+        methodEnergy.add(microJoules);
+        checkpoint.markDirty(methodId, methodEnergy);
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.readString(file, Charset.defaultCharset());
+    }
+}
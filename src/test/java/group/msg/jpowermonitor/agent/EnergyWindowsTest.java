@@ -0,0 +1,102 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EnergyWindowsTest {
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void rollingSumsMatchRescanOfAllIntervalsTest() {
+        long[] windowsInMillis = {60_000L, 300_000L};
+        EnergyWindows windows = new EnergyWindows(windowsInMillis);
+        Random random = new Random(11);
+        List<long[]> added = new ArrayList<>(); // time, method id, energy
+        for (int interval = 0; interval < 1_000; interval++) {
+            long time = START + interval * 1000L + random.nextInt(50);
+            for (int i = random.nextInt(20); i > 0; i--) {
+                int methodId = random.nextInt(interval < 500 ? 10 : 40); // the traffic pattern changes
+                long microJoules = 1 + random.nextInt(1_000_000);
+                windows.add(methodId, methodId, microJoules);
+                added.add(new long[]{time, methodId, microJoules});
+            }
+            windows.endInterval(time);
+
+            if (interval % 97 == 0 || interval == 999) {
+                for (int w = 0; w < windowsInMillis.length; w++) {
+                    Map<Integer, Long> expected = new HashMap<>();
+                    for (long[] energy : added) {
+                        if (energy[0] > time - windowsInMillis[w]) {
+                            expected.merge((int) energy[1], energy[2], Long::sum);
+                        }
+                    }
+                    List<EnergyWindows.MethodWindowEnergy> all = windows.getTopMethods(w, Integer.MAX_VALUE);
+                    assertThat(all).hasSize(expected.size());
+                    for (EnergyWindows.MethodWindowEnergy method : all) {
+                        assertThat(method.microJoules).isEqualTo(expected.get(method.methodId));
+                    }
+                    assertThat(all).isSortedAccordingTo((a, b) -> Long.compare(b.microJoules, a.microJoules));
+                }
+            }
+        }
+    }
+
+    @Test
+    void topMethodsOfWindowTest() {
+        EnergyWindows windows = new EnergyWindows(new long[]{2_000L, 10_000L});
+        windows.add(1, 1, 5_000_000L);
+        windows.endInterval(START);
+        windows.add(2, 2, 1_000_000L);
+        windows.add(3, 3, 2_000_000L);
+        windows.add(2, 2, 2_000_000L);
+        windows.endInterval(START + 1_000L);
+        windows.endInterval(START + 2_000L);
+
+        // method 1 has left the short window
+        assertThat(windows.getTopMethods(0, 5)).extracting(method -> method.methodId).containsExactly(2, 3);
+        assertThat(windows.getTopMethods(1, 2)).extracting(method -> method.methodId).containsExactly(1, 2);
+        assertThat(windows.getTopMethods(1, 2)).extracting(method -> method.microJoules).containsExactly(5_000_000L, 3_000_000L);
+    }
+
+    @Test
+    void powerStatisticsTopEnergyConsumptionPerMethodTest() {
+        PowerStatistics powerStatistics = new PowerStatistics(0L, 0L, 0L, null, Set.of("com.msg"));
+        assertThat(powerStatistics.getEnergyWindowsInS()).isEmpty();
+        powerStatistics.aggregateEnergyIn(new EnergyWindows(new long[]{60_000L, 300_000L}));
+        assertThat(powerStatistics.getEnergyWindowsInS()).containsExactly(60L, 300L);
+        List<DataPoint> top = powerStatistics.getTopEnergyConsumptionPerMethod(300L, 10);
+        assertThat(top).isEmpty();
+        assertThatThrownBy(() -> powerStatistics.getTopEnergyConsumptionPerMethod(120L, 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void removedSlotIsDroppedFromAllWindowsTest() {
+        EnergyWindows windows = new EnergyWindows(new long[]{2_000L, 10_000L});
+        windows.add(0, 10, 5_000_000L);
+        windows.add(1, 11, 1_000_000L);
+        windows.endInterval(START);
+        windows.add(0, 10, 1_000_000L);
+        // method 10 is replaced by method 12 in slot 0 within the interval
+        windows.remove(0);
+        windows.add(0, 12, 2_000_000L);
+        windows.endInterval(START + 1_000L);
+
+        assertThat(windows.getTopMethods(1, 5)).extracting(method -> method.methodId).containsExactly(12, 11);
+        assertThat(windows.getTopMethods(1, 5)).extracting(method -> method.microJoules).containsExactly(2_000_000L, 1_000_000L);
+        // the buckets of method 10 leaving the windows are skipped
+        windows.endInterval(START + 2_000L);
+        windows.endInterval(START + 20_000L);
+        assertThat(windows.getTopMethods(0, 5)).isEmpty();
+        assertThat(windows.getTopMethods(1, 5)).isEmpty();
+    }
+}
@@ -0,0 +1,142 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHittersTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void heavyMethodsAreTrackedWithinErrorBoundsTest() {
+        int capacity = 20;
+        HeavyHitters heavyHitters = new HeavyHitters(capacity);
+        Map<Integer, MethodEnergy> tracked = new HashMap<>();
+        Map<Integer, Long> exact = new HashMap<>();
+        Random random = new Random(3);
+        long total = 0L;
+        for (int i = 0; i < 100_000; i++) {
+            // five heavy methods and a long tail of 50.000 generated methods
+            int methodId = i % 2 == 0 ? random.nextInt(5) : 5 + random.nextInt(50_000);
+            long microJoules = 1 + random.nextInt(100);
+            total += microJoules;
+            exact.merge(methodId, microJoules, Long::sum);
+            MethodEnergy methodEnergy = tracked.get(methodId);
+            if (methodEnergy == null) {
+                methodEnergy = new MethodEnergy("main", heavyHitters.getErrorOfNextMethod());
+                tracked.put(methodId, methodEnergy);
+                int replaced = heavyHitters.admit(methodId, methodEnergy);
+                if (replaced != MethodSymbolTable.NO_METHOD) {
+                    tracked.remove(replaced);
+                }
+            }
+            methodEnergy.add(microJoules);
+            heavyHitters.increased(methodEnergy);
+        }
+
+        assertThat(tracked).hasSize(capacity).containsKeys(0, 1, 2, 3, 4);
+        assertThat(heavyHitters.size()).isEqualTo(capacity);
+        // each tracked method holds its own slot
+        assertThat(tracked.values()).extracting(methodEnergy -> methodEnergy.trackedSlot).doesNotHaveDuplicates().allMatch(slot -> slot >= 0 && slot < capacity);
+        long trackedTotal = 0L;
+        for (Map.Entry<Integer, MethodEnergy> entry : tracked.entrySet()) {
+            MethodEnergy methodEnergy = entry.getValue();
+            long exactMicroJoules = exact.get(entry.getKey());
+            assertThat(methodEnergy.getMicroJoules()).isLessThanOrEqualTo(exactMicroJoules);
+            assertThat(methodEnergy.getMicroJoules() + methodEnergy.getErrorInMicroJoules()).isGreaterThanOrEqualTo(exactMicroJoules);
+            assertThat(methodEnergy.getErrorInMicroJoules()).isLessThanOrEqualTo(total / capacity);
+            trackedTotal += methodEnergy.getMicroJoules() + methodEnergy.getErrorInMicroJoules();
+        }
+        // the counts of the Space-Saving algorithm always add up to the total
+        assertThat(trackedTotal).isEqualTo(total);
+    }
+
+    @Test
+    void restoredMethodsAreLimitedAndOthersAreSummedUpTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+        Path stateFile = tempDir.resolve("state");
+        StateJournal journal = new StateJournal(stateFile, 60L);
+        journal.replay();
+        journal.snapshot(0L, 0L, Map.of(), symbols);
+        journal.beginInterval(1_000L, 10_000_000L);
+        journal.addMethodEnergy(symbols.intern("com.msg.A", "a"), symbols, "main", 5_000_000L);
+        journal.addMethodEnergy(symbols.intern("com.msg.B", "b"), symbols, "main", 3_000_000L);
+        journal.addMethodEnergy(symbols.intern("com.msg.C", "c"), symbols, "main", 1_000_000L);
+        journal.close();
+
+        PowerStatistics restarted = new PowerStatistics(0L, 0L, 0L, null, Set.of("com.msg"));
+        restarted.limitTrackedMethodsTo(2);
+        StateJournal restartedJournal = new StateJournal(stateFile, 60L);
+        restarted.restoreAndJournalTo(restartedJournal);
+        restartedJournal.close();
+
+        assertThat(restarted.getEnergyConsumptionPerMethod(false)).containsOnlyKeys("com.msg.A.a", "com.msg.B.b");
+        List<Map.Entry<DataPoint, BigDecimal>> heavyHitters = restarted.getEnergyConsumptionOfHeavyHitters();
+        assertThat(heavyHitters).extracting(method -> method.getKey().getName())
+            .containsExactly("com.msg.A.a", "com.msg.B.b", PowerStatistics.OTHER_METHODS, PowerStatistics.UNATTRIBUTED);
+        assertThat(heavyHitters.get(0).getKey().getValue()).isEqualByComparingTo("5");
+        assertThat(heavyHitters.get(0).getValue()).isEqualByComparingTo("5");
+        // the energy of C, not the energy attributed to no method at all
+        assertThat(heavyHitters.get(2).getKey().getValue()).isEqualByComparingTo("1");
+        assertThat(heavyHitters.get(2).getValue()).isEqualByComparingTo("1");
+        assertThat(heavyHitters.get(3).getKey().getValue()).isEqualByComparingTo("1");
+
+        // the energy of the other methods is part of the snapshot written by the restore
+        PowerStatistics restartedAgain = new PowerStatistics(0L, 0L, 0L, null, Set.of("com.msg"));
+        restartedAgain.limitTrackedMethodsTo(2);
+        StateJournal restartedAgainJournal = new StateJournal(stateFile, 60L);
+        restartedAgain.restoreAndJournalTo(restartedAgainJournal);
+        restartedAgainJournal.close();
+        assertThat(restartedAgain.getEnergyConsumptionOfHeavyHitters()).extracting(method -> method.getKey().getValue())
+            .usingElementComparator(BigDecimal::compareTo).containsExactly(new BigDecimal("5"), new BigDecimal("3"), BigDecimal.ONE, BigDecimal.ONE);
+    }
+
+    @Test
+    void replacedMethodsAreOtherMethodsAndUnsampledEnergyIsUnattributedTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+        // thread 1 used 3/4 and thread 2 1/4 of the application CPU time in each interval
+        long[] intervals = new long[1];
+        ThreadCpuTimeCollector collector = registry -> {
+            intervals[0]++;
+            return registry.update(1L, intervals[0] * 750_000_000L) + registry.update(2L, intervals[0] * 250_000_000L);
+        };
+        PowerSensorReader sensor = new PowerSensorReader(() -> new DataPoint("sensor", BigDecimal.TEN, Unit.WATT, LocalDateTime.now(), null), 1000L, 3000L, "test");
+        sensor.read();
+        PowerStatistics testee = new PowerStatistics(1000L, 100L, 0L, collector, symbols, new PerThreadStackSampler(symbols), null, sensor);
+        testee.limitTrackedMethodsTo(1);
+
+        // thread 2 is never sampled, A is replaced by B in the second interval
+        for (String className : List.of("com.msg.A", "com.msg.B")) {
+            SampleHistograms histograms = new SampleHistograms(null);
+            histograms.add(1L, "main", symbols.intern(className, "run"), MethodSymbolTable.NO_METHOD, CallTree.NO_NODE);
+            testee.endInterval(new PowerStatistics.IntervalSamples(symbols.closeInterval(), histograms, 1_000_000_000L, 1, LocalDateTime.now()));
+        }
+
+        // 10 W for two seconds, 7.5 J per interval for thread 1
+        List<Map.Entry<DataPoint, BigDecimal>> heavyHitters = testee.getEnergyConsumptionOfHeavyHitters();
+        assertThat(heavyHitters).extracting(method -> method.getKey().getName())
+            .containsExactly("com.msg.B.run", PowerStatistics.OTHER_METHODS, PowerStatistics.UNATTRIBUTED);
+        assertThat(heavyHitters.get(0).getKey().getValue()).isEqualByComparingTo("7.5");
+        assertThat(heavyHitters.get(0).getValue()).isEqualByComparingTo("15");
+        assertThat(heavyHitters.get(1).getKey().getValue()).isEqualByComparingTo("7.5");
+        assertThat(heavyHitters.get(2).getKey().getValue()).isEqualByComparingTo("5");
+        assertThat(testee.getEnergyConsumptionTotalInJoule().getValue()).isEqualByComparingTo("20");
+    }
+
+    @Test
+    void unlimitedMethodsHaveNoHeavyHittersTest() {
+        assertThat(new PowerStatistics(0L, 0L, 0L, null, Set.of("com.msg")).getEnergyConsumptionOfHeavyHitters()).isEmpty();
+    }
+}
@@ -0,0 +1,47 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MethodEnergyTest {
+
+    @Test
+    void snapshotContainsEnergyInJouleTest() {
+        MethodEnergy methodEnergy = new MethodEnergy("main");
+        methodEnergy.add(1_500_000L);
+        methodEnergy.add(250_000L);
+        DataPoint dp = methodEnergy.toDataPoint("com.msg.Foo.bar");
+        assertThat(dp.getName()).isEqualTo("com.msg.Foo.bar");
+        assertThat(dp.getValue()).isEqualByComparingTo("1.75");
+        assertThat(dp.getUnit()).isEqualTo(Unit.JOULE);
+        assertThat(dp.getThreadName()).isEqualTo("main");
+        assertThat(dp.getTime()).isNotNull();
+    }
+
+    @Test
+    void concurrentUpdatesAreNotLostTest() throws InterruptedException {
+        ConcurrentMap<Integer, MethodEnergy> energyPerMethod = new ConcurrentHashMap<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread writer = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    energyPerMethod.computeIfAbsent(j % 10, id -> new MethodEnergy("writer")).add(1L);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertThat(energyPerMethod).hasSize(10);
+        energyPerMethod.values().forEach(methodEnergy -> assertThat(methodEnergy.toDataPoint("m").getValue()).isEqualByComparingTo("0.04"));
+    }
+}
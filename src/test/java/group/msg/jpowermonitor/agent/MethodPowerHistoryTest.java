@@ -0,0 +1,136 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MethodPowerHistoryTest {
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void gorillaBlockDecodesAllPointsExactlyTest() {
+        Random random = new Random(42);
+        GorillaBlock block = new GorillaBlock(1);
+        List<long[]> expected = new ArrayList<>();
+        long time = START;
+        double value = 12.5;
+        for (int i = 0; i < 500; i++) {
+            // regular intervals with jitter and occasional gaps, repeated and changing values
+            time += i % 50 == 0 ? 3_600_000L : 1000 + random.nextInt(200) - 100;
+            value = i % 3 == 0 ? value : random.nextDouble() * 100;
+            block.append(time, value);
+            expected.add(new long[]{time, Double.doubleToRawLongBits(value)});
+        }
+        List<long[]> decoded = new ArrayList<>();
+        block.forEach((timeInMillis, v) -> decoded.add(new long[]{timeInMillis, Double.doubleToRawLongBits(v)}));
+        assertThat(decoded).usingElementComparator((a, b) -> a[0] == b[0] && a[1] == b[1] ? 0 : 1).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void regularIntervalsWithConstantPowerTakeFewBitsPerPointTest() {
+        GorillaBlock block = new GorillaBlock(1);
+        for (int i = 0; i < MethodPowerHistory.POINTS_PER_BLOCK; i++) {
+            block.append(START + i * 1000L, 4.25);
+        }
+        block.trim();
+        // 16 bytes for the first point, 2 bits for each further point
+        assertThat(block.sizeInBytes() - GorillaBlock.OVERHEAD_IN_BYTES).isLessThanOrEqualTo(56L);
+    }
+
+    @Test
+    void downsampleAveragesPairsTest() {
+        GorillaBlock block = new GorillaBlock(1);
+        block.append(START, 1.0);
+        block.append(START + 1000, 3.0);
+        block.append(START + 2000, 5.0);
+        block.downsample();
+        List<double[]> points = new ArrayList<>();
+        block.forEach((timeInMillis, value) -> points.add(new double[]{timeInMillis - START, value}));
+        assertThat(block.getResolution()).isEqualTo(2);
+        assertThat(points).containsExactly(new double[]{1000, 2.0}, new double[]{2000, 5.0});
+    }
+
+    @Test
+    void powerOfAllThreadsIsSummedPerIntervalTest() {
+        MethodPowerHistory history = new MethodPowerHistory(Long.MAX_VALUE / 2, Long.MAX_VALUE);
+        history.add(3, 3, 1.5);
+        history.add(3, 3, 0.5);
+        history.add(7, 7, 1.0);
+        history.endInterval(START);
+        history.endInterval(START + 1000); // nothing sampled
+        history.add(7, 7, 2.0);
+        history.endInterval(START + 2000);
+
+        List<String> points = new ArrayList<>();
+        history.forEach((methodId, timeInMillis, powerInWatts, resolution) -> points.add(methodId + "@" + (timeInMillis - START) + "=" + powerInWatts));
+        assertThat(points).containsExactlyInAnyOrder("3@0=2.0", "7@0=1.0", "7@2000=2.0");
+    }
+
+    @Test
+    void pointsOlderThanRetentionAreDroppedTest() {
+        MethodPowerHistory history = new MethodPowerHistory(600_000L, Long.MAX_VALUE);
+        for (int i = 0; i < 3600; i++) {
+            history.add(1, 1, 1.0);
+            if (i < 10) {
+                history.add(2, 2, 1.0); // expires completely
+            }
+            history.endInterval(START + i * 1000L);
+        }
+        long[] oldest = {Long.MAX_VALUE};
+        List<Integer> methodIds = new ArrayList<>();
+        history.forEach((methodId, timeInMillis, powerInWatts, resolution) -> {
+            oldest[0] = Math.min(oldest[0], timeInMillis);
+            if (!methodIds.contains(methodId)) {
+                methodIds.add(methodId);
+            }
+        });
+        assertThat(methodIds).containsExactly(1);
+        // whole blocks are dropped, so up to one block older than the retention is kept
+        assertThat(oldest[0]).isGreaterThanOrEqualTo(START + 3599_000L - 600_000L - MethodPowerHistory.POINTS_PER_BLOCK * 1000L);
+    }
+
+    @Test
+    void oldBlocksAreDownsampledToStayBelowMemoryLimitTest() {
+        long maxMemoryInBytes = 64 * 1024;
+        MethodPowerHistory history = new MethodPowerHistory(Long.MAX_VALUE / 2, maxMemoryInBytes);
+        Random random = new Random(7);
+        int intervals = 20_000;
+        for (int i = 0; i < intervals; i++) {
+            for (int methodId = 0; methodId < 10; methodId++) {
+                history.add(methodId, methodId, random.nextDouble());
+            }
+            history.endInterval(START + i * 1000L);
+            assertThat(history.getMemoryInBytes()).isLessThanOrEqualTo(maxMemoryInBytes);
+        }
+        long[] newest = new long[10];
+        int[] maxResolution = new int[1];
+        history.forEach((methodId, timeInMillis, powerInWatts, resolution) -> {
+            newest[methodId] = Math.max(newest[methodId], timeInMillis);
+            maxResolution[0] = Math.max(maxResolution[0], resolution);
+        });
+        assertThat(maxResolution[0]).isGreaterThan(1);
+        assertThat(newest).containsOnly(START + (intervals - 1) * 1000L);
+    }
+
+    @Test
+    void removedSlotIsDroppedTest() {
+        MethodPowerHistory history = new MethodPowerHistory(Long.MAX_VALUE / 2, Long.MAX_VALUE);
+        history.add(0, 10, 1.0);
+        history.endInterval(START);
+        long memoryOfOneSeries = history.getMemoryInBytes();
+        history.add(0, 10, 2.0);
+        // method 10 is replaced by method 12 in slot 0 within the interval
+        history.remove(0);
+        history.add(0, 12, 3.0);
+        history.endInterval(START + 1000);
+
+        List<String> points = new ArrayList<>();
+        history.forEach((methodId, timeInMillis, powerInWatts, resolution) -> points.add(methodId + "@" + (timeInMillis - START) + "=" + powerInWatts));
+        assertThat(points).containsExactly("12@1000=3.0");
+        assertThat(history.getMemoryInBytes()).isEqualTo(memoryOfOneSeries);
+    }
+}
@@ -0,0 +1,116 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MethodSymbolTableTest {
+
+    @Test
+    void sameMethodIsInternedOnceTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of());
+        int id = symbols.intern("com.msg.Foo", "bar");
+        // equal, but not identical strings
+        assertThat(symbols.intern(new String("com.msg.Foo"), new String("bar"))).isEqualTo(id);
+        assertThat(symbols.intern(new StackTraceElement("com.msg.Foo", "bar", null, 1))).isEqualTo(id);
+        assertThat(symbols.intern("com.msg.Foo", "baz")).isNotEqualTo(id);
+        assertThat(symbols.intern("com.msg.Foo.bar", "")).isNotEqualTo(id);
+        assertThat(symbols.size()).isEqualTo(3);
+    }
+
+    @Test
+    void qualifiedNameIsCreatedFromClassAndMethodTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of());
+        int id = symbols.intern("com.msg.Foo", "bar");
+        assertThat(symbols.getQualifiedName(id)).isEqualTo("com.msg.Foo.bar");
+        assertThat(symbols.getQualifiedName(id)).isSameAs(symbols.getQualifiedName(id));
+        assertThat(symbols.getQualifiedName(MethodSymbolTable.NO_METHOD)).isNull();
+    }
+
+    @Test
+    void qualifiedNameRoundTripsTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("(other"));
+        int id = symbols.internQualifiedName("com.msg.Foo.bar");
+        assertThat(id).isEqualTo(symbols.intern("com.msg.Foo", "bar"));
+        assertThat(symbols.getQualifiedName(id)).isEqualTo("com.msg.Foo.bar");
+        // a name without package or class is not prefixed with the separator
+        int withoutClass = symbols.internQualifiedName("(other methods)");
+        assertThat(symbols.getQualifiedName(withoutClass)).isEqualTo("(other methods)");
+        assertThat(symbols.internQualifiedName(symbols.getQualifiedName(withoutClass))).isEqualTo(withoutClass);
+        assertThat(symbols.isFiltered(withoutClass)).isTrue();
+        assertThat(symbols.isFiltered(id)).isFalse();
+    }
+
+    @Test
+    void filterIsAppliedToQualifiedNameTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg", "java.lang.Thread.sleep"));
+        assertThat(symbols.isFiltered(symbols.intern("com.msg.Foo", "bar"))).isTrue();
+        assertThat(symbols.isFiltered(symbols.intern("java.lang.Thread", "sleep"))).isTrue();
+        assertThat(symbols.isFiltered(symbols.intern("java.lang.Thread", "run"))).isFalse();
+        assertThat(symbols.isFiltered(MethodSymbolTable.NO_METHOD)).isFalse();
+        assertThat(new MethodSymbolTable(null).isFiltered(0)).isFalse();
+    }
+
+    @Test
+    void idsAreDenseAndStableWhenGrowingTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg.Class1"));
+        Map<Integer, Integer> ids = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.put(i, symbols.intern("com.msg.Class" + i % 50, "method" + i));
+        }
+        assertThat(symbols.size()).isEqualTo(5000);
+        for (int i = 0; i < 5000; i++) {
+            assertThat(symbols.intern("com.msg.Class" + i % 50, "method" + i)).isEqualTo(ids.get(i)).isEqualTo(i);
+            assertThat(symbols.getQualifiedName(i)).isEqualTo("com.msg.Class" + i % 50 + ".method" + i);
+            assertThat(symbols.isFiltered(i)).isEqualTo(("com.msg.Class" + i % 50 + ".method" + i).startsWith("com.msg.Class1"));
+        }
+    }
+
+    @Test
+    void unusedIdsAreRecycledOnceTheirIntervalsAreReleasedTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+        CallTree callTree = new CallTree();
+        symbols.recycleIdsFrom(1024, callTree);
+        int tracked = symbols.intern("com.msg.Main", "run");
+        symbols.pin(tracked);
+        int inCallTree = symbols.intern("com.msg.Main", "loop");
+        callTree.add(new int[]{inCallTree}, 1);
+        int maxId = 0;
+        for (int interval = 0; interval < 100; interval++) {
+            for (int i = 0; i < 1000; i++) {
+                // 100.000 generated methods, each sampled in one interval only
+                maxId = Math.max(maxId, symbols.intern("com.msg.Generated" + interval, "lambda" + i));
+            }
+            long closed = symbols.closeInterval();
+            symbols.releaseIntervalsUpTo(closed - 1); // the export lags one interval behind
+        }
+
+        // only the methods of the last intervals (open, not exported yet or possibly buffered) are in use
+        assertThat(maxId).isLessThan(4096);
+        assertThat(symbols.size()).isLessThan(4096);
+        assertThat(symbols.intern("com.msg.Main", "run")).isEqualTo(tracked);
+        assertThat(symbols.intern("com.msg.Main", "loop")).isEqualTo(inCallTree);
+        assertThat(symbols.getQualifiedName(tracked)).isEqualTo("com.msg.Main.run");
+        int generated = symbols.intern("com.msg.Generated99", "lambda999");
+        assertThat(symbols.getQualifiedName(generated)).isEqualTo("com.msg.Generated99.lambda999");
+        // a recycled method gets a new id with its own name and filter flag
+        int recycled = symbols.intern("com.msg.Generated0", "lambda0");
+        assertThat(symbols.getQualifiedName(recycled)).isEqualTo("com.msg.Generated0.lambda0");
+        assertThat(symbols.isFiltered(recycled)).isTrue();
+    }
+
+    @Test
+    void idsAreNotRecycledWithoutLimitTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of());
+        for (int i = 0; i < 5000; i++) {
+            symbols.intern("com.msg.Generated", "lambda" + i);
+            symbols.releaseIntervalsUpTo(symbols.closeInterval());
+        }
+        assertThat(symbols.size()).isEqualTo(5000);
+        assertThat(symbols.getQualifiedName(0)).isEqualTo("com.msg.Generated.lambda0");
+    }
+}
@@ -0,0 +1,52 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static group.msg.jpowermonitor.util.Constants.MATH_CONTEXT;
+import static group.msg.jpowermonitor.util.Constants.ONE_THOUSAND;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MicroJoulesTest {
+
+    @Test
+    void conversionTest() {
+        assertThat(MicroJoules.of(1.0, 1_000_000_000L)).isEqualTo(MicroJoules.PER_JOULE);
+        assertThat(MicroJoules.of(0.31, 10_000_000L)).isEqualTo(3_100L);
+        assertThat(MicroJoules.of(0.00004, 10_000_000L)).isEqualTo(0L); // 0.4 µJ
+        assertThat(MicroJoules.of(0.00005, 10_000_000L)).isEqualTo(1L); // 0.5 µJ
+        assertThat(MicroJoules.toJoules(1_234_567L)).isEqualByComparingTo("1.234567");
+        assertThat(MicroJoules.toJoules(Long.MAX_VALUE)).isEqualByComparingTo("9223372036854.775807");
+    }
+
+    /**
+     * Compares the fixed-point accounting with the former BigDecimal calculation:
+     * the error must not exceed 0.5 µJ per contribution.
+     */
+    @Test
+    void sumIsWithinDocumentedErrorOfBigDecimalCalculationTest() {
+        Random random = new Random(4711L);
+        long measurementInterval = 1000L;
+        long gatherStatisticsInterval = 10L;
+        double activityToEnergyRatio = (double) gatherStatisticsInterval / measurementInterval;
+        BigDecimal bigDecimalActivityToEnergyRatio = new BigDecimal(gatherStatisticsInterval).divide(new BigDecimal(measurementInterval), MATH_CONTEXT);
+        int contributions = 1_000_000;
+
+        long sumInMicroJoules = 0;
+        BigDecimal expectedSum = BigDecimal.ZERO;
+        for (int i = 0; i < contributions; i++) {
+            double threadPower = random.nextDouble() * 50.0;
+            sumInMicroJoules += MicroJoules.of(threadPower * activityToEnergyRatio, TimeUnit.MILLISECONDS.toNanos(measurementInterval));
+            expectedSum = expectedSum.add(new BigDecimal(threadPower)
+                .multiply(bigDecimalActivityToEnergyRatio, MATH_CONTEXT)
+                .multiply(BigDecimal.valueOf(measurementInterval), MATH_CONTEXT)
+                .divide(ONE_THOUSAND, MATH_CONTEXT), MATH_CONTEXT);
+        }
+
+        BigDecimal maxError = MicroJoules.toJoules(contributions).divide(BigDecimal.valueOf(2), MATH_CONTEXT);
+        assertThat(MicroJoules.toJoules(sumInMicroJoules).subtract(expectedSum).abs()).isLessThanOrEqualTo(maxError);
+    }
+}
@@ -0,0 +1,51 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackageFilterTest {
+
+    @Test
+    void matchesLikeStartsWithOnQualifiedNameTest() {
+        Set<String> prefixes = Set.of("com.msg", "com.msgx.Foo", "org.springframework.web.", "io.netty.Channel.write", "java.lang.Thread.");
+        PackageFilter filter = new PackageFilter(prefixes);
+        String[][] methods = {
+            {"com.msg.Foo", "bar"}, {"com.msgbox.Foo", "bar"}, {"com.ms", "gFoo"}, {"com.msgx", "Foo"}, {"com.msgx.Fo", "o"},
+            {"org.springframework.web", "run"}, {"org.springframework.web.Servlet", "service"}, {"org.springframework", "webapp"},
+            {"io.netty.Channel", "write"}, {"io.netty.Channel", "writeAndFlush"}, {"io.netty.Channel", "read"}, {"io.netty.ChannelWriter", "run"},
+            {"java.lang.Thread", "run"}, {"java.lang.ThreadGroup", "run"}, {"java.lang", "Thread"}, {"", ""}
+        };
+        for (int round = 0; round < 2; round++) { // second round uses the memoized class names
+            for (String[] method : methods) {
+                String qualifiedName = method[0] + "." + method[1];
+                assertThat(filter.matches(method[0], method[1]))
+                    .as(qualifiedName)
+                    .isEqualTo(prefixes.stream().anyMatch(qualifiedName::startsWith));
+            }
+        }
+    }
+
+    @Test
+    void emptyFilterMatchesNothingTest() {
+        assertThat(new PackageFilter(Set.of()).matches("com.msg.Foo", "bar")).isFalse();
+        assertThat(new PackageFilter(null).matches("com.msg.Foo", "bar")).isFalse();
+    }
+
+    @Test
+    void emptyPrefixMatchesEverythingTest() {
+        assertThat(new PackageFilter(Set.of("")).matches("com.msg.Foo", "bar")).isTrue();
+    }
+
+    @Test
+    void memoizedClassNamesAreBoundedTest() {
+        PackageFilter filter = new PackageFilter(Set.of("com.msg"));
+        for (int i = 0; i < 3 * PackageFilter.MAX_MEMOIZED_CLASS_NAMES; i++) {
+            assertThat(filter.matches("com.msg.Generated" + i, "run")).isTrue();
+            assertThat(filter.matches("org.Generated" + i, "run")).isFalse();
+        }
+        assertThat(filter.getMemoizedClassNames()).isLessThanOrEqualTo(PackageFilter.MAX_MEMOIZED_CLASS_NAMES);
+    }
+}
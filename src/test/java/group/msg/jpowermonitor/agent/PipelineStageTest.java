@@ -0,0 +1,107 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PipelineStageTest {
+
+    @Test
+    void elementsAreProcessedInOrderDespiteFailuresTest() throws InterruptedException {
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        PipelineStage<Integer> stage = new PipelineStage<>("PipelineStageTest", 8, element -> {
+            if (element == 2) {
+                throw new IllegalStateException("expected failure");
+            }
+            processed.add(element);
+            if (element == 4) {
+                done.countDown();
+            }
+        });
+        stage.start();
+        try {
+            for (int i = 1; i <= 4; i++) {
+                stage.offer(i);
+            }
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(processed).containsExactly(1, 3, 4);
+        } finally {
+            stage.stop();
+        }
+    }
+
+    @Test
+    void slowStageDoesNotBlockProducerTest() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("PipelineStageTest", 2, element -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(element);
+        });
+        stage.start();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                stage.offer(i);
+            }
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000L);
+            assertThat(stage.getDropped()).isGreaterThanOrEqualTo(97L);
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!processed.contains(99) && System.nanoTime() - deadline < 0) {
+                TimeUnit.MILLISECONDS.sleep(5L);
+            }
+            assertThat(processed).contains(99).hasSizeLessThanOrEqualTo(3);
+        } finally {
+            stage.stop();
+        }
+    }
+
+    @Test
+    void stopProcessesPendingElementsAndWaitsForTheStageTest() throws InterruptedException {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> processed = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("PipelineStageTest", 8, element -> {
+            firstStarted.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(element);
+        });
+        stage.start();
+        stage.offer(1);
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        stage.offer(2);
+        stage.offer(3);
+        Thread releasing = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100L);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+        releasing.start();
+
+        stage.stop();
+
+        assertThat(processed).containsExactly(1, 2, 3);
+        stage.offer(4);
+        releasing.join();
+        TimeUnit.MILLISECONDS.sleep(50L);
+        assertThat(processed).containsExactly(1, 2, 3);
+    }
+}
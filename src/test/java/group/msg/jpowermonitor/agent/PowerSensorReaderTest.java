@@ -0,0 +1,94 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PowerSensorReaderTest {
+
+    @Test
+    void latestReadingIsPublishedTest() {
+        AtomicReference<BigDecimal> watts = new AtomicReference<>(BigDecimal.valueOf(12.5));
+        PowerSensorReader reader = new PowerSensorReader(() -> power(watts.get()), 1000L, 3000L, "PowerSensorReaderTest");
+        assertThat(reader.getLatestReading(System.nanoTime())).isNull();
+
+        reader.read();
+        PowerSensorReader.PowerReading first = reader.getLatestReading(System.nanoTime());
+        assertThat(first.getPowerInWatts()).isEqualTo(12.5);
+
+        watts.set(BigDecimal.valueOf(20));
+        reader.read();
+        PowerSensorReader.PowerReading second = reader.getLatestReading(System.nanoTime());
+        assertThat(second.getPowerInWatts()).isEqualTo(20.0);
+        assertThat(second.getTimestampInNanos()).isGreaterThanOrEqualTo(first.getTimestampInNanos());
+    }
+
+    @Test
+    void readingGetsStaleAndIsKeptOnFailureTest() {
+        AtomicReference<BigDecimal> watts = new AtomicReference<>(BigDecimal.TEN);
+        PowerSensorReader reader = new PowerSensorReader(() -> {
+            if (watts.get() == null) {
+                throw new JPowerMonitorException("sensor not available");
+            }
+            return power(watts.get());
+        }, 1000L, 3000L, "PowerSensorReaderTest");
+        reader.read();
+        watts.set(null);
+        reader.read(); // failed read keeps the previous reading
+
+        PowerSensorReader.PowerReading reading = reader.getLatestReading(System.nanoTime());
+        assertThat(reading.getPowerInWatts()).isEqualTo(10.0);
+        assertThat(reader.isStale(reading, reading.getTimestampInNanos() + TimeUnit.SECONDS.toNanos(3))).isFalse();
+        long later = reading.getTimestampInNanos() + TimeUnit.SECONDS.toNanos(4);
+        assertThat(reader.isStale(reading, later)).isTrue();
+        assertThat(reader.getLatestReading(later)).isSameAs(reading); // stale readings are still used
+    }
+
+    @Test
+    void slowSensorDoesNotBlockConsumerTest() throws InterruptedException {
+        CountDownLatch sensorCalled = new CountDownLatch(1);
+        CountDownLatch sensorResponds = new CountDownLatch(1);
+        PowerSensorReader reader = new PowerSensorReader(() -> {
+            sensorCalled.countDown();
+            await(sensorResponds);
+            return power(BigDecimal.ONE);
+        }, 10L, 30L, "PowerSensorReaderTest");
+        reader.start();
+        try {
+            assertThat(sensorCalled.await(5, TimeUnit.SECONDS)).isTrue();
+            long start = System.nanoTime();
+            assertThat(reader.getLatestReading(System.nanoTime())).isNull();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(100L);
+
+            sensorResponds.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (reader.getLatestReading(System.nanoTime()) == null && System.nanoTime() - deadline < 0) {
+                TimeUnit.MILLISECONDS.sleep(5L);
+            }
+            assertThat(reader.getLatestReading(System.nanoTime()).getPowerInWatts()).isEqualTo(1.0);
+        } finally {
+            sensorResponds.countDown();
+            reader.stop();
+        }
+    }
+
+    private static DataPoint power(BigDecimal watts) {
+        return new DataPoint("CPU Power", watts, Unit.WATT, LocalDateTime.now(), null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
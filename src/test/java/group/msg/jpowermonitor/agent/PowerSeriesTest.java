@@ -0,0 +1,118 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.dto.Activity;
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PowerSeriesTest {
+    private static final LocalDateTime T1 = LocalDateTime.of(2024, 1, 1, 10, 0, 0, 100_000_000);
+    private static final LocalDateTime T2 = T1.plusSeconds(1);
+    @TempDir
+    Path tempDir;
+    private final MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+    private final int run = symbols.intern("com.msg.A", "run");
+    private final int sleep = symbols.intern("java.lang.Thread", "sleep");
+
+    @Test
+    void convertedFilesMatchPowerCsvFilesTest() throws IOException {
+        Path file = tempDir.resolve("jPowerMonitor_1_power_per_method.jpm");
+        try (PowerSeriesWriter writer = new PowerSeriesWriter(file, 0L, 0L)) {
+            writer.append(List.of(
+                activity("main", T1, run, run, 1.5),
+                activity("main", T1, sleep, run, 0.25),
+                activity("worker", T1, sleep, MethodSymbolTable.NO_METHOD, 0.5)));
+            writer.append(List.of()); // interval without samples
+            writer.append(List.of(activity("worker", T2, sleep, MethodSymbolTable.NO_METHOD, 2.0)));
+        }
+        Path csvFile = tempDir.resolve("power.csv");
+        Path filteredCsvFile = tempDir.resolve("power_filtered.csv");
+
+        assertThat(PowerSeriesConverter.convert(file, csvFile, filteredCsvFile)).isEqualTo(4L);
+        assertThat(lines(csvFile)).containsExactly(
+            row("com.msg.A.run", "1.5", T1, "main"),
+            row("java.lang.Thread.sleep", "0.25", T1, "main"),
+            row("java.lang.Thread.sleep", "0.5", T1, "worker"),
+            row("java.lang.Thread.sleep", "2", T2, "worker"));
+        // the power of all methods of a thread with the same filtered method is summed up
+        assertThat(lines(filteredCsvFile)).containsExactly(row("com.msg.A.run", "1.75", T1, "main"));
+    }
+
+    @Test
+    void binaryFileIsMuchSmallerThanCsvTest() throws IOException {
+        Path file = tempDir.resolve("power.jpm");
+        try (PowerSeriesWriter writer = new PowerSeriesWriter(file, 0L, 0L)) {
+            for (int interval = 0; interval < 100; interval++) {
+                List<Activity> activities = new ArrayList<>();
+                for (int method = 0; method < 50; method++) {
+                    int methodId = symbols.intern("com.msg.service.impl.CustomerOrderServiceImpl", "processOrderLine" + method);
+                    activities.add(activity("http-nio-8080-exec-" + method % 4, T1.plusSeconds(interval), methodId, methodId, 0.0123 * (method + 1)));
+                }
+                writer.append(activities);
+            }
+        }
+        Path csvFile = tempDir.resolve("power.csv");
+        PowerSeriesConverter.convert(file, csvFile, tempDir.resolve("power_filtered.csv"));
+        assertThat(lines(csvFile)).hasSize(5_000);
+        assertThat(Files.size(csvFile)).isGreaterThan(10 * Files.size(file));
+    }
+
+    @Test
+    void incompleteBlockAtEndOfFileIsIgnoredTest() throws IOException {
+        Path file = tempDir.resolve("power.jpm");
+        try (PowerSeriesWriter writer = new PowerSeriesWriter(file, 0L, 0L)) {
+            writer.append(List.of(activity("main", T1, run, run, 1.0)));
+            writer.append(List.of(activity("main", T2, run, run, 1.0), activity("main", T2, sleep, run, 1.0)));
+        }
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 2)); // crash while writing
+
+        List<LocalDateTime> intervals = new ArrayList<>();
+        assertThat(PowerSeriesReader.read(file, interval -> intervals.add(interval.end))).isEqualTo(1L);
+        assertThat(intervals).containsExactly(T1);
+    }
+
+    @Test
+    void runsAppendedToSameFileHaveTheirOwnDictionaryTest() throws IOException {
+        Path file = tempDir.resolve("power.jpm");
+        try (PowerSeriesWriter writer = new PowerSeriesWriter(file, 0L, 0L)) {
+            writer.append(List.of(activity("main", T1, run, run, 1.0)));
+        }
+        try (PowerSeriesWriter writer = new PowerSeriesWriter(file, 0L, 0L)) {
+            writer.append(List.of(activity("worker", T2, sleep, MethodSymbolTable.NO_METHOD, 3.0)));
+        }
+        Path csvFile = tempDir.resolve("power.csv");
+        assertThat(PowerSeriesConverter.convert(file, csvFile, tempDir.resolve("power_filtered.csv"))).isEqualTo(2L);
+        assertThat(lines(csvFile)).containsExactly(
+            row("com.msg.A.run", "1", T1, "main"),
+            row("java.lang.Thread.sleep", "3", T2, "worker"));
+    }
+
+    private SampledMethodActivity activity(String threadName, LocalDateTime time, int methodId, int filteredMethodId, double powerInWatts) {
+        SampledMethodActivity activity = new SampledMethodActivity(symbols, threadName, time, methodId, filteredMethodId);
+        activity.setPowerInWatts(powerInWatts);
+        return activity;
+    }
+
+    private static String row(String method, String watts, LocalDateTime time, String threadName) {
+        String row = ResultsWriter.appendCsvEntryForDataPoint(new StringBuilder(), new DataPoint(method, new BigDecimal(watts), Unit.WATT, time, threadName), BigDecimal.ZERO).toString();
+        return row.substring(0, row.length() - System.lineSeparator().length());
+    }
+
+    private static List<String> lines(Path file) throws IOException {
+        return Files.readAllLines(file, Charset.defaultCharset());
+    }
+}
@@ -10,6 +10,7 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -114,4 +115,46 @@ class PowerStatisticsTest {
         Map<String, DataPoint> filtered = testee.aggregateActivityToDataPoints(activities, true);
         assertEquals(1, filtered.size());
     }
+
+    @Test
+    void energyConsumptionTotalIsZeroInitiallyTest() {
+        PowerStatistics testee = new PowerStatistics(0L, 0L, 0L, null, null);
+        DataPoint total = testee.getEnergyConsumptionTotalInJoule();
+        assertThat(total.getValue()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(total.getUnit()).isEqualTo(Unit.JOULE);
+        assertThat(testee.getEnergyConsumptionPerMethod(false)).isEmpty();
+    }
+
+    @Test
+    void batchedSamplesNeverExceedTheThreadsEnergyTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+        StackSampler batchingSampler = new StackSampler() {
+            @Override
+            public void sample(SampleHistograms sampleHistograms) {
+            }
+
+            @Override
+            public boolean isSynchronous() {
+                return false;
+            }
+        };
+        // thread 1 used 3/4 and thread 2 1/4 of the application CPU time
+        ThreadCpuTimeCollector collector = registry -> registry.update(1L, 750_000_000L) + registry.update(2L, 250_000_000L);
+        PowerSensorReader sensor = new PowerSensorReader(() -> new DataPoint("sensor", BigDecimal.TEN, Unit.WATT, LocalDateTime.now(), null), 1000L, 3000L, "test");
+        sensor.read();
+        PowerStatistics testee = new PowerStatistics(1000L, 100L, 0L, collector, symbols, batchingSampler, null, sensor);
+
+        // a burst of twice the samples of the interval, e.g. the events of two intervals flushed at once
+        int samples = 10;
+        SampleHistograms histograms = new SampleHistograms(null);
+        for (int i = 0; i < 2 * samples; i++) {
+            histograms.add(1L, "main", symbols.intern(i % 2 == 0 ? "com.msg.A" : "com.msg.B", "run"), MethodSymbolTable.NO_METHOD, CallTree.NO_NODE);
+        }
+        testee.endInterval(new PowerStatistics.IntervalSamples(0L, histograms, 1_000_000_000L, samples, LocalDateTime.now()));
+
+        // 10 W for one second, 7.5 J for thread 1, no samples of thread 2 in this interval
+        BigDecimal methodEnergy = testee.getEnergyConsumptionPerMethod(false).values().stream().map(DataPoint::getValue).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertThat(methodEnergy).isEqualByComparingTo("7.5");
+        assertThat(testee.getEnergyConsumptionTotalInJoule().getValue()).isEqualByComparingTo("10");
+    }
 }
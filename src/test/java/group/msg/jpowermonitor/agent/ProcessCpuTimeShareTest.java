@@ -0,0 +1,53 @@
+package group.msg.jpowermonitor.agent;
+
+import group.msg.jpowermonitor.util.ProcStatReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class ProcessCpuTimeShareTest {
+    @TempDir
+    Path tempDir;
+
+    private Path procStat(long busy, long idle) throws IOException {
+        Path procStat = tempDir.resolve("stat");
+        Files.writeString(procStat, "cpu  " + busy + " 0 0 " + idle + " 0 0 0 0 0 0\n");
+        return procStat;
+    }
+
+    @Test
+    void shareOfProcessInBusyCpuTimeOfNodeTest() throws IOException {
+        AtomicLong processCpuTime = new AtomicLong(5_000_000_000L);
+        PowerShare share = new ProcessCpuTimeShare(processCpuTime::get, new ProcStatReader(procStat(1_000, 50_000)));
+
+        // 32 CPUs busy for 1 s (3200 ticks), the process used 8 CPUs of it
+        procStat(4_200, 50_000);
+        processCpuTime.addAndGet(8_000_000_000L);
+        assertThat(share.nextInterval()).isCloseTo(0.25, within(1e-9));
+
+        // only idle time on the node, the process did not run
+        procStat(4_200, 53_200);
+        assertThat(share.nextInterval()).isEqualTo(0.0);
+
+        // a closed share keeps the share of the last interval
+        share.close();
+        procStat(7_400, 53_200);
+        processCpuTime.addAndGet(8_000_000_000L);
+        assertThat(share.nextInterval()).isEqualTo(0.0);
+    }
+
+    @Test
+    void shareIsLimitedToTheWholePowerTest() {
+        // the process CPU time is exact, the CPU time of the node is counted in ticks
+        assertThat(ProcessCpuTimeShare.calculateShare(1_005_000_000L, 1_000_000_000L)).isEqualTo(1.0);
+        assertThat(ProcessCpuTimeShare.calculateShare(1_000L, 0L)).isEqualTo(1.0);
+        assertThat(ProcessCpuTimeShare.calculateShare(0L, 0L)).isEqualTo(0.0);
+    }
+}
@@ -0,0 +1,97 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProcfsThreadCpuTimeCollectorTest {
+
+    @Test
+    void nativeThreadNameIsTruncatedTest() {
+        assertThat(ProcfsThreadCpuTimeCollector.toNativeThreadName("main")).isEqualTo("main");
+        assertThat(ProcfsThreadCpuTimeCollector.toNativeThreadName("ForkJoinPool.commonPool-worker-1")).isEqualTo("ForkJoinPool.co");
+    }
+
+    @EnabledOnOs(OS.LINUX)
+    @Test
+    void cpuTimeOfNamedThreadIsReadFromProcfsTest() throws InterruptedException {
+        com.sun.management.ThreadMXBean threadMxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Set<Long> threadIdsReadViaJmx = new HashSet<>();
+        com.sun.management.ThreadMXBean recordingThreadMxBean = (com.sun.management.ThreadMXBean) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{com.sun.management.ThreadMXBean.class}, (proxy, method, args) -> {
+                if ("getThreadCpuTime".equals(method.getName()) && args[0] instanceof long[]) {
+                    for (long threadId : (long[]) args[0]) {
+                        threadIdsReadViaJmx.add(threadId);
+                    }
+                }
+                return method.invoke(threadMxBean, args);
+            });
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(1);
+        long[] iterations = new long[1]; // published by join()
+        Thread busyThread = new Thread(() -> {
+            started.countDown();
+            long counter = 0;
+            while (running.get()) {
+                counter++;
+            }
+            iterations[0] = counter;
+        }, "procfs-busy");
+        busyThread.start();
+        started.await();
+        Thread.sleep(200);
+
+        ProcfsThreadCpuTimeCollector collector = new ProcfsThreadCpuTimeCollector(ProcfsThreadCpuTimeCollector.PROC_SELF_TASK, recordingThreadMxBean);
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        registry.startInterval();
+        long totalCpuTime = collector.collect(registry);
+        long cpuTimeViaJmx = threadMxBean.getThreadCpuTime(busyThread.getId());
+        running.set(false);
+        busyThread.join();
+
+        long cpuTimeViaProcfs = registry.getCpuTimeInInterval(busyThread.getId());
+        assertThat(iterations[0]).isPositive();
+        assertThat(threadIdsReadViaJmx).doesNotContain(busyThread.getId());
+        assertThat(cpuTimeViaProcfs).isPositive().isLessThanOrEqualTo(cpuTimeViaJmx).isGreaterThan(cpuTimeViaJmx / 2);
+        assertThat(totalCpuTime).isGreaterThanOrEqualTo(cpuTimeViaProcfs);
+    }
+
+    @EnabledOnOs(OS.LINUX)
+    @Test
+    void schedstatIsReReadInEachIntervalTest() throws InterruptedException {
+        com.sun.management.ThreadMXBean threadMxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ProcfsThreadCpuTimeCollector collector = new ProcfsThreadCpuTimeCollector(ProcfsThreadCpuTimeCollector.PROC_SELF_TASK, threadMxBean);
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        long[] cpuTimeInIntervals = new long[3]; // the last entry is the CPU time via JMX, published by join()
+        Thread measuredThread = new Thread(() -> {
+            for (int i = 0; i < 2; i++) {
+                long end = System.nanoTime() + 50_000_000L;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+                registry.startInterval();
+                collector.collect(registry);
+                cpuTimeInIntervals[i] = registry.getCpuTimeInInterval(Thread.currentThread().getId());
+            }
+            cpuTimeInIntervals[2] = threadMxBean.getCurrentThreadCpuTime();
+        }, "procfs-reread");
+        measuredThread.start();
+        measuredThread.join();
+        collector.close();
+
+        // the cached schedstat file is re-read, the second interval only holds the CPU time since the first one
+        assertThat(cpuTimeInIntervals[0]).isPositive();
+        assertThat(cpuTimeInIntervals[1]).isPositive();
+        assertThat(cpuTimeInIntervals[0] + cpuTimeInIntervals[1]).isLessThanOrEqualTo(cpuTimeInIntervals[2]).isGreaterThan(cpuTimeInIntervals[2] / 2);
+    }
+}
@@ -0,0 +1,68 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SampleHistogramsTest {
+
+    @Test
+    void samplesAreCountedPerThreadAndMethodTest() {
+        SampleHistograms histograms = new SampleHistograms(null);
+        for (int i = 0; i < 3; i++) {
+            histograms.add(1L, "main", 7, MethodSymbolTable.NO_METHOD, CallTree.NO_NODE);
+        }
+        histograms.add(1L, "main", 8, 7, CallTree.NO_NODE);
+        histograms.add(2L, "worker", 7, MethodSymbolTable.NO_METHOD, CallTree.NO_NODE);
+
+        Map<Long, Map<List<Integer>, Integer>> counts = collect(histograms);
+        assertThat(counts).containsOnlyKeys(1L, 2L);
+        assertThat(counts.get(1L)).containsExactlyInAnyOrderEntriesOf(Map.of(List.of(7, MethodSymbolTable.NO_METHOD), 3, List.of(8, 7), 1));
+        assertThat(counts.get(2L)).containsExactlyInAnyOrderEntriesOf(Map.of(List.of(7, MethodSymbolTable.NO_METHOD), 1));
+    }
+
+    @Test
+    void stackIsCountedWithTopAndFirstFilteredMethodTest() {
+        MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+        SampleHistograms histograms = new SampleHistograms(null);
+        histograms.addStack(symbols, 1L, "main", new StackTraceElement[]{
+            new StackTraceElement("java.io.FileOutputStream", "write", null, 1),
+            new StackTraceElement("com.msg.Writer", "flush", null, 2),
+            new StackTraceElement("com.msg.Main", "main", null, 3)});
+        histograms.addStack(symbols, 1L, "main", new StackTraceElement[0]);
+
+        Map<List<Integer>, Integer> counts = collect(histograms).get(1L);
+        assertThat(counts).containsExactly(Map.entry(List.of(symbols.intern("java.io.FileOutputStream", "write"), symbols.intern("com.msg.Writer", "flush")), 1));
+        assertThat(symbols.size()).isEqualTo(2); // frames below the first filtered one are not interned
+    }
+
+    @Test
+    void histogramsAreReusedAndIdleThreadsEvictedTest() {
+        SampleHistograms histograms = new SampleHistograms(null);
+        for (long threadId = 1; threadId <= 200; threadId++) {
+            histograms.add(threadId, "thread-" + threadId, 1, MethodSymbolTable.NO_METHOD, CallTree.NO_NODE);
+        }
+        histograms.clear();
+        assertThat(collect(histograms)).isEmpty();
+        assertThat(histograms.size()).isEqualTo(200);
+
+        for (int interval = 0; interval < 20; interval++) {
+            histograms.add(5L, "thread-5", 2, MethodSymbolTable.NO_METHOD, CallTree.NO_NODE);
+            assertThat(collect(histograms).get(5L)).containsExactly(Map.entry(List.of(2, MethodSymbolTable.NO_METHOD), 1));
+            histograms.clear();
+        }
+        assertThat(histograms.size()).isEqualTo(1);
+    }
+
+    private static Map<Long, Map<List<Integer>, Integer>> collect(SampleHistograms histograms) {
+        Map<Long, Map<List<Integer>, Integer>> counts = new HashMap<>();
+        histograms.forEach((threadId, histogram) -> histogram.forEach((methodId, filteredMethodId, count) ->
+            counts.computeIfAbsent(threadId, id -> new HashMap<>()).put(List.of(methodId, filteredMethodId), count)));
+        return counts;
+    }
+}
@@ -0,0 +1,54 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SamplingSchedulerTest {
+
+    @Test
+    void nextDeadlineIsOnGridTest() {
+        assertThat(SamplingScheduler.nextDeadline(100L, 10L, 105L)).isEqualTo(110L);
+        assertThat(SamplingScheduler.nextDeadline(100L, 10L, 110L)).isEqualTo(120L); // deadline reached exactly
+        assertThat(SamplingScheduler.nextDeadline(100L, 10L, 147L)).isEqualTo(150L); // passed deadlines are skipped
+        assertThat(SamplingScheduler.nextDeadline(Long.MAX_VALUE - 5L, 10L, Long.MAX_VALUE)).isEqualTo(Long.MIN_VALUE + 4L); // nanoTime overflow
+    }
+
+    @Test
+    void slowSamplesDoNotStretchIntervalTest() throws InterruptedException {
+        List<long[]> intervals = new CopyOnWriteArrayList<>();
+        SamplingScheduler scheduler = new SamplingScheduler(200L, 20L,
+            () -> sleep(8L), // sampling takes 40 % of the sampling period
+            (elapsedNanos, samples) -> intervals.add(new long[]{elapsedNanos, samples}),
+            "SamplingSchedulerTest");
+        long start = System.nanoTime();
+        scheduler.start();
+        while (intervals.size() < 5) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+        scheduler.stop();
+        long elapsed = System.nanoTime() - start;
+
+        // old behaviour: 10 * (8 ms + 20 ms) = 280 ms per interval
+        assertThat(TimeUnit.NANOSECONDS.toMillis(elapsed)).isLessThan(5 * 260L);
+        long sumOfIntervals = 0;
+        for (long[] interval : intervals.subList(0, 5)) {
+            sumOfIntervals += interval[0];
+            assertThat(interval[1]).isBetween(1L, 10L);
+        }
+        assertThat(sumOfIntervals).isLessThanOrEqualTo(elapsed);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(sumOfIntervals)).isGreaterThanOrEqualTo(5 * 200L - 5L);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StateJournalTest {
+    @TempDir
+    Path tempDir;
+    private final MethodSymbolTable symbols = new MethodSymbolTable(Set.of("com.msg"));
+
+    @Test
+    void journalIsReplayedOnTopOfSnapshotTest() {
+        Path stateFile = tempDir.resolve("state");
+        StateJournal journal = new StateJournal(stateFile, 60L);
+        assertThat(journal.replay().methods).isEmpty();
+        journal.snapshot(1_000L, 0L, Map.of(), symbols); // starts the journal
+
+        int run = symbols.intern("com.msg.Main", "run");
+        int sleep = symbols.intern("java.lang.Thread", "sleep");
+        journal.beginInterval(1_000L, 500L);
+        journal.addMethodEnergy(run, symbols, "main", 300L);
+        journal.addMethodEnergy(sleep, symbols, "worker", 100L);
+        journal.endInterval();
+        journal.beginInterval(2_000L, 700L);
+        journal.addMethodEnergy(run, symbols, "main", 600L);
+        journal.close();
+
+        StateJournal.State state = new StateJournal(stateFile, 60L).replay();
+        assertThat(state.totalMicroJoules).isEqualTo(2_200L);
+        assertThat(state.methods).containsOnlyKeys("com.msg.Main.run", "java.lang.Thread.sleep");
+        StateJournal.MethodState restoredRun = state.methods.get("com.msg.Main.run");
+        assertThat(restoredRun.microJoules).isEqualTo(900L);
+        assertThat(restoredRun.threadName).isEqualTo("main");
+        assertThat(restoredRun.lastUpdateInMillis).isEqualTo(2_000L);
+        assertThat(state.methods.get("java.lang.Thread.sleep").microJoules).isEqualTo(100L);
+    }
+
+    @Test
+    void journalContainedInSnapshotIsNotReplayedAgainTest() throws IOException {
+        Path stateFile = tempDir.resolve("state");
+        StateJournal journal = new StateJournal(stateFile, 60L);
+        journal.replay();
+        journal.snapshot(0L, 0L, Map.of(), symbols);
+        int run = symbols.intern("com.msg.Main", "run");
+        journal.beginInterval(1_000L, 500L);
+        journal.addMethodEnergy(run, symbols, "main", 500L);
+        journal.endInterval();
+        Path oldJournal = tempDir.resolve("old.journal");
+        Files.copy(tempDir.resolve("state.journal"), oldJournal);
+
+        Map<Integer, MethodEnergy> energyPerMethod = new ConcurrentHashMap<>();
+        energyPerMethod.computeIfAbsent(run, id -> new MethodEnergy("main")).add(500L);
+        journal.snapshot(500L, 0L, energyPerMethod, symbols);
+        journal.close();
+        // crash after the snapshot was written, but before the new journal was started
+        Files.copy(oldJournal, tempDir.resolve("state.journal"), StandardCopyOption.REPLACE_EXISTING);
+
+        StateJournal.State state = new StateJournal(stateFile, 60L).replay();
+        assertThat(state.totalMicroJoules).isEqualTo(500L);
+        assertThat(state.methods.get("com.msg.Main.run").microJoules).isEqualTo(500L);
+    }
+
+    @Test
+    void incompleteRecordAtEndOfJournalIsIgnoredTest() throws IOException {
+        Path stateFile = tempDir.resolve("state");
+        StateJournal journal = new StateJournal(stateFile, 60L);
+        journal.replay();
+        journal.snapshot(0L, 0L, Map.of(), symbols);
+        int run = symbols.intern("com.msg.Main", "run");
+        journal.beginInterval(1_000L, 500L);
+        journal.addMethodEnergy(run, symbols, "main", 500L);
+        journal.endInterval();
+        journal.beginInterval(2_000L, 800L);
+        journal.close();
+        Path journalFile = tempDir.resolve("state.journal");
+        byte[] content = Files.readAllBytes(journalFile);
+        Files.write(journalFile, Arrays.copyOf(content, content.length - 3)); // crash while appending
+
+        StateJournal.State state = new StateJournal(stateFile, 60L).replay();
+        assertThat(state.totalMicroJoules).isEqualTo(500L);
+        assertThat(state.methods.get("com.msg.Main.run").microJoules).isEqualTo(500L);
+    }
+
+    @Test
+    void powerStatisticsRestoreEnergyOfPreviousRunTest() {
+        Path stateFile = tempDir.resolve("state");
+        StateJournal journal = new StateJournal(stateFile, 60L);
+        journal.replay();
+        journal.snapshot(0L, 0L, Map.of(), symbols);
+        journal.beginInterval(1_000L, 3_000_000L);
+        journal.addMethodEnergy(symbols.intern("com.msg.Main", "run"), symbols, "main", 2_000_000L);
+        journal.close();
+
+        PowerStatistics restarted = new PowerStatistics(0L, 0L, 0L, null, Set.of("com.msg"));
+        StateJournal restartedJournal = new StateJournal(stateFile, 60L);
+        restarted.restoreAndJournalTo(restartedJournal);
+        restartedJournal.close();
+        assertThat(restarted.getEnergyConsumptionTotalInJoule().getValue()).isEqualByComparingTo("3");
+        assertThat(restarted.getEnergyConsumptionPerMethod(true)).containsOnlyKeys("com.msg.Main.run");
+        assertThat(restarted.getEnergyConsumptionPerMethod(true).get("com.msg.Main.run").getValue()).isEqualByComparingTo("2");
+
+        // the restored state has been written as new snapshot
+        StateJournal.State state = new StateJournal(stateFile, 60L).replay();
+        assertThat(state.totalMicroJoules).isEqualTo(3_000_000L);
+        assertThat(state.methods.get("com.msg.Main.run").microJoules).isEqualTo(2_000_000L);
+    }
+
+    @Test
+    void nameWithoutPackageIsRestoredUnchangedTest() {
+        Path stateFile = tempDir.resolve("state");
+        StateJournal journal = new StateJournal(stateFile, 60L);
+        journal.replay();
+        journal.snapshot(0L, 0L, Map.of(), symbols);
+        journal.beginInterval(1_000L, 1_000_000L);
+        journal.addMethodEnergy(symbols.internQualifiedName("main"), symbols, "main", 1_000_000L);
+        journal.close();
+
+        PowerStatistics restarted = new PowerStatistics(0L, 0L, 0L, null, Set.of("main"));
+        StateJournal restartedJournal = new StateJournal(stateFile, 60L);
+        restarted.restoreAndJournalTo(restartedJournal);
+        restartedJournal.close();
+        assertThat(restarted.getEnergyConsumptionPerMethod(true)).containsOnlyKeys("main");
+        assertThat(new StateJournal(stateFile, 60L).replay().methods).containsOnlyKeys("main");
+    }
+}
@@ -0,0 +1,78 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ThreadCpuTimeRegistryTest {
+
+    @Test
+    void cpuTimeInIntervalIsDifferenceToLastUpdateTest() {
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        registry.startInterval();
+        assertThat(registry.update(1L, 100L)).isEqualTo(100L);
+        registry.startInterval();
+        assertThat(registry.update(1L, 250L)).isEqualTo(150L);
+        registry.startInterval();
+        assertThat(registry.update(1L, 260L)).isEqualTo(10L);
+        assertThat(registry.getCpuTimeInInterval(1L)).isEqualTo(10L);
+        assertThat(registry.getCpuTimeInInterval(2L)).isEqualTo(0L);
+    }
+
+    @Test
+    void threadsWithSameNameAreDistinguishedByIdTest() {
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        registry.startInterval();
+        registry.update(10L, 100L);
+        registry.update(11L, 300L);
+        Map<Long, Long> cpuTimes = new HashMap<>();
+        registry.forEach(cpuTimes::put);
+        assertThat(cpuTimes).containsExactlyInAnyOrderEntriesOf(Map.of(10L, 100L, 11L, 300L));
+    }
+
+    @Test
+    void terminatedThreadsAreEvictedTest() {
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        for (long interval = 0; interval < 100; interval++) {
+            registry.startInterval();
+            // thread pool replacing its 10 threads each interval, thread 1 lives forever
+            registry.update(1L, interval);
+            for (long threadId = 2 + interval * 10; threadId < 12 + interval * 10; threadId++) {
+                registry.update(threadId, 5L);
+            }
+            registry.evictTerminatedThreads();
+            assertThat(registry.size()).isEqualTo(11);
+        }
+        Map<Long, Long> cpuTimes = new HashMap<>();
+        registry.forEach(cpuTimes::put);
+        assertThat(cpuTimes).hasSize(11).containsEntry(1L, 1L).containsEntry(1000L, 5L).doesNotContainKey(990L);
+    }
+
+    @Test
+    void growsAndKeepsValuesTest() {
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        registry.startInterval();
+        for (long threadId = 1; threadId <= 1000; threadId++) {
+            registry.update(threadId, threadId * 2);
+        }
+        registry.startInterval();
+        for (long threadId = 1; threadId <= 1000; threadId += 2) {
+            registry.update(threadId, threadId * 3);
+        }
+        assertThat(registry.evictTerminatedThreads()).isEqualTo(500);
+        assertThat(registry.size()).isEqualTo(500);
+        for (long threadId = 1; threadId <= 1000; threadId += 2) {
+            assertThat(registry.getCpuTimeInInterval(threadId)).isEqualTo(threadId);
+        }
+    }
+
+    @Test
+    void invalidThreadIdTest() {
+        ThreadCpuTimeRegistry registry = new ThreadCpuTimeRegistry();
+        assertThatThrownBy(() -> registry.update(0L, 1L)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,61 @@
+package group.msg.jpowermonitor.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ThreadIdMapTest {
+
+    @Test
+    void putAndGetBeyondInitialCapacityTest() {
+        ThreadIdMap<String> map = new ThreadIdMap<>(4);
+        for (long threadId = 1; threadId <= 100; threadId++) {
+            map.put(threadId, "t" + threadId);
+        }
+        map.put(42L, "replaced");
+        assertThat(map.size()).isEqualTo(100);
+        assertThat(map.capacity()).isGreaterThanOrEqualTo(128);
+        assertThat(map.get(1L)).isEqualTo("t1");
+        assertThat(map.get(42L)).isEqualTo("replaced");
+        assertThat(map.get(101L)).isNull();
+    }
+
+    @Test
+    void removeAtKeepsFollowingEntriesOfProbeSequenceReachableTest() {
+        ThreadIdMap<Long> map = new ThreadIdMap<>(16);
+        for (long threadId = 1; threadId <= 12; threadId++) {
+            map.put(threadId, threadId);
+        }
+        // remove the odd thread ids, re-checking each slot after a removal like the callers do
+        int slot = 0;
+        while (slot < map.capacity()) {
+            if (map.threadIdAt(slot) != ThreadIdMap.FREE && map.threadIdAt(slot) % 2 == 1) {
+                map.removeAt(slot);
+                continue;
+            }
+            slot++;
+        }
+        Map<Long, Long> remaining = new HashMap<>();
+        for (slot = 0; slot < map.capacity(); slot++) {
+            if (map.threadIdAt(slot) != ThreadIdMap.FREE) {
+                remaining.put(map.threadIdAt(slot), map.valueAt(slot));
+            }
+        }
+        assertThat(map.size()).isEqualTo(6);
+        assertThat(remaining).containsOnlyKeys(2L, 4L, 6L, 8L, 10L, 12L);
+        for (long threadId = 2; threadId <= 12; threadId += 2) {
+            assertThat(map.get(threadId)).isEqualTo(threadId);
+        }
+        assertThat(map.get(3L)).isNull();
+    }
+
+    @Test
+    void nonPositiveThreadIdIsRejectedTest() {
+        ThreadIdMap<String> map = new ThreadIdMap<>(4);
+        assertThatThrownBy(() -> map.put(0L, "x")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -83,6 +83,21 @@ public class JPowerMonitorConfigTest {
         assertThat(config.getJavaAgent().getMeasurementIntervalInMs()).isEqualTo(0L);
         assertThat(config.getJavaAgent().getGatherStatisticsIntervalInMs()).isEqualTo(0L);
         assertThat(config.getJavaAgent().getWriteEnergyMeasurementsToCsvIntervalInS()).isEqualTo(0L);
+        assertThat(config.getJavaAgent().getStackSampler()).isEqualTo("threadDump");
+        assertThat(config.getJavaAgent().getMaxStackDepth()).isEqualTo(0);
+        assertThat(config.getJavaAgent().getCpuTimeCollector()).isEqualTo("jmxBulk");
+        assertThat(config.getJavaAgent().isWriteCallTree()).isFalse();
+        assertThat(config.getJavaAgent().getPowerOutputFormat()).isEqualTo("csv");
+        assertThat(config.getJavaAgent().getPowerCsvFlushIntervalInS()).isEqualTo(10L);
+        assertThat(config.getJavaAgent().getPowerCsvFsyncIntervalInS()).isEqualTo(0L);
+        assertThat(config.getJavaAgent().getStateFile()).isNull();
+        assertThat(config.getJavaAgent().getStateSnapshotIntervalInS()).isEqualTo(60L);
+        assertThat(config.getJavaAgent().getPowerHistoryRetentionInS()).isEqualTo(0L);
+        assertThat(config.getJavaAgent().getPowerHistoryMaxMemoryInKb()).isEqualTo(16384L);
+        assertThat(config.getJavaAgent().getMaxTrackedMethods()).isEqualTo(0);
+        assertThat(config.getJavaAgent().getEnergyWindowsInS()).isNull();
+        assertThat(config.getJavaAgent().getEnergyWindowsTopMethods()).isEqualTo(20);
+        assertThat(config.getJavaAgent().getPowerAttribution()).isEqualTo("full");
     }
 
     @Test
@@ -114,4 +129,63 @@ public class JPowerMonitorConfigTest {
             .getWriteEnergyMeasurementsToCsvIntervalInS();
         assertThat(writeEnergyMeasurementsToCsvIntervalInS).isEqualTo(20L);
     }
+
+    @Test
+    public void testStackSampler() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getStackSampler()).isEqualTo("perThread");
+        assertThat(config.getJavaAgent().getMaxStackDepth()).isEqualTo(64);
+    }
+
+    @Test
+    public void testWriteCallTree() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().isWriteCallTree()).isTrue();
+    }
+
+    @Test
+    public void testPowerCsvFsyncInterval() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getPowerCsvFlushIntervalInS()).isEqualTo(10L);
+        assertThat(config.getJavaAgent().getPowerCsvFsyncIntervalInS()).isEqualTo(60L);
+    }
+
+    @Test
+    public void testStateFile() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getStateFile()).isEqualTo("build/tmp/jpowermonitor-state");
+        assertThat(config.getJavaAgent().getStateSnapshotIntervalInS()).isEqualTo(300L);
+    }
+
+    @Test
+    public void testPowerOutputFormat() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getPowerOutputFormat()).isEqualTo("binary");
+    }
+
+    @Test
+    public void testPowerHistory() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getPowerHistoryRetentionInS()).isEqualTo(43200L);
+        assertThat(config.getJavaAgent().getPowerHistoryMaxMemoryInKb()).isEqualTo(4096L);
+    }
+
+    @Test
+    public void testMaxTrackedMethods() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getMaxTrackedMethods()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testEnergyWindows() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getEnergyWindowsInS()).containsExactly(60, 300, 3600);
+        assertThat(config.getJavaAgent().getEnergyWindowsTopMethods()).isEqualTo(10);
+    }
+
+    @Test
+    public void testPowerAttribution() {
+        JPowerMonitorConfig config = new ConfigProviderForTests().readConfig(getClass());
+        assertThat(config.getJavaAgent().getPowerAttribution()).isEqualTo("processShare");
+    }
 }
@@ -0,0 +1,110 @@
+package group.msg.jpowermonitor.measurement.model;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.config.JPowerMonitorConfig;
+import group.msg.jpowermonitor.config.Measurement;
+import group.msg.jpowermonitor.config.PowerCurve;
+import group.msg.jpowermonitor.config.PowerCurvePoint;
+import group.msg.jpowermonitor.config.PowerModelCfg;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class CpuUtilizationPowerModelTest {
+    @TempDir
+    Path tempDir;
+
+    private Path procStat(long busy, long idle) throws IOException {
+        Path procStat = tempDir.resolve("stat");
+        Files.writeString(procStat, "cpu  " + busy + " 0 0 " + idle + " 0 0 0 0 0 0\n");
+        return procStat;
+    }
+
+    private static PowerCurvePoint point(String utilization, String powerInWatts) {
+        PowerCurvePoint point = new PowerCurvePoint();
+        point.setUtilization(new BigDecimal(utilization));
+        point.setPowerInWatts(new BigDecimal(powerInWatts));
+        return point;
+    }
+
+    private JPowerMonitorConfig config(Path procStat, String hostType, PowerCurve curve) {
+        PowerModelCfg model = new PowerModelCfg();
+        model.setProcStat(procStat.toString());
+        model.setHostType(hostType);
+        model.setHostTypes(Map.of("c5.large", curve));
+        Measurement measurement = new Measurement();
+        measurement.setMethod("model");
+        measurement.setModel(model);
+        JPowerMonitorConfig config = new JPowerMonitorConfig();
+        config.setMeasurement(measurement);
+        return config;
+    }
+
+    @Test
+    void linearCurveFromIdleToMaxTest() throws IOException {
+        PowerCurve curve = new PowerCurve();
+        curve.setIdleInWatts(new BigDecimal("10"));
+        curve.setMaxInWatts(new BigDecimal("50"));
+        Path procStat = procStat(1000, 9000);
+        CpuUtilizationPowerModel model = new CpuUtilizationPowerModel(config(procStat, "c5.large", curve));
+        assertThat(model.measureFirstConfiguredPath().getValue()).isEqualByComparingTo("10"); // no interval yet
+
+        procStat(1075, 9100); // 75 of 175 ticks busy
+        assertThat(model.measureFirstConfiguredPath().getValue().doubleValue()).isCloseTo(10 + 40 * 75.0 / 175.0, within(0.001));
+        assertThat(model.measureFirstConfiguredPath().getName()).contains("estimated");
+        model.close();
+    }
+
+    @Test
+    void piecewiseCurveIsInterpolatedTest() throws IOException {
+        PowerCurve curve = new PowerCurve();
+        curve.setPoints(List.of(point("100", "120"), point("0", "20"), point("50", "90")));
+        CpuUtilizationPowerModel model = new CpuUtilizationPowerModel(config(procStat(0, 0), "c5.large", curve));
+        assertThat(model.estimatePowerInWatts(0.0)).isEqualTo(20.0);
+        assertThat(model.estimatePowerInWatts(0.25)).isCloseTo(55.0, within(1e-9));
+        assertThat(model.estimatePowerInWatts(0.75)).isCloseTo(105.0, within(1e-9));
+        assertThat(model.estimatePowerInWatts(1.0)).isEqualTo(120.0);
+        assertThat(model.describe()).contains("'c5.large'", "[0%: 20.0 W, 50%: 90.0 W, 100%: 120.0 W]");
+        model.close();
+    }
+
+    @Test
+    void shortIntervalsReturnThePreviousEstimateTest() throws IOException {
+        PowerCurve curve = new PowerCurve();
+        curve.setIdleInWatts(new BigDecimal("0"));
+        curve.setMaxInWatts(new BigDecimal("100"));
+        CpuUtilizationPowerModel model = new CpuUtilizationPowerModel(config(procStat(0, 0), "c5.large", curve));
+        procStat(CpuUtilizationPowerModel.MIN_TICKS - 1, 0);
+        assertThat(model.measureFirstConfiguredPath().getValue()).isEqualByComparingTo("0");
+        procStat(CpuUtilizationPowerModel.MIN_TICKS, 0);
+        assertThat(model.measureFirstConfiguredPath().getValue()).isEqualByComparingTo("100");
+        model.close();
+    }
+
+    @Test
+    void closedModelCannotMeasureTest() throws IOException {
+        PowerCurve curve = new PowerCurve();
+        curve.setIdleInWatts(new BigDecimal("0"));
+        curve.setMaxInWatts(new BigDecimal("100"));
+        CpuUtilizationPowerModel model = new CpuUtilizationPowerModel(config(procStat(0, 0), "c5.large", curve));
+        model.close();
+        assertThatThrownBy(model::measureFirstConfiguredPath).isInstanceOf(JPowerMonitorException.class);
+    }
+
+    @Test
+    void unknownHostTypeIsRejectedTest() throws IOException {
+        Path procStat = procStat(0, 0);
+        assertThatThrownBy(() -> new CpuUtilizationPowerModel(config(procStat, "m5.xlarge", new PowerCurve()))).isInstanceOf(JPowerMonitorException.class)
+            .hasMessageContaining("m5.xlarge");
+    }
+}
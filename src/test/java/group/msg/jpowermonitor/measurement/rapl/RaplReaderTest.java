@@ -0,0 +1,121 @@
+package group.msg.jpowermonitor.measurement.rapl;
+
+import group.msg.jpowermonitor.JPowerMonitorException;
+import group.msg.jpowermonitor.config.JPowerMonitorConfig;
+import group.msg.jpowermonitor.config.Measurement;
+import group.msg.jpowermonitor.config.RaplCfg;
+import group.msg.jpowermonitor.config.RaplDomain;
+import group.msg.jpowermonitor.dto.DataPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RaplReaderTest {
+    private static final long MAX_ENERGY_RANGE = 262_143_328_850L;
+    @TempDir
+    Path powercap;
+    private long nanoTime;
+
+    private Path zone(String dir, String name, long energy) throws IOException {
+        Path zone = Files.createDirectories(powercap.resolve(dir));
+        Files.writeString(zone.resolve("name"), name + "\n");
+        Files.writeString(zone.resolve("max_energy_range_uj"), MAX_ENERGY_RANGE + "\n");
+        setEnergy(zone, energy);
+        return zone;
+    }
+
+    private static void setEnergy(Path zone, long energy) throws IOException {
+        Files.writeString(zone.resolve("energy_uj"), energy + "\n");
+    }
+
+    private JPowerMonitorConfig config(String... domainNames) {
+        RaplCfg rapl = new RaplCfg();
+        rapl.setPath(powercap.toString());
+        rapl.setDomains(Arrays.stream(domainNames).map(name -> {
+            RaplDomain domain = new RaplDomain();
+            domain.setName(name);
+            return domain;
+        }).collect(Collectors.toList()));
+        Measurement measurement = new Measurement();
+        measurement.setMethod("rapl");
+        measurement.setRapl(rapl);
+        JPowerMonitorConfig config = new JPowerMonitorConfig();
+        config.setMeasurement(measurement);
+        return config;
+    }
+
+    @Test
+    void powerOfAllPackagesIsSummedUpTest() throws Exception {
+        Path package0 = zone("intel-rapl:0", "package-0", 1_000_000L);
+        Path package1 = zone("intel-rapl:1", "package-1", 5_000_000L);
+        zone("intel-rapl:0:0", "core", 0L);
+        RaplReader reader = new RaplReader(config("package"), () -> nanoTime);
+        assertThat(reader.configuredSensors()).containsExactly("package");
+
+        setEnergy(package0, 11_000_000L);
+        setEnergy(package1, 15_000_000L);
+        nanoTime += TimeUnit.MILLISECONDS.toNanos(200L);
+        DataPoint dataPoint = reader.measureFirstConfiguredPath();
+        reader.close();
+
+        // 20 J in 200 ms
+        assertThat(dataPoint.getName()).isEqualTo("package");
+        assertThat(dataPoint.getValue()).isEqualByComparingTo("100");
+    }
+
+    @Test
+    void counterWrapAroundIsHandledTest() throws Exception {
+        Path package0 = zone("intel-rapl:0", "package-0", MAX_ENERGY_RANGE - 1_000_000L);
+        zone("intel-rapl:0:1", "dram", 0L);
+        RaplReader reader = new RaplReader(config("package", "dram"), () -> nanoTime);
+        setEnergy(package0, 2_000_000L);
+        nanoTime += TimeUnit.MILLISECONDS.toNanos(100L);
+        List<DataPoint> dataPoints = reader.measure();
+        reader.close();
+
+        assertThat(dataPoints).extracting(DataPoint::getName).containsExactly("package", "dram");
+        // 3 J in 100 ms, not a negative power
+        assertThat(dataPoints.get(0).getValue()).isEqualByComparingTo("30");
+        assertThat(dataPoints.get(1).getValue()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    void shorterIntervalReturnsPreviousPowerTest() throws Exception {
+        Path package0 = zone("intel-rapl:0", "package-0", 0L);
+        RaplReader reader = new RaplReader(config("package"), () -> nanoTime);
+        setEnergy(package0, 1_000_000L);
+        nanoTime += TimeUnit.SECONDS.toNanos(1L);
+        assertThat(reader.measureFirstConfiguredPath().getValue()).isEqualByComparingTo("1");
+
+        setEnergy(package0, 5_000_000L);
+        nanoTime += 1_000L;
+        assertThat(reader.measureFirstConfiguredPath().getValue()).isEqualByComparingTo("1");
+        reader.close();
+    }
+
+    @Test
+    void closedReaderCannotMeasureTest() throws Exception {
+        zone("intel-rapl:0", "package-0", 0L);
+        RaplReader reader = new RaplReader(config("package"), () -> nanoTime);
+        reader.close();
+        nanoTime += TimeUnit.SECONDS.toNanos(1L);
+        assertThatThrownBy(reader::measureFirstConfiguredPath).isInstanceOf(JPowerMonitorException.class);
+    }
+
+    @Test
+    void unknownDomainIsRejectedTest() throws Exception {
+        zone("intel-rapl:0", "package-0", 0L);
+        assertThatThrownBy(() -> new RaplReader(config("psys"))).isInstanceOf(JPowerMonitorException.class).hasMessageContaining("package-0");
+    }
+}
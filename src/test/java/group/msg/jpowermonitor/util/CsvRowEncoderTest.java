@@ -0,0 +1,94 @@
+package group.msg.jpowermonitor.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static group.msg.jpowermonitor.util.Constants.DATE_TIME_FORMATTER;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvRowEncoderTest {
+
+    static Stream<Locale> locales() {
+        return Stream.of(new Locale("en", "US"), new Locale("de", "DE"), new Locale("fr", "FR"), new Locale("ar", "EG"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("locales")
+    void decimalsAreFormattedLikeDecimalFormatTest(Locale locale) {
+        DecimalFormat decimalFormat = new DecimalFormat("###0.#####", DecimalFormatSymbols.getInstance(locale));
+        CsvRowEncoder encoder = CsvRowEncoder.forLocale(locale);
+        Stream.of("0", "-0", "0.00000", "1", "-1.5", "12.3", "1E+3", "0.000005", "0.000015", "-0.000001", "2.500005", "2.500015",
+                "99999.999995", "123456789012345678", "1234567890123456789", "123456789012345678901234.123456", "-987654321.0000049")
+            .map(BigDecimal::new)
+            .forEach(value -> assertThat(encode(encoder, value)).as(value.toString()).isEqualTo(decimalFormat.format(value)));
+
+        Random random = new Random(42L);
+        for (int i = 0; i < 10_000; i++) {
+            BigDecimal value = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(12) - 2);
+            assertThat(encode(encoder, value)).as(value.toString()).isEqualTo(decimalFormat.format(value));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("locales")
+    void doublesAreFormattedLikeTheirDecimalValueTest(Locale locale) {
+        CsvRowEncoder encoder = CsvRowEncoder.forLocale(locale);
+        for (double value : new double[]{0d, -0d, 1d, -1.5, 12.3, 0.1 + 0.2, 1e-7, -1e-7, 123.456789, 99999.999994, 1e11, 1e17, -Double.MAX_VALUE}) {
+            assertThat(encoder.appendDecimal(new StringBuilder(), value).toString()).as(Double.toString(value)).isEqualTo(encode(encoder, BigDecimal.valueOf(value)));
+        }
+
+        Random random = new Random(42L);
+        for (int i = 0; i < 10_000; i++) {
+            double value = (random.nextLong() >> (24 + random.nextInt(40))) / 100_000d; // at most 5 fraction digits, far from a tie
+            assertThat(encoder.appendDecimal(new StringBuilder(), value).toString()).as(Double.toString(value)).isEqualTo(encode(encoder, BigDecimal.valueOf(value)));
+        }
+        assertThatThrownBy(() -> encoder.appendDecimal(new StringBuilder(), Double.NaN)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> encoder.appendDecimal(new StringBuilder(), Double.POSITIVE_INFINITY)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void timeIsFormattedLikeDateTimeFormatterTest() {
+        CsvRowEncoder encoder = CsvRowEncoder.forLocale(Locale.US);
+        for (LocalDateTime time : new LocalDateTime[]{
+            LocalDateTime.of(2023, 11, 16, 9, 5, 3, 7_000_000),
+            LocalDateTime.of(2024, 1, 1, 0, 0, 0, 999_999_999),
+            LocalDateTime.of(999, 12, 31, 23, 59, 59),
+            LocalDateTime.of(12345, 6, 7, 8, 9, 10)}) {
+            assertThat(encoder.appendTime(new StringBuilder(), time).toString()).isEqualTo(DATE_TIME_FORMATTER.format(time));
+        }
+    }
+
+    @Test
+    void separatorDependsOnCountryTest() {
+        assertThat(CsvRowEncoder.forLocale(Locale.GERMANY).getSeparator()).isEqualTo(';');
+        assertThat(CsvRowEncoder.forLocale(new Locale("de", "AT")).getSeparator()).isEqualTo(',');
+        assertThat(CsvRowEncoder.forLocale(Locale.US).getSeparator()).isEqualTo(',');
+    }
+
+    @Test
+    void rowIsAppendedToGivenBuilderTest() {
+        CsvRowEncoder encoder = CsvRowEncoder.forLocale(Locale.GERMANY);
+        StringBuilder row = new StringBuilder("prefix|");
+        encoder.appendText(row, "main");
+        encoder.appendSeparator(row);
+        encoder.appendDecimal(row, new BigDecimal("1.234567"));
+        encoder.appendSeparator(row);
+        encoder.appendText(row, null);
+        assertThat(row.toString()).isEqualTo("prefix|main;1,23457;null");
+        assertThatThrownBy(() -> encoder.appendDecimal(row, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String encode(CsvRowEncoder encoder, BigDecimal value) {
+        return encoder.appendDecimal(new StringBuilder(), value).toString();
+    }
+}
@@ -0,0 +1,43 @@
+package group.msg.jpowermonitor.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProcStatReaderTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void cpuLineIsParsedAndReReadTest() throws IOException {
+        Path procStat = tempDir.resolve("stat");
+        Files.writeString(procStat, "cpu  100 5 50 1000 20 3 2 10 7 0\ncpu0 50 2 25 500 10 1 1 5 3 0\nintr 12345\n");
+        try (ProcStatReader reader = new ProcStatReader(procStat)) {
+            reader.read();
+            // guest and guest_nice are contained in user and nice
+            assertThat(reader.getTotalTicks()).isEqualTo(1190L);
+            assertThat(reader.getIdleTicks()).isEqualTo(1020L);
+            assertThat(reader.getBusyTicks()).isEqualTo(170L);
+
+            Files.writeString(procStat, "cpu  200 5 50 1100 20 3 2 10 7 0\n");
+            reader.read();
+            assertThat(reader.getTotalTicks()).isEqualTo(1390L);
+            assertThat(reader.getBusyTicks()).isEqualTo(270L);
+        }
+    }
+
+    @Test
+    void otherFormatIsRejectedTest() throws IOException {
+        Path procStat = tempDir.resolve("stat");
+        Files.writeString(procStat, "intr 12345\n");
+        try (ProcStatReader reader = new ProcStatReader(procStat)) {
+            assertThatThrownBy(reader::read).isInstanceOf(IOException.class);
+        }
+    }
+}